@@ -0,0 +1,10 @@
+#!/bin/bash
+# Runs the JMH benchmarks once per thread count, reporting allocation rates.
+# Extra arguments go to JMH, e.g. ./benchmark.sh RepositoryBenchmark -p chunkSize=65536
+THREADS=${THREADS:-"1 4 16"}
+
+./mvnw -Pbenchmarks -DskipTests test-compile || exit 1
+
+for t in $THREADS; do
+    ./mvnw -q -Pbenchmarks exec:exec -Djmh.args="-prof gc -t $t -rf json -rff target/jmh-threads-$t.json $*"
+done
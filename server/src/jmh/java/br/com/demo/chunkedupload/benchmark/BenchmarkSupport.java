@@ -0,0 +1,110 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import br.com.demo.chunkedupload.data.CompressingRepository;
+import br.com.demo.chunkedupload.data.ContentAddressedRepository;
+import br.com.demo.chunkedupload.data.FileInformation;
+import br.com.demo.chunkedupload.data.FileRepository;
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository;
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.StorageMode;
+import br.com.demo.chunkedupload.data.MemoryRepository;
+import br.com.demo.chunkedupload.data.Session;
+
+/**
+ * Fixtures shared by the benchmarks
+ */
+final class BenchmarkSupport {
+    /** Values of the <code>repository</code> benchmark parameter */
+    static final String MEMORY = "memory";
+    static final String CHUNK_FILES = "chunks";
+    static final String PREALLOCATED = "preallocated";
+    static final String CONTENT_ADDRESSED = ContentAddressedRepository.MODE;
+    static final String COMPRESSED = "compressed";
+
+    /** Chunks of each benchmark session; keeps 100 sessions of 1MB chunks under 400MB */
+    static final int CHUNKS_PER_SESSION = 4;
+
+    private static final long MEMORY_CAPACITY = 512L * 1024 * 1024;
+
+    private BenchmarkSupport() {
+    }
+
+    static Path createRoot() throws IOException {
+        return Files.createTempDirectory("chunked-upload-benchmark");
+    }
+
+    static FileRepository createRepository(String kind, Path root) throws IOException {
+        switch (kind) {
+        case MEMORY:
+            return new MemoryRepository(MEMORY_CAPACITY,
+                    new LocalFileSystemRepository(root.toString(), StorageMode.CHUNK_FILES));
+        case CHUNK_FILES:
+            return new LocalFileSystemRepository(root.toString(), StorageMode.CHUNK_FILES);
+        case PREALLOCATED:
+            return new LocalFileSystemRepository(root.toString(), StorageMode.PREALLOCATED);
+        case CONTENT_ADDRESSED:
+            return new ContentAddressedRepository(root.toString());
+        case COMPRESSED:
+            return new CompressingRepository(new LocalFileSystemRepository(root.toString(), StorageMode.CHUNK_FILES), 10);
+        default:
+            throw new IllegalArgumentException("Unknown repository: " + kind);
+        }
+    }
+
+    static FileInformation newFileInfo(int chunkSize) {
+        return new FileInformation((long) chunkSize * CHUNKS_PER_SESSION, "benchmark.bin", chunkSize);
+    }
+
+    static byte[] randomChunk(int chunkSize) {
+        byte[] chunk = new byte[chunkSize];
+        new Random(42).nextBytes(chunk);
+        return chunk;
+    }
+
+    /**
+     * Allocates and fills every chunk of <code>session</code>
+     */
+    static void upload(FileRepository repository, Session session, byte[] chunk) throws IOException {
+        repository.allocate(session.getId(), session.getFileInfo());
+
+        for (int n = 1; n <= CHUNKS_PER_SESSION; n++) {
+            repository.persist(session.getId(), n, new ByteArrayInputStream(chunk));
+            session.getFileInfo().markChunkAsPersisted(n);
+        }
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root))
+            return;
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Discards what is written, keeping only a count so the JIT cannot drop
+     * the writes
+     */
+    static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.demo.chunkedupload.data.OffloadingRepository;
+import br.com.demo.chunkedupload.service.ExecutionMode;
+import br.com.demo.chunkedupload.service.UploadService;
+
+/**
+ * Time for <code>uploaders</code> concurrent clients to each upload one chunk,
+ * with the uploads running on a fixed pool of platform threads or on virtual
+ * threads. Clients are slow: their chunk arrives in packets, with a delay
+ * before each one.
+ * <p>
+ * Virtual threads need a Java 21 JVM; on older ones, the virtual mode falls
+ * back to the platform pool.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentUploadBenchmark {
+    private static final Long USER = 1L;
+    private static final int PACKET_SIZE = 4096;
+
+    @Param({ "platform", "virtual" })
+    public String mode;
+
+    @Param({ "10000" })
+    public int uploaders;
+
+    /** Jetty's default maximum pool size */
+    @Param({ "200" })
+    public int platformThreads;
+
+    @Param({ "16384" })
+    public int chunkSize;
+
+    @Param({ "4" })
+    public int packetDelayMillis;
+
+    @Param({ "64" })
+    public int ioThreads;
+
+    private Path root;
+    private OffloadingRepository storage;
+    private UploadService service;
+    private String[] sessionIds;
+    private byte[] chunk;
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = BenchmarkSupport.createRoot();
+        storage = new OffloadingRepository(BenchmarkSupport.createRepository(BenchmarkSupport.CHUNK_FILES, root),
+                ioThreads);
+        service = new UploadService(storage);
+        chunk = BenchmarkSupport.randomChunk(chunkSize);
+
+        sessionIds = new String[uploaders];
+        for (int i = 0; i < uploaders; i++) {
+            sessionIds[i] = service.createSession(USER, "benchmark.bin", chunkSize, (long) chunkSize).getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storage.shutdown();
+        BenchmarkSupport.deleteRecursively(root);
+    }
+
+    @Setup(Level.Iteration)
+    public void startExecutor() {
+        executor = ExecutionMode.fromString(mode).newExecutor("uploader", platformThreads, uploaders);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopExecutor() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public void uploadConcurrently() throws Exception {
+        final CountDownLatch done = new CountDownLatch(uploaders);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        for (final String sessionId : sessionIds) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        service.persistBlock(sessionId, USER, 1, new SlowInputStream(chunk, packetDelayMillis));
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        done.await();
+
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    /**
+     * Client that sends its chunk in packets, waiting before each one
+     */
+    static class SlowInputStream extends InputStream {
+        private final byte[] content;
+        private final long delayMillis;
+        private int position;
+
+        SlowInputStream(byte[] content, long delayMillis) {
+            this.content = content;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= content.length)
+                return -1;
+
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            int n = Math.min(Math.min(len, PACKET_SIZE), content.length - position);
+            System.arraycopy(content, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
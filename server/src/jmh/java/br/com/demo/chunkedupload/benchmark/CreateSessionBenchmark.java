@@ -0,0 +1,69 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.service.UploadService;
+
+/**
+ * {@link UploadService#createSession(Long, String, int, Long)} with
+ * <code>sessionCount</code> sessions already registered. The service is
+ * rebuilt every iteration, so the registry does not grow without bound.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CreateSessionBenchmark {
+    private static final Long USER = 1L;
+
+    @Param({ BenchmarkSupport.MEMORY, BenchmarkSupport.CHUNK_FILES, BenchmarkSupport.PREALLOCATED })
+    public String repository;
+
+    @Param({ "65536", "1048576" })
+    public int chunkSize;
+
+    @Param({ "1", "10000" })
+    public int sessionCount;
+
+    private Path root;
+    private UploadService service;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        root = BenchmarkSupport.createRoot();
+        service = new UploadService(BenchmarkSupport.createRepository(repository, root));
+
+        for (int i = 0; i < sessionCount; i++) {
+            createSession();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        BenchmarkSupport.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public Session createSession() throws Exception {
+        return service.createSession(USER, "benchmark.bin", chunkSize,
+                (long) chunkSize * BenchmarkSupport.CHUNKS_PER_SESSION);
+    }
+}
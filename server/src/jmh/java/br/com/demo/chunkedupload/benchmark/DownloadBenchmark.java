@@ -0,0 +1,85 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.demo.chunkedupload.data.FileRepository;
+import br.com.demo.chunkedupload.data.Session;
+
+/**
+ * Streams whole concluded uploads through
+ * {@link FileRepository#getContentStream(Session)}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DownloadBenchmark {
+    private static final Long USER = 1L;
+
+    @Param({ BenchmarkSupport.MEMORY, BenchmarkSupport.CHUNK_FILES, BenchmarkSupport.PREALLOCATED,
+            BenchmarkSupport.CONTENT_ADDRESSED, BenchmarkSupport.COMPRESSED })
+    public String repository;
+
+    @Param({ "65536", "1048576" })
+    public int chunkSize;
+
+    @Param({ "1", "100" })
+    public int sessionCount;
+
+    private Path root;
+    private FileRepository storage;
+    private Session[] sessions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = BenchmarkSupport.createRoot();
+        storage = BenchmarkSupport.createRepository(repository, root);
+        byte[] chunk = BenchmarkSupport.randomChunk(chunkSize);
+
+        sessions = new Session[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            sessions[i] = new Session(USER, BenchmarkSupport.newFileInfo(chunkSize));
+            BenchmarkSupport.upload(storage, sessions[i], chunk);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (Session session : sessions) {
+            storage.delete(session.getId());
+        }
+        BenchmarkSupport.deleteRecursively(root);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int position = ThreadLocalRandom.current().nextInt(1 << 20);
+        final BenchmarkSupport.CountingOutputStream out = new BenchmarkSupport.CountingOutputStream();
+    }
+
+    @Benchmark
+    public long getContentStream(Cursor cursor) throws Exception {
+        Session session = sessions[cursor.position++ % sessions.length];
+
+        storage.getContentStream(session).write(cursor.out);
+        return cursor.out.count;
+    }
+}
@@ -0,0 +1,92 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository;
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.Durability;
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.StorageMode;
+import br.com.demo.chunkedupload.data.Session;
+
+/**
+ * Cost of each {@link Durability} mode when persisting chunk files, as
+ * throughput and as the latency distribution of a single persist. Each thread
+ * writes the chunks of its own session, like concurrent uploads do; run it with
+ * several thread counts (<code>./benchmark.sh DurabilityBenchmark</code>) to see
+ * group commit catch up with the unsynced mode as writers are added, while
+ * syncing every chunk on its own stays bound by the disk flush latency.
+ * <p>
+ * Results depend on the disk far more than on the code: on a tmpfs, or on a
+ * disk with a volatile write cache that ignores flushes, every mode performs
+ * alike.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurabilityBenchmark {
+    private static final Long USER = 1L;
+
+    @Param({ "none", "fsync", "group-commit" })
+    public String durability;
+
+    @Param({ "4096", "65536" })
+    public int chunkSize;
+
+    private Path root;
+    private LocalFileSystemRepository storage;
+    private byte[] chunk;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = BenchmarkSupport.createRoot();
+        storage = new LocalFileSystemRepository(root.toString(), StorageMode.CHUNK_FILES,
+                Durability.fromString(durability));
+        chunk = BenchmarkSupport.randomChunk(chunkSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storage.shutdown();
+        BenchmarkSupport.deleteRecursively(root);
+    }
+
+    /**
+     * Session of a writing thread, whose chunks are written over and over
+     */
+    @State(Scope.Thread)
+    public static class Upload {
+        Session session;
+        int position;
+
+        @Setup(Level.Trial)
+        public void setUp(DurabilityBenchmark benchmark) throws Exception {
+            session = new Session(USER, BenchmarkSupport.newFileInfo(benchmark.chunkSize));
+            BenchmarkSupport.upload(benchmark.storage, session, benchmark.chunk);
+        }
+    }
+
+    @Benchmark
+    public long persist(Upload upload) throws Exception {
+        int chunkNumber = upload.position++ % BenchmarkSupport.CHUNKS_PER_SESSION + 1;
+
+        return storage.persist(upload.session.getId(), chunkNumber, new ByteArrayInputStream(chunk));
+    }
+}
@@ -0,0 +1,101 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.demo.chunkedupload.data.FileRepository;
+import br.com.demo.chunkedupload.data.Session;
+
+/**
+ * Persist and read paths of the {@link FileRepository} implementations,
+ * without the service bookkeeping on top
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+    private static final Long USER = 1L;
+
+    @Param({ BenchmarkSupport.MEMORY, BenchmarkSupport.CHUNK_FILES, BenchmarkSupport.PREALLOCATED,
+            BenchmarkSupport.CONTENT_ADDRESSED, BenchmarkSupport.COMPRESSED })
+    public String repository;
+
+    @Param({ "65536", "1048576" })
+    public int chunkSize;
+
+    @Param({ "1", "100" })
+    public int sessionCount;
+
+    private Path root;
+    private FileRepository storage;
+    private String[] sessionIds;
+    private byte[] chunk;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = BenchmarkSupport.createRoot();
+        storage = BenchmarkSupport.createRepository(repository, root);
+        chunk = BenchmarkSupport.randomChunk(chunkSize);
+
+        sessionIds = new String[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            Session session = new Session(USER, BenchmarkSupport.newFileInfo(chunkSize));
+            BenchmarkSupport.upload(storage, session, chunk);
+            sessionIds[i] = session.getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (String id : sessionIds) {
+            storage.delete(id);
+        }
+        BenchmarkSupport.deleteRecursively(root);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int position = ThreadLocalRandom.current().nextInt(1 << 20);
+    }
+
+    @Benchmark
+    public long persist(Cursor cursor) throws Exception {
+        int position = cursor.position++;
+
+        return storage.persist(sessionId(position), chunkNumber(position), new ByteArrayInputStream(chunk));
+    }
+
+    @Benchmark
+    public byte[] read(Cursor cursor) throws Exception {
+        int position = cursor.position++;
+
+        return storage.read(sessionId(position), chunkNumber(position));
+    }
+
+    private String sessionId(int position) {
+        return sessionIds[(position / BenchmarkSupport.CHUNKS_PER_SESSION) % sessionIds.length];
+    }
+
+    private static int chunkNumber(int position) {
+        return position % BenchmarkSupport.CHUNKS_PER_SESSION + 1;
+    }
+}
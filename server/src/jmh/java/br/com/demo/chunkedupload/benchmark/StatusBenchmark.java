@@ -0,0 +1,66 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.demo.chunkedupload.data.FileInformation;
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.model.UploadStatusResponse;
+
+/**
+ * {@link UploadStatusResponse#fromSessionList(List)}, as used by the upload
+ * listing endpoint. Every session is a half-uploaded 64MB file, so smaller
+ * chunks mean more chunks to account for.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatusBenchmark {
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+    @Param({ "65536", "1048576" })
+    public int chunkSize;
+
+    @Param({ "100", "10000" })
+    public int sessionCount;
+
+    private List<Session> sessions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sessions = new ArrayList<Session>(sessionCount);
+
+        for (int i = 0; i < sessionCount; i++) {
+            Session session = new Session((long) i, new FileInformation(FILE_SIZE, "benchmark.bin", chunkSize));
+
+            int chunks = session.getFileInfo().getTotalNumberOfChunks();
+            for (int n = 1; n <= chunks; n += 2) {
+                session.getFileInfo().markChunkAsPersisted(n);
+            }
+
+            sessions.add(session);
+        }
+    }
+
+    @Benchmark
+    public List<UploadStatusResponse> fromSessionList() {
+        return UploadStatusResponse.fromSessionList(sessions);
+    }
+}
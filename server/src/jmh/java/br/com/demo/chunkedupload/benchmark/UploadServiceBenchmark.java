@@ -0,0 +1,90 @@
+package br.com.demo.chunkedupload.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.com.demo.chunkedupload.data.FileRepository;
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.service.UploadService;
+
+/**
+ * {@link UploadService#persistBlock(String, Long, int, java.io.InputStream)}
+ * over sessions spread across the benchmark threads, the way the upload
+ * endpoint calls it
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadServiceBenchmark {
+    private static final Long USER = 1L;
+
+    @Param({ BenchmarkSupport.MEMORY, BenchmarkSupport.CHUNK_FILES, BenchmarkSupport.PREALLOCATED })
+    public String repository;
+
+    @Param({ "65536", "1048576" })
+    public int chunkSize;
+
+    @Param({ "1", "100" })
+    public int sessionCount;
+
+    private Path root;
+    private UploadService service;
+    private String[] sessionIds;
+    private byte[] chunk;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = BenchmarkSupport.createRoot();
+        FileRepository storage = BenchmarkSupport.createRepository(repository, root);
+        service = new UploadService(storage);
+        chunk = BenchmarkSupport.randomChunk(chunkSize);
+
+        sessionIds = new String[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            Session session = service.createSession(USER, "benchmark.bin", chunkSize,
+                    (long) chunkSize * BenchmarkSupport.CHUNKS_PER_SESSION);
+            sessionIds[i] = session.getId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkSupport.deleteRecursively(root);
+    }
+
+    /**
+     * Chunk picked by each thread; threads start at different sessions
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int position = ThreadLocalRandom.current().nextInt(1 << 20);
+    }
+
+    @Benchmark
+    public void persistBlock(Cursor cursor) throws Exception {
+        int position = cursor.position++;
+        String sessionId = sessionIds[(position / BenchmarkSupport.CHUNKS_PER_SESSION) % sessionIds.length];
+        int chunkNumber = position % BenchmarkSupport.CHUNKS_PER_SESSION + 1;
+
+        service.persistBlock(sessionId, USER, chunkNumber, new ByteArrayInputStream(chunk));
+    }
+}
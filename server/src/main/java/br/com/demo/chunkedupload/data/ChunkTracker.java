@@ -0,0 +1,120 @@
+package br.com.demo.chunkedupload.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe set of persisted chunk numbers, kept as a bitmap (one bit per
+ * chunk) plus a counter. Marking a chunk and reading the count are lock-free,
+ * constant-time and allocation-free.
+ */
+public class ChunkTracker {
+	private final int numberOfChunks;
+
+	private final AtomicLongArray words;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	public ChunkTracker(int numberOfChunks) {
+		this.numberOfChunks = numberOfChunks;
+		this.words = new AtomicLongArray((numberOfChunks + 63) >>> 6);
+	}
+
+	/**
+	 * @return <code>true</code> if the chunk was not marked before
+	 */
+	public boolean mark(int chunkNumber) {
+		int index = toIndex(chunkNumber);
+		long bit = 1L << index;
+
+		while (true) {
+			long word = words.get(index >>> 6);
+
+			if ((word & bit) != 0)
+				return false;
+
+			if (words.compareAndSet(index >>> 6, word, word | bit)) {
+				count.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	public boolean isMarked(int chunkNumber) {
+		int index = toIndex(chunkNumber);
+		return (words.get(index >>> 6) & (1L << index)) != 0;
+	}
+
+	/**
+	 * @return how many distinct chunks were marked
+	 */
+	public int getCount() {
+		return count.get();
+	}
+
+	public int getNumberOfChunks() {
+		return numberOfChunks;
+	}
+
+	public boolean isComplete() {
+		return count.get() == numberOfChunks;
+	}
+
+	/**
+	 * @return the marked chunk numbers, in ascending order
+	 */
+	public int[] toArray() {
+		int[] chunks = new int[count.get()];
+		int n = 0;
+
+		for (int w = 0; w < words.length(); w++) {
+			long word = words.get(w);
+
+			while (word != 0 && n < chunks.length) {
+				chunks[n++] = (w << 6) + Long.numberOfTrailingZeros(word) + 1;
+				word &= word - 1;
+			}
+		}
+
+		return n == chunks.length ? chunks : Arrays.copyOf(chunks, n);
+	}
+
+	/**
+	 * @return a copy of the bitmap, where bit <code>n - 1</code> is set if chunk
+	 *         <code>n</code> was marked
+	 */
+	public long[] toWords() {
+		long[] copy = new long[words.length()];
+
+		for (int w = 0; w < copy.length; w++) {
+			copy[w] = words.get(w);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Marks every chunk set in <code>bitmap</code>, as returned by
+	 * {@link #toWords()}
+	 */
+	public void markAll(long[] bitmap) {
+		for (int w = 0; w < Math.min(bitmap.length, words.length()); w++) {
+			long word = bitmap[w];
+
+			while (word != 0) {
+				int chunkNumber = (w << 6) + Long.numberOfTrailingZeros(word) + 1;
+				if (chunkNumber <= numberOfChunks)
+					mark(chunkNumber);
+				word &= word - 1;
+			}
+		}
+	}
+
+	private int toIndex(int chunkNumber) {
+		if (chunkNumber < 1 || chunkNumber > numberOfChunks)
+			throw new IndexOutOfBoundsException("Invalid chunk number " + chunkNumber);
+
+		return chunkNumber - 1;
+	}
+}
@@ -0,0 +1,332 @@
+package br.com.demo.chunkedupload.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses the chunks of another repository, when it pays off.
+ * <p>
+ * The first {@link #SAMPLE_SIZE} bytes of each chunk are compressed with
+ * Deflate at its fastest level. If that saves at least
+ * <code>minSavingsPercent</code>, the whole chunk is deflated while it streams
+ * to the delegate; otherwise it is stored raw, and costs one extra byte. A
+ * chunk that turns out to be all zeros is replaced by a record of its length,
+ * so it takes no data blocks at all.
+ * <p>
+ * Each stored chunk starts with a byte telling how it was encoded. Raw chunks
+ * are still downloaded with the delegate's streaming copy, past that byte, and
+ * deflated ones are inflated as they stream from the delegate.
+ * Only delegates that store chunks as separate objects of any length can be
+ * decorated, i.e. not the preallocated layout, and only on a store where every
+ * chunk was written through this class. For the same reason, concluded files
+ * are never assembled.
+ */
+public class CompressingRepository extends FileRepository {
+	static final int SAMPLE_SIZE = 16 * 1024;
+
+	static final byte RAW = 0;
+	static final byte DEFLATED = 1;
+	static final byte ZEROS = 2;
+
+	/**
+	 * Below this size, the Deflate headers eat most of the savings
+	 */
+	private static final int MIN_COMPRESSED_SIZE = 256;
+
+	private static final int INFLATE_BUFFER_SIZE = 8 * 1024;
+
+	private final FileRepository delegate;
+	private final int minSavingsPercent;
+
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final AtomicLong storedBytes = new AtomicLong();
+
+	public CompressingRepository(FileRepository delegate, int minSavingsPercent) {
+		this.delegate = delegate;
+		this.minSavingsPercent = minSavingsPercent;
+	}
+
+	@Override
+	public void allocate(String id, FileInformation fileInfo) throws IOException {
+		delegate.allocate(id, fileInfo);
+	}
+
+	@Override
+	public long persist(String id, int chunkNumber, InputStream input) throws IOException {
+		byte[] sample = new byte[SAMPLE_SIZE];
+		int sampled = readFully(input, sample);
+
+		ScanningInputStream chunk = new ScanningInputStream(
+				new SequenceInputStream(new ByteArrayInputStream(sample, 0, sampled), input));
+
+		long stored;
+		if (isZero(sample, sampled) || isCompressible(sample, sampled)) {
+			// zeros are deflated too, until the rest of the chunk proves them all
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+			try {
+				stored = delegate.persist(id, chunkNumber, encoded(DEFLATED, new DeflaterInputStream(chunk, deflater)));
+			} finally {
+				deflater.end();
+			}
+		} else {
+			stored = delegate.persist(id, chunkNumber, encoded(RAW, chunk));
+		}
+
+		if (chunk.isZero() && chunk.getCount() > 0) {
+			ByteBuffer record = ByteBuffer.allocate(1 + 8).put(ZEROS).putLong(chunk.getCount());
+			stored = delegate.persist(id, chunkNumber, new ByteArrayInputStream(record.array()));
+		}
+
+		receivedBytes.addAndGet(chunk.getCount());
+		storedBytes.addAndGet(stored);
+
+		return chunk.getCount();
+	}
+
+	/**
+	 * Does nothing: assembling would copy the encoded chunks at the offsets
+	 * of their content, which they no longer fit
+	 */
+	@Override
+	public void assemble(Session session, ExecutorService copiers, long segmentSize) throws IOException {
+	}
+
+	@Override
+	public byte[] read(String id, int chunkNumber) throws IOException {
+		byte[] stored = delegate.read(id, chunkNumber);
+
+		switch (encodingOf(stored, id, chunkNumber)) {
+		case RAW:
+			return Arrays.copyOfRange(stored, 1, stored.length);
+		case ZEROS:
+			return new byte[(int) ByteBuffer.wrap(stored, 1, 8).getLong()];
+		default:
+			return inflate(stored);
+		}
+	}
+
+	@Override
+	public void delete(String id) throws IOException {
+		delegate.delete(id);
+	}
+
+	/**
+	 * @return the space of the delegate, which chunks may need in full if
+	 *         they do not compress
+	 */
+	@Override
+	public long getUsableSpace() throws IOException {
+		return delegate.getUsableSpace();
+	}
+
+	@Override
+	protected void writeChunk(String id, int chunkNumber, long offset, long count, OutputStream out)
+			throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream(1);
+		delegate.writeChunk(id, chunkNumber, 0, 1, header);
+
+		switch (encodingOf(header.toByteArray(), id, chunkNumber)) {
+		case RAW:
+			delegate.writeChunk(id, chunkNumber, offset + 1, count, out);
+			break;
+		case ZEROS:
+			writeZeros(count, out);
+			break;
+		default:
+			Inflater inflater = new Inflater(true);
+			try (InputStream stored = delegate.openChunk(id, chunkNumber)) {
+				// past the encoding byte, read above
+				if (stored.read() == -1)
+					throw new IOException("Unexpected end of chunk");
+
+				copy(new InflaterInputStream(stored, inflater, INFLATE_BUFFER_SIZE), offset, count, out);
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * @return bytes of chunk content received
+	 */
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+
+	/**
+	 * @return bytes handed to the delegate to store them
+	 */
+	public long getStoredBytes() {
+		return storedBytes.get();
+	}
+
+	private boolean isCompressible(byte[] sample, int length) {
+		if (length < MIN_COMPRESSED_SIZE)
+			return false;
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(sample, 0, length);
+			deflater.finish();
+
+			long limit = (long) length * (100 - minSavingsPercent) / 100;
+			byte[] output = new byte[INFLATE_BUFFER_SIZE];
+			while (!deflater.finished()) {
+				deflater.deflate(output);
+
+				if (deflater.getBytesWritten() > limit)
+					return false;
+			}
+
+			return true;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static InputStream encoded(byte encoding, InputStream content) {
+		return new SequenceInputStream(new ByteArrayInputStream(new byte[] { encoding }), content);
+	}
+
+	private static byte encodingOf(byte[] stored, String id, int chunkNumber) throws IOException {
+		if (stored.length == 0 || stored[0] < RAW || stored[0] > ZEROS)
+			throw new IOException("Chunk " + chunkNumber + " of session " + id + " was not stored compressed");
+
+		return stored[0];
+	}
+
+	private static byte[] inflate(byte[] stored) throws IOException {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(stored, 1, stored.length - 1);
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream(stored.length * 4);
+			byte[] buffer = new byte[INFLATE_BUFFER_SIZE];
+			while (!inflater.finished()) {
+				int inflated = inflater.inflate(buffer);
+
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Truncated compressed chunk");
+
+				content.write(buffer, 0, inflated);
+			}
+
+			return content.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted compressed chunk", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void copy(InputStream content, long offset, long count, OutputStream out) throws IOException {
+		byte[] buffer = new byte[INFLATE_BUFFER_SIZE];
+
+		while (offset > 0) {
+			long skipped = content.skip(offset);
+			if (skipped <= 0)
+				throw new IOException("Unexpected end of chunk");
+			offset -= skipped;
+		}
+
+		while (count > 0) {
+			int read = content.read(buffer, 0, (int) Math.min(buffer.length, count));
+			if (read == -1)
+				throw new IOException("Unexpected end of chunk");
+
+			out.write(buffer, 0, read);
+			count -= read;
+		}
+	}
+
+	private static void writeZeros(long count, OutputStream out) throws IOException {
+		byte[] zeros = new byte[(int) Math.min(INFLATE_BUFFER_SIZE, count)];
+
+		while (count > 0) {
+			int length = (int) Math.min(zeros.length, count);
+			out.write(zeros, 0, length);
+			count -= length;
+		}
+	}
+
+	private static int readFully(InputStream input, byte[] buffer) throws IOException {
+		int total = 0;
+		int read;
+
+		while (total < buffer.length && (read = input.read(buffer, total, buffer.length - total)) != -1) {
+			total += read;
+		}
+
+		return total;
+	}
+
+	private static boolean isZero(byte[] bytes, int length) {
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] != 0)
+				return false;
+		}
+		return length > 0;
+	}
+
+	/**
+	 * Counts the bytes of a chunk and whether they are all zeros, as they are
+	 * read
+	 */
+	private static class ScanningInputStream extends FilterInputStream {
+		private long count;
+		private boolean zero = true;
+
+		ScanningInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count++;
+				zero &= b == 0;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+				for (int i = off; zero && i < off + read; i++) {
+					zero = b[i] == 0;
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			throw new IOException("Chunk content cannot be skipped");
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		boolean isZero() {
+			return zero;
+		}
+	}
+}
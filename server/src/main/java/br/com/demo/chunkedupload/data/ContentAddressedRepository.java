@@ -0,0 +1,364 @@
+package br.com.demo.chunkedupload.data;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores every distinct chunk once, under its SHA-256, and shares it between
+ * all the sessions that upload it.
+ * <p>
+ * Chunk contents live in <code>ROOT/.blocks/&lt;hash prefix&gt;/&lt;hash&gt;</code>.
+ * Each session chunk is a small manifest,
+ * <code>ROOT/&lt;sessionId&gt;/&lt;chunkNumber&gt;.sha256</code>, holding the
+ * hash of its content. A chunk body is streamed into a temporary file while it
+ * is hashed, since the hash is only known once the body is complete; when a
+ * block with the same hash already exists, the temporary file is deleted
+ * instead of moved into place. A duplicate chunk still costs that write, but
+ * takes no space once persisted beyond its manifest.
+ * <p>
+ * Blocks are reference-counted by the manifests that point to them, and
+ * deleted when the last one goes. The counts are kept in memory and rebuilt
+ * from the manifests on startup, which also removes blocks left without
+ * manifests by a crash.
+ */
+public class ContentAddressedRepository extends FileRepository {
+    private static Logger LOG = LoggerFactory.getLogger(ContentAddressedRepository.class);
+
+    /** Value of <code>chunkedupload.storage.mode</code> that selects this repository */
+    public static final String MODE = "content-addressed";
+
+    static final String BLOCKS_DIR = ".blocks";
+    static final String MANIFEST_SUFFIX = ".sha256";
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final String TEMP_DIR = "tmp";
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path root;
+    private final Path blocks;
+
+    private final Map<String, Integer> references = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Serialize reference changes of a hash with the creation and removal of
+     * its block
+     */
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * Serialize the changes of a session chunk's manifest with the reference
+     * changes they cause. Taken before the lock of a hash, never after.
+     */
+    private final ReentrantLock[] manifestLocks = new ReentrantLock[LOCK_STRIPES];
+
+    private final AtomicLong deduplicatedChunks = new AtomicLong();
+    private final AtomicLong deduplicatedBytes = new AtomicLong();
+
+    public ContentAddressedRepository() throws IOException {
+        this("./files_store");
+    }
+
+    public ContentAddressedRepository(String root) throws IOException {
+        this.root = Paths.get(root);
+        this.blocks = this.root.resolve(BLOCKS_DIR);
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+            manifestLocks[i] = new ReentrantLock();
+        }
+
+        Files.createDirectories(blocks.resolve(TEMP_DIR));
+        recover();
+    }
+
+    @Override
+    public long persist(String id, int chunkNumber, InputStream input) throws IOException {
+        Path sessionPath = root.resolve(id);
+        Files.createDirectories(sessionPath);
+
+        MessageDigest digest = newDigest();
+        Path temp = Files.createTempFile(blocks.resolve(TEMP_DIR), "chunk", null);
+        long length;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+                length = transfer(new DigestInputStream(input, digest), channel);
+            }
+
+            String hash = FileDigest.toHex(digest.digest());
+
+            // a concurrent persist of the same chunk must see the manifest
+            // this one writes, or the block it replaces would keep a reference
+            ReentrantLock lock = manifestLockOf(id, chunkNumber);
+            lock.lock();
+            try {
+                if (!acquire(hash, temp))
+                    recordDuplicate(length);
+
+                String previous = replaceManifest(sessionPath, chunkNumber, hash);
+                if (previous != null)
+                    release(previous);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return length;
+    }
+
+    @Override
+    public byte[] read(String id, int chunkNumber) throws IOException {
+        return Files.readAllBytes(resolveBlock(id, chunkNumber));
+    }
+
+    @Override
+    protected InputStream openChunk(String id, int chunkNumber) throws IOException {
+        return Files.newInputStream(resolveBlock(id, chunkNumber));
+    }
+
+    @Override
+    public void delete(String id) throws IOException {
+        Path sessionPath = root.resolve(id);
+        if (!Files.exists(sessionPath))
+            return;
+
+        try (DirectoryStream<Path> manifests = Files.newDirectoryStream(sessionPath, "*" + MANIFEST_SUFFIX)) {
+            for (Path manifest : manifests) {
+                deleteManifest(id, manifest);
+            }
+        }
+
+        deleteRecursively(sessionPath);
+    }
+
+    @Override
+    protected void writeChunk(String id, int chunkNumber, long offset, long count, OutputStream out)
+            throws IOException {
+        try (FileChannel source = FileChannel.open(resolveBlock(id, chunkNumber), READ)) {
+            copyTo(source, offset, count, out);
+        }
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        return getUsableSpace(root);
+    }
+
+    /**
+     * @return how many distinct chunks are stored
+     */
+    public int getBlockCount() {
+        return references.size();
+    }
+
+    /**
+     * @return how many chunks were persisted without writing a new block
+     */
+    public long getDeduplicatedChunks() {
+        return deduplicatedChunks.get();
+    }
+
+    /**
+     * @return bytes of the chunks persisted without writing a new block
+     */
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes.get();
+    }
+
+    /**
+     * Adds a reference to the block of <code>hash</code>, moving
+     * <code>content</code> into place if there is no such block yet
+     *
+     * @return whether a new block was stored
+     */
+    private boolean acquire(String hash, Path content) throws IOException {
+        ReentrantLock lock = lockOf(hash);
+        lock.lock();
+        try {
+            Integer count = references.get(hash);
+            boolean stored = count == null;
+
+            if (stored) {
+                Path block = blockPath(hash);
+                Files.createDirectories(block.getParent());
+                Files.move(content, block, ATOMIC_MOVE, REPLACE_EXISTING);
+            }
+
+            references.put(hash, stored ? 1 : count + 1);
+            return stored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a reference to the block of <code>hash</code>, and the block
+     * with the last one
+     */
+    private void release(String hash) throws IOException {
+        ReentrantLock lock = lockOf(hash);
+        lock.lock();
+        try {
+            Integer count = references.get(hash);
+
+            if (count == null || count <= 1) {
+                references.remove(hash);
+                Files.deleteIfExists(blockPath(hash));
+            } else {
+                references.put(hash, count - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Points chunk <code>chunkNumber</code> to <code>hash</code>. Callers hold
+     * the lock of the manifest.
+     *
+     * @return the hash it pointed to before, or null
+     */
+    private String replaceManifest(Path sessionPath, int chunkNumber, String hash) throws IOException {
+        Path manifest = sessionPath.resolve(chunkNumber + MANIFEST_SUFFIX);
+        String previous = Files.exists(manifest) ? readManifest(manifest) : null;
+
+        Path temp = Files.createTempFile(sessionPath, String.valueOf(chunkNumber), ".tmp");
+        try {
+            Files.write(temp, hash.getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp, manifest, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return previous;
+    }
+
+    private void deleteManifest(String id, Path manifest) throws IOException {
+        String name = manifest.getFileName().toString();
+        int chunkNumber = Integer.parseInt(name.substring(0, name.length() - MANIFEST_SUFFIX.length()));
+
+        ReentrantLock lock = manifestLockOf(id, chunkNumber);
+        lock.lock();
+        try {
+            String hash;
+            try {
+                hash = readManifest(manifest);
+            } catch (NoSuchFileException e) {
+                return;
+            }
+
+            Files.delete(manifest);
+            release(hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path resolveBlock(String id, int chunkNumber) throws IOException {
+        Path manifest = root.resolve(id).resolve(chunkNumber + MANIFEST_SUFFIX);
+
+        try {
+            return blockPath(readManifest(manifest));
+        } catch (NoSuchFileException e) {
+            throw new NoSuchFileException("Chunk " + chunkNumber + " of session " + id + " is not stored");
+        }
+    }
+
+    private Path blockPath(String hash) {
+        return blocks.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private ReentrantLock lockOf(String hash) {
+        return locks[Math.abs(hash.hashCode() % LOCK_STRIPES)];
+    }
+
+    private ReentrantLock manifestLockOf(String id, int chunkNumber) {
+        return manifestLocks[Math.abs((31 * id.hashCode() + chunkNumber) % LOCK_STRIPES)];
+    }
+
+    private void recordDuplicate(long length) {
+        deduplicatedChunks.incrementAndGet();
+        deduplicatedBytes.addAndGet(length);
+    }
+
+    /**
+     * Counts the references of every block from the session manifests, then
+     * removes the blocks nothing references and leftover temporary files
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> sessions = Files.newDirectoryStream(root,
+                path -> Files.isDirectory(path) && !path.getFileName().toString().startsWith("."))) {
+            for (Path session : sessions) {
+                try (DirectoryStream<Path> manifests = Files.newDirectoryStream(session, "*" + MANIFEST_SUFFIX)) {
+                    for (Path manifest : manifests) {
+                        references.merge(readManifest(manifest), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+
+        int orphans = 0;
+        try (Stream<Path> paths = Files.walk(blocks)) {
+            Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+
+                if (!references.containsKey(path.getFileName().toString())) {
+                    Files.deleteIfExists(path);
+                    orphans++;
+                }
+            }
+        }
+
+        LOG.info("Found {} stored chunks under {}, removed {} unreferenced files",
+                new Object[] { references.size(), blocks, orphans });
+    }
+
+    private static String readManifest(Path manifest) throws IOException {
+        return new String(Files.readAllBytes(manifest), StandardCharsets.US_ASCII).trim();
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            Iterator<Path> iterator = paths.sorted(Comparator.reverseOrder()).iterator();
+            while (iterator.hasNext()) {
+                Files.deleteIfExists(iterator.next());
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
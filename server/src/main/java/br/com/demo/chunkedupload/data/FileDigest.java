@@ -0,0 +1,189 @@
+package br.com.demo.chunkedupload.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SHA-256 of a file, computed as its chunks complete in order.
+ * <p>
+ * The chunk that extends the hashed prefix is hashed while it streams in,
+ * into a copy of the digest taken by {@link #fork(int)}, which
+ * {@link #advance} adopts once the chunk is persisted. Chunks persisted ahead
+ * of the prefix are read back from storage by {@link #catchUp}, once the gap
+ * before them is filled. So a file uploaded in order is never read again, and
+ * one uploaded out of order only has its early arrivals read once.
+ * <p>
+ * Only {@link #catchUp} reads storage, streaming each chunk into a copy of the
+ * digest without holding its lock, and it is meant to run in the background.
+ * So {@link #fork(int)} and {@link #advance}, which run on request threads,
+ * never wait for storage.
+ */
+public class FileDigest {
+	private static final String ALGORITHM = "SHA-256";
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * State after hashing chunks 1 to <code>nextChunk - 1</code>
+	 */
+	private MessageDigest digest;
+
+	private int nextChunk = 1;
+
+	private final AtomicBoolean catchUpPending = new AtomicBoolean();
+
+	private volatile String hex;
+
+	public FileDigest() {
+		try {
+			this.digest = MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	}
+
+	/**
+	 * @return a copy of the digest to stream <code>chunkNumber</code> into,
+	 *         or null if that chunk does not extend the hashed prefix
+	 */
+	public MessageDigest fork(int chunkNumber) {
+		lock.lock();
+		try {
+			if (chunkNumber != nextChunk || hex != null)
+				return null;
+
+			return (MessageDigest) digest.clone();
+		} catch (CloneNotSupportedException e) {
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called once chunk <code>chunkNumber</code> is persisted. Adopts
+	 * <code>forked</code>, if it was forked for that chunk and is still
+	 * current. Does not read storage.
+	 *
+	 * @param forked
+	 *            the digest returned by {@link #fork(int)}, after the chunk was
+	 *            streamed into it, or null
+	 * @return true if persisted chunks now follow the hashed prefix, and the
+	 *         caller must have {@link #catchUp} hash them; false if there is
+	 *         nothing to catch up, or a catch-up is already pending
+	 */
+	public boolean advance(Session session, int chunkNumber, MessageDigest forked) {
+		FileInformation file = session.getFileInfo();
+
+		lock.lock();
+		try {
+			if (hex != null)
+				return false;
+
+			if (forked != null && chunkNumber == nextChunk) {
+				digest = forked;
+				nextChunk++;
+			}
+
+			if (nextChunk > file.getTotalNumberOfChunks()) {
+				hex = toHex(digest.digest());
+				return false;
+			}
+
+			return file.isChunkPersisted(nextChunk) && catchUpPending.compareAndSet(false, true);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hashes the persisted chunks that follow the hashed prefix, streaming them
+	 * from <code>storage</code>
+	 */
+	public void catchUp(Session session, FileRepository storage) throws IOException {
+		FileInformation file = session.getFileInfo();
+
+		// cleared first, so a chunk that is persisted after the check below
+		// requests another catch-up
+		catchUpPending.set(false);
+
+		while (true) {
+			int chunkNumber;
+			MessageDigest copy;
+
+			lock.lock();
+			try {
+				if (hex != null || !file.isChunkPersisted(nextChunk))
+					return;
+
+				chunkNumber = nextChunk;
+				copy = (MessageDigest) digest.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new IOException(e);
+			} finally {
+				lock.unlock();
+			}
+
+			storage.getContentStream(session, file.getChunkOffset(chunkNumber), file.getChunkLength(chunkNumber))
+					.write(new DigestingOutputStream(copy));
+
+			lock.lock();
+			try {
+				// unless a fork of that chunk was adopted meanwhile
+				if (chunkNumber == nextChunk) {
+					digest = copy;
+					nextChunk++;
+
+					if (nextChunk > file.getTotalNumberOfChunks())
+						hex = toHex(digest.digest());
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return the hexadecimal SHA-256 of the file, or null until every chunk
+	 *         was hashed
+	 */
+	public String getHex() {
+		return hex;
+	}
+
+	/**
+	 * Hashes what is written into it
+	 */
+	private static class DigestingOutputStream extends OutputStream {
+		private final MessageDigest digest;
+
+		DigestingOutputStream(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		public void write(int b) {
+			digest.update((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			digest.update(b, off, len);
+		}
+	}
+
+	/**
+	 * @return <code>bytes</code> as lowercase hexadecimal digits
+	 */
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -1,25 +1,53 @@
 package br.com.demo.chunkedupload.data;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class FileInformation {
 	private int chunkSize;
 	private String fileName;
 	private Long fileSize;
 
-	private Set<Integer> alreadyPersistedChunks;
+	private volatile ChunkTracker alreadyPersistedChunks;
+
+	/**
+	 * CRC32C of each persisted chunk, with bit 32 set once known
+	 */
+	private volatile AtomicLongArray chunkChecksums;
 
 	public FileInformation(Long fileSize, String fileName, int chunkSize) {
 		this.fileSize = fileSize;
 		this.fileName = fileName;
 		this.chunkSize = chunkSize;
 
-		alreadyPersistedChunks = new HashSet<Integer>();
+		alreadyPersistedChunks = new ChunkTracker(getTotalNumberOfChunks());
+		chunkChecksums = new AtomicLongArray(getTotalNumberOfChunks());
 	}
 
 	public int getTotalNumberOfChunks() {
-		return (int) Math.ceil(fileSize / (chunkSize * 1F));
+		return (int) ((fileSize + chunkSize - 1) / chunkSize);
+	}
+
+	/**
+	 * @return the position of the first byte of the chunk within the file
+	 */
+	public long getChunkOffset(int chunkNumber) {
+		return (chunkNumber - 1) * (long) chunkSize;
+	}
+
+	/**
+	 * @return the number of the chunk that holds the byte at
+	 *         <code>position</code>
+	 */
+	public int getChunkNumberAt(long position) {
+		return (int) (position / chunkSize) + 1;
+	}
+
+	/**
+	 * @return the number of bytes expected for the chunk. Every chunk but the
+	 *         last one has <code>chunkSize</code> bytes.
+	 */
+	public long getChunkLength(int chunkNumber) {
+		return Math.min(chunkSize, fileSize - getChunkOffset(chunkNumber));
 	}
 
 	public int getChunkSize() {
@@ -28,6 +56,8 @@ public class FileInformation {
 
 	public void setChunkSize(int chunkSize) {
 		this.chunkSize = chunkSize;
+		alreadyPersistedChunks = new ChunkTracker(getTotalNumberOfChunks());
+		chunkChecksums = new AtomicLongArray(getTotalNumberOfChunks());
 	}
 
 	public String getFileName() {
@@ -44,14 +74,60 @@ public class FileInformation {
 
 	public void setFileSize(Long fileSize) {
 		this.fileSize = fileSize;
+		alreadyPersistedChunks = new ChunkTracker(getTotalNumberOfChunks());
+		chunkChecksums = new AtomicLongArray(getTotalNumberOfChunks());
 	}
 
-	public void markChunkAsPersisted(int chunkNumber) {
-		alreadyPersistedChunks.add(chunkNumber);
+	/**
+	 * @return <code>true</code> if the chunk had not been persisted before
+	 */
+	public boolean markChunkAsPersisted(int chunkNumber) {
+		return alreadyPersistedChunks.mark(chunkNumber);
+	}
+
+	public boolean isChunkPersisted(int chunkNumber) {
+		return alreadyPersistedChunks.isMarked(chunkNumber);
+	}
+
+	/**
+	 * Records the CRC32C of the content persisted for a chunk. Set it before
+	 * marking the chunk as persisted, so the checksum of a persisted chunk is
+	 * known unless it was persisted before a restart.
+	 */
+	public void setChunkChecksum(int chunkNumber, long crc32c) {
+		chunkChecksums.set(chunkNumber - 1, (1L << 32) | (crc32c & 0xffffffffL));
+	}
+
+	/**
+	 * @return the CRC32C of the content persisted for the chunk, or -1 if
+	 *         unknown
+	 */
+	public long getChunkChecksum(int chunkNumber) {
+		long value = chunkChecksums.get(chunkNumber - 1);
+		return value == 0 ? -1 : value & 0xffffffffL;
+	}
+
+	/**
+	 * @return how many distinct chunks were persisted. Unlike
+	 *         {@link #getAlreadyPersistedChunks()}, this does not allocate.
+	 */
+	public int getPersistedChunkCount() {
+		return alreadyPersistedChunks.getCount();
+	}
+
+	ChunkTracker getChunkTracker() {
+		return alreadyPersistedChunks;
 	}
 
 	public Integer[] getAlreadyPersistedChunks() {
-		return alreadyPersistedChunks.toArray(new Integer[alreadyPersistedChunks.size()]);
+		int[] chunks = alreadyPersistedChunks.toArray();
+		Integer[] boxed = new Integer[chunks.length];
+
+		for (int i = 0; i < chunks.length; i++) {
+			boxed[i] = chunks[i];
+		}
+
+		return boxed;
 	}
 
 }
@@ -1,25 +1,106 @@
 package br.com.demo.chunkedupload.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
 public abstract class FileRepository {
 
-	public abstract void persist(String id, int chunkNumber, byte[] buffer) throws IOException;
+	/**
+	 * Size of the per-thread buffer used to move chunk bodies from the request
+	 * stream into storage.
+	 */
+	protected static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * Persists a chunk read from <code>input</code>. Implementations must not
+	 * buffer the whole chunk on the heap.
+	 *
+	 * @return the number of bytes persisted
+	 */
+	public abstract long persist(String id, int chunkNumber, InputStream input) throws IOException;
+
+	public void persist(String id, int chunkNumber, byte[] buffer) throws IOException {
+		persist(id, chunkNumber, new ByteArrayInputStream(buffer));
+	}
+
+	/**
+	 * Called once a session is created, before any of its chunks is persisted.
+	 * Repositories that need to know the file layout up front (e.g. to
+	 * preallocate space) override this.
+	 */
+	public void allocate(String id, FileInformation fileInfo) throws IOException {
+	}
+
+	/**
+	 * Called in the background once every chunk of the session is persisted.
+	 * Repositories that keep chunks apart may merge them into one contiguous
+	 * file here, copying segments of large files in parallel on
+	 * <code>copiers</code>. Reads and downloads must keep working while this
+	 * runs.
+	 *
+	 * @param segmentSize
+	 *            files larger than this are copied in segments of about this
+	 *            size
+	 */
+	public void assemble(Session session, ExecutorService copiers, long segmentSize) throws IOException {
+	}
 
 	public abstract byte[] read(String id, int chunkNumber) throws IOException;
 
+	/**
+	 * @return a stream of the chunk as stored. This one reads the whole chunk
+	 *         with {@link #read}; repositories that can stream it from
+	 *         storage override it.
+	 */
+	protected InputStream openChunk(String id, int chunkNumber) throws IOException {
+		return new ByteArrayInputStream(read(id, chunkNumber));
+	}
+
+	/**
+	 * @return bytes still available to store chunks, or -1 if unknown
+	 */
+	public long getUsableSpace() throws IOException {
+		return -1;
+	}
+
+	/**
+	 * Removes every chunk of the session and releases its storage
+	 */
+	public abstract void delete(String id) throws IOException;
+
 	public StreamingOutput getContentStream(Session session) throws IOException {
+		return getContentStream(session, 0, session.getFileInfo().getFileSize());
+	}
+
+	/**
+	 * @return a stream of <code>length</code> bytes of the file, starting at
+	 *         <code>offset</code>
+	 */
+	public StreamingOutput getContentStream(final Session session, final long offset, final long length)
+			throws IOException {
 		return new StreamingOutput() {
 			@Override
 			public void write(OutputStream out) throws IOException, WebApplicationException {
 
-				for (int i = 1; i <= session.getFileInfo().getTotalNumberOfChunks(); i++) {
-					out.write(read(session.getId(), i));
-				}
+				writeRange(session, offset, length, out);
 
 				out.flush();
 
@@ -27,4 +108,135 @@ public abstract class FileRepository {
 		};
 	}
 
+	/**
+	 * Writes a byte range of the file into <code>out</code>. The range is mapped
+	 * onto the chunks it spans, so only those chunks are read.
+	 */
+	protected void writeRange(Session session, long offset, long length, OutputStream out) throws IOException {
+		FileInformation fileInfo = session.getFileInfo();
+		long end = offset + length;
+
+		while (offset < end) {
+			int chunkNumber = fileInfo.getChunkNumberAt(offset);
+			long offsetInChunk = offset - fileInfo.getChunkOffset(chunkNumber);
+			long count = Math.min(fileInfo.getChunkLength(chunkNumber) - offsetInChunk, end - offset);
+
+			writeChunk(session.getId(), chunkNumber, offsetInChunk, count, out);
+
+			offset += count;
+		}
+	}
+
+	/**
+	 * Writes <code>count</code> bytes of a chunk, starting at
+	 * <code>offset</code> within the chunk, into <code>out</code>.
+	 */
+	protected void writeChunk(String id, int chunkNumber, long offset, long count, OutputStream out)
+			throws IOException {
+		out.write(read(id, chunkNumber), (int) offset, (int) count);
+	}
+
+	/**
+	 * @return the reusable buffer of the calling thread, with
+	 *         {@link #TRANSFER_BUFFER_SIZE} bytes
+	 */
+	protected static ByteBuffer getTransferBuffer() {
+		return TRANSFER_BUFFER.get();
+	}
+
+	/**
+	 * Copies <code>input</code> into <code>target</code> through a reusable
+	 * per-thread buffer, so the memory used per request does not depend on the
+	 * chunk size.
+	 *
+	 * @return the number of bytes copied
+	 */
+	protected static long transfer(InputStream input, WritableByteChannel target) throws IOException {
+		ByteBuffer buffer = TRANSFER_BUFFER.get();
+		byte[] array = buffer.array();
+		long total = 0;
+		int read;
+
+		while ((read = input.read(array)) != -1) {
+			buffer.clear().limit(read);
+			while (buffer.hasRemaining()) {
+				target.write(buffer);
+			}
+			total += read;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Copies <code>count</code> bytes of <code>source</code>, starting at
+	 * <code>position</code>, into <code>target</code> through the per-thread
+	 * transfer buffer, so whole chunks are never loaded on the heap. This is a
+	 * buffered copy, not a kernel-side transfer: a servlet response is only
+	 * reachable as an {@link OutputStream}, which no channel transfer can
+	 * bypass.
+	 */
+	protected static void copyTo(FileChannel source, long position, long count, OutputStream target)
+			throws IOException {
+		ByteBuffer buffer = getTransferBuffer();
+		long end = position + count;
+
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+			int read = source.read(buffer, position);
+			if (read == -1)
+				throw new IOException("Unexpected end of file");
+
+			target.write(buffer.array(), 0, read);
+			position += read;
+		}
+	}
+
+	/**
+	 * Copies at most <code>length</code> bytes of <code>input</code> into
+	 * <code>target</code>, starting at <code>position</code>, with positional
+	 * writes. Positional writes do not move the channel position, so several
+	 * chunks may be written concurrently into the same file.
+	 *
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 *             if <code>input</code> holds more than <code>length</code>
+	 *             bytes
+	 */
+	protected static long transfer(InputStream input, FileChannel target, long position, long length)
+			throws IOException {
+		ByteBuffer buffer = TRANSFER_BUFFER.get();
+		byte[] array = buffer.array();
+		long total = 0;
+		int read;
+
+		while ((read = input.read(array)) != -1) {
+			if (total + read > length)
+				throw new IOException("Chunk is larger than the declared chunk size");
+
+			buffer.clear().limit(read);
+			while (buffer.hasRemaining()) {
+				target.write(buffer, position + total + buffer.position());
+			}
+			total += read;
+		}
+
+		return total;
+	}
+
+
+	/**
+	 * @return bytes available to this JVM on the volume of <code>path</code>,
+	 *         or of its closest existing parent
+	 */
+	protected static long getUsableSpace(Path path) throws IOException {
+		Path existing = path.toAbsolutePath();
+		while (existing != null && !Files.exists(existing)) {
+			existing = existing.getParent();
+		}
+
+		return existing == null ? -1 : Files.getFileStore(existing).getUsableSpace();
+	}
 }
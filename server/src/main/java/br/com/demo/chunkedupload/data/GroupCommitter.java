@@ -0,0 +1,178 @@
+package br.com.demo.chunkedupload.data;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.com.demo.chunkedupload.metrics.Metrics;
+
+/**
+ * Makes concurrent writes durable in shared fsync rounds.
+ * <p>
+ * Writers queue their file, and the directories whose new entries must
+ * survive, then wait. A single thread takes everything queued at once and
+ * syncs it: each file, then each directory once however many writers created
+ * files in it. Writers that queue while a round runs form the next one, so
+ * rounds grow with the load, without a timer. Issued back to back, the syncs
+ * of a round mostly ride on the same file system journal commit.
+ * <p>
+ * A writer returns once the round holding its file completed, and fails with
+ * the error of its own file or directory, if any.
+ */
+class GroupCommitter {
+    private static Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private List<Commit> queued = new ArrayList<Commit>();
+    private boolean stopped;
+
+    GroupCommitter(String name) {
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits until the content of <code>channel</code> and the entries of
+     * <code>directories</code> are on stable storage. The channel must stay
+     * open until then.
+     */
+    void commit(FileChannel channel, Collection<Path> directories) throws IOException {
+        Commit commit = new Commit(channel, directories);
+
+        synchronized (lock) {
+            if (stopped)
+                throw new IOException("Group commit is stopped");
+
+            queued.add(commit);
+            lock.notify();
+        }
+
+        try {
+            // not interruptible, since the round may still be using the channel
+            commit.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Syncs what is queued, then stops the thread
+     */
+    void stop() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notify();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Commit> round;
+
+            synchronized (lock) {
+                while (queued.isEmpty() && !stopped) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        stopped = true;
+                    }
+                }
+
+                if (queued.isEmpty())
+                    return;
+
+                round = queued;
+                queued = new ArrayList<Commit>();
+            }
+
+            sync(round);
+        }
+    }
+
+    private static void sync(List<Commit> round) {
+        Set<Path> directories = new LinkedHashSet<Path>();
+
+        for (Commit commit : round) {
+            try {
+                commit.channel.force(false);
+            } catch (IOException e) {
+                commit.failed(e);
+            }
+            directories.addAll(commit.directories);
+        }
+
+        for (Path directory : directories) {
+            try {
+                syncDirectory(directory);
+            } catch (IOException e) {
+                LOG.warn("Could not sync directory " + directory, e);
+
+                for (Commit commit : round) {
+                    if (commit.directories.contains(directory))
+                        commit.failed(e);
+                }
+            }
+        }
+
+        for (Commit commit : round) {
+            commit.done.complete(null);
+        }
+
+        Metrics.SYNC_ROUNDS.increment();
+    }
+
+    /**
+     * Syncs the entries of <code>directory</code>, where the platform allows
+     * opening a directory at all
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, READ);
+        } catch (IOException e) {
+            // e.g. on Windows, where directories cannot be opened, nor need to be synced
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static class Commit {
+        final FileChannel channel;
+        final Collection<Path> directories;
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        Commit(FileChannel channel, Collection<Path> directories) {
+            this.channel = channel;
+            this.directories = directories;
+        }
+
+        /**
+         * Completes the commit with the first error it met
+         */
+        void failed(IOException e) {
+            done.completeExceptionally(e);
+        }
+    }
+}
@@ -1,30 +1,478 @@
 package br.com.demo.chunkedupload.data;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import br.com.demo.chunkedupload.metrics.Metrics;
 
 public class LocalFileSystemRepository extends FileRepository {
 
+    /**
+     * How chunks are laid out on disk
+     */
+    public enum StorageMode {
+        /**
+         * One file per chunk, under <code>ROOT/&lt;sessionId&gt;/&lt;chunkNumber&gt;</code>,
+         * until the upload concludes and {@link LocalFileSystemRepository#assemble}
+         * merges them into one file
+         */
+        CHUNK_FILES,
+        /**
+         * One sparse file per session, preallocated with the declared file size,
+         * where every chunk is written in place at
+         * <code>(chunkNumber - 1) * chunkSize</code>
+         */
+        PREALLOCATED;
+
+        public static StorageMode fromString(String value) {
+            return "preallocated".equalsIgnoreCase(value) ? PREALLOCATED : CHUNK_FILES;
+        }
+    }
+
+    /**
+     * When a persisted chunk counts as written
+     */
+    public enum Durability {
+        /**
+         * As soon as it is handed to the operating system, which writes it back
+         * later. A crash of the machine may lose chunks that were acknowledged.
+         */
+        NONE,
+        /**
+         * Once the chunk, and the directory entry of a new chunk file, were
+         * synced to stable storage by the writer itself
+         */
+        FSYNC,
+        /**
+         * Like {@link #FSYNC}, but the chunks written at the same time are
+         * synced together in shared rounds, by a {@link GroupCommitter}
+         */
+        GROUP_COMMIT;
+
+        public static Durability fromString(String value) {
+            if ("fsync".equalsIgnoreCase(value))
+                return FSYNC;
+            if ("group-commit".equalsIgnoreCase(value))
+                return GROUP_COMMIT;
+            return NONE;
+        }
+    }
+
+    static final String CONTENT_FILE_NAME = "content";
+
+    private static final String ASSEMBLING_FILE_NAME = "content.assembling";
+
     String ROOT = "./files_store";
 
+    private final StorageMode mode;
+    private final Durability durability;
+
+    /**
+     * Present in the {@link Durability#GROUP_COMMIT} mode only
+     */
+    private final GroupCommitter committer;
+
+    private final Map<String, FileInformation> allocations = new ConcurrentHashMap<String, FileInformation>();
+
+    /**
+     * Sessions whose chunk files were merged into their content file
+     */
+    private final Set<String> assembled = ConcurrentHashMap.newKeySet();
+
+    public LocalFileSystemRepository() {
+        this(StorageMode.CHUNK_FILES);
+    }
+
+    public LocalFileSystemRepository(StorageMode mode) {
+        this(mode, Durability.NONE);
+    }
+
+    public LocalFileSystemRepository(StorageMode mode, Durability durability) {
+        this.mode = mode;
+        this.durability = durability;
+        this.committer = durability == Durability.GROUP_COMMIT ? new GroupCommitter("group-commit") : null;
+    }
+
+    public LocalFileSystemRepository(String root, StorageMode mode) {
+        this(root, mode, Durability.NONE);
+    }
+
+    public LocalFileSystemRepository(String root, StorageMode mode, Durability durability) {
+        this(mode, durability);
+        this.ROOT = root;
+    }
+
+    public StorageMode getMode() {
+        return mode;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Stops the group commit thread, once the chunks queued to it are synced
+     */
+    public void shutdown() {
+        if (committer != null)
+            committer.stop();
+    }
+
     @Override
-    public void persist(String id, int chunkNumber, byte[] buffer) throws IOException {
+    public void allocate(String id, FileInformation fileInfo) throws IOException {
+        if (mode != StorageMode.PREALLOCATED) {
+            // sessions recovered after a restart may have been assembled
+            if (Files.exists(Paths.get(ROOT, id, CONTENT_FILE_NAME))) {
+                allocations.put(id, fileInfo);
+                assembled.add(id);
+            }
+            return;
+        }
+
+        Path sessionPath = Paths.get(ROOT, id);
+        Files.createDirectories(sessionPath);
+
+        // setLength only extends the file size, so no blocks are written until
+        // chunks arrive. Calling it again on an existing file is a no-op.
+        try (RandomAccessFile file = new RandomAccessFile(sessionPath.resolve(CONTENT_FILE_NAME).toFile(), "rw")) {
+            if (file.length() != fileInfo.getFileSize())
+                file.setLength(fileInfo.getFileSize());
+        }
+
+        // in-place writes only sync the content, so its entry is synced here
+        if (durability != Durability.NONE) {
+            GroupCommitter.syncDirectory(sessionPath);
+            GroupCommitter.syncDirectory(Paths.get(ROOT));
+        }
+
+        allocations.put(id, fileInfo);
+    }
+
+    @Override
+    public long persist(String id, int chunkNumber, InputStream input) throws IOException {
+        if (isContiguous(id))
+            return persistInPlace(id, chunkNumber, input);
+
         Path chunkDestinationPath = Paths.get(ROOT, id);
+        List<Path> directories = new ArrayList<Path>(2);
 
         if (!Files.exists(chunkDestinationPath)) {
             Files.createDirectories(chunkDestinationPath);
+            directories.add(Paths.get(ROOT));
         }
 
         Path path = Paths.get(ROOT, id, String.valueOf(chunkNumber));
-        Files.write(path, buffer);
+        // the entry of a new chunk file must survive a crash too
+        if (!Files.exists(path))
+            directories.add(chunkDestinationPath);
+
+        try (FileChannel channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            long written = transfer(input, channel);
+            makeDurable(channel, directories);
+            return written;
+        }
+    }
+
+    private long persistInPlace(String id, int chunkNumber, InputStream input) throws IOException {
+        FileInformation fileInfo = getAllocation(id);
+
+        long offset = fileInfo.getChunkOffset(chunkNumber);
+        long length = fileInfo.getChunkLength(chunkNumber);
+
+        if (length <= 0)
+            throw new IOException("Chunk " + chunkNumber + " is out of the file bounds");
+
+        long written;
+        try (FileChannel channel = FileChannel.open(Paths.get(ROOT, id, CONTENT_FILE_NAME), WRITE)) {
+            written = transfer(input, channel, offset, length);
+            makeDurable(channel, Collections.<Path>emptyList());
+        }
+
+        if (written != length)
+            throw new IOException(String.format("Chunk %d has %d bytes, expected %d", chunkNumber, written, length));
+
+        return written;
+    }
+
+    /**
+     * Syncs a written chunk as {@link #durability} requires, before its
+     * channel is closed
+     *
+     * @param directories
+     *            directories that got a new entry for the chunk
+     */
+    private void makeDurable(FileChannel channel, List<Path> directories) throws IOException {
+        if (durability == Durability.NONE)
+            return;
+
+        long start = System.nanoTime();
+
+        if (durability == Durability.GROUP_COMMIT) {
+            committer.commit(channel, directories);
+        } else {
+            channel.force(false);
+            for (Path directory : directories) {
+                GroupCommitter.syncDirectory(directory);
+            }
+        }
+
+        Metrics.CHUNK_SYNC.record(System.nanoTime() - start);
     }
 
     @Override
     public byte[] read(String id, int chunkNumber) throws IOException {
+        if (isContiguous(id))
+            return readInPlace(id, chunkNumber);
+
         Path targetPath = Paths.get(ROOT, id, String.valueOf(chunkNumber));
-        return Files.readAllBytes(targetPath);
+        try {
+            return Files.readAllBytes(targetPath);
+        } catch (NoSuchFileException e) {
+            // assembled, and its chunk files deleted, since the check above
+            if (assembled.contains(id))
+                return readInPlace(id, chunkNumber);
+            throw e;
+        }
+    }
+
+    @Override
+    protected InputStream openChunk(String id, int chunkNumber) throws IOException {
+        if (isContiguous(id))
+            return super.openChunk(id, chunkNumber);
+
+        try {
+            return Files.newInputStream(Paths.get(ROOT, id, String.valueOf(chunkNumber)));
+        } catch (NoSuchFileException e) {
+            if (assembled.contains(id))
+                return super.openChunk(id, chunkNumber);
+            throw e;
+        }
+    }
+
+    private byte[] readInPlace(String id, int chunkNumber) throws IOException {
+        FileInformation fileInfo = getAllocation(id);
+
+        long offset = fileInfo.getChunkOffset(chunkNumber);
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileInfo.getChunkLength(chunkNumber));
+
+        try (FileChannel channel = FileChannel.open(Paths.get(ROOT, id, CONTENT_FILE_NAME), READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) == -1)
+                    throw new IOException("Unexpected end of file");
+            }
+        }
+
+        return buffer.array();
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        return getUsableSpace(Paths.get(ROOT));
+    }
+
+    @Override
+    public void delete(String id) throws IOException {
+        allocations.remove(id);
+        assembled.remove(id);
+
+        Path sessionPath = Paths.get(ROOT, id);
+        if (!Files.exists(sessionPath))
+            return;
+
+        try (Stream<Path> paths = Files.walk(sessionPath)) {
+            Iterator<Path> iterator = paths.sorted(Comparator.reverseOrder()).iterator();
+            while (iterator.hasNext()) {
+                Files.deleteIfExists(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * Merges the chunk files of a concluded session into its content file,
+     * which then serves every read. The file is written under another name,
+     * synced and renamed into place, so it is either complete or absent. Its
+     * chunk files are deleted afterwards; reads that had already picked one
+     * fall back to the content file.
+     */
+    @Override
+    public void assemble(Session session, ExecutorService copiers, long segmentSize) throws IOException {
+        final String id = session.getId();
+        final FileInformation fileInfo = session.getFileInfo();
+
+        if (mode != StorageMode.CHUNK_FILES || assembled.contains(id))
+            return;
+
+        final Path target = Paths.get(ROOT, id, ASSEMBLING_FILE_NAME);
+        try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+            file.setLength(fileInfo.getFileSize());
+        }
+
+        try {
+            int chunks = fileInfo.getTotalNumberOfChunks();
+            int chunksPerSegment = (int) Math.max(1, Math.min(chunks, segmentSize / fileInfo.getChunkSize()));
+
+            List<Future<Void>> segments = new ArrayList<Future<Void>>();
+            for (int first = 1 + chunksPerSegment; first <= chunks; first += chunksPerSegment) {
+                final int from = first;
+                final int to = Math.min(chunks, first + chunksPerSegment - 1);
+
+                segments.add(copiers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        copyChunks(id, fileInfo, from, to, target);
+                        return null;
+                    }
+                }));
+            }
+
+            copyChunks(id, fileInfo, 1, Math.min(chunks, chunksPerSegment), target);
+            awaitAll(segments);
+
+            try (FileChannel channel = FileChannel.open(target, WRITE)) {
+                channel.force(true);
+            }
+            Files.move(target, Paths.get(ROOT, id, CONTENT_FILE_NAME), ATOMIC_MOVE);
+
+            // the chunk files are deleted next, so the content file must not be
+            if (durability != Durability.NONE)
+                GroupCommitter.syncDirectory(Paths.get(ROOT, id));
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+
+        allocations.put(id, fileInfo);
+        assembled.add(id);
+
+        for (int chunkNumber = 1; chunkNumber <= fileInfo.getTotalNumberOfChunks(); chunkNumber++) {
+            Files.deleteIfExists(Paths.get(ROOT, id, String.valueOf(chunkNumber)));
+        }
+    }
+
+    /**
+     * @return whether the session was assembled
+     */
+    public boolean isAssembled(String id) {
+        return assembled.contains(id);
+    }
+
+    private void copyChunks(String id, FileInformation fileInfo, int from, int to, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, WRITE)) {
+            for (int chunkNumber = from; chunkNumber <= to; chunkNumber++) {
+                long position = fileInfo.getChunkOffset(chunkNumber);
+                long end = position + fileInfo.getChunkLength(chunkNumber);
+
+                try (FileChannel source = FileChannel.open(Paths.get(ROOT, id, String.valueOf(chunkNumber)), READ)) {
+                    while (position < end) {
+                        long copied = channel.transferFrom(source, position, end - position);
+
+                        if (copied <= 0)
+                            throw new IOException("Chunk " + chunkNumber + " is shorter than expected");
+
+                        position += copied;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void awaitAll(List<Future<Void>> segments) throws IOException {
+        try {
+            for (Future<Void> segment : segments) {
+                segment.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            for (Future<Void> segment : segments) {
+                segment.cancel(true);
+            }
+        }
+    }
+
+    private boolean isContiguous(String id) {
+        return mode == StorageMode.PREALLOCATED || assembled.contains(id);
+    }
+
+    /**
+     * Copies the range through the per-thread transfer buffer, so chunks are
+     * not loaded whole into heap arrays before being written to the response.
+     * In the preallocated layout, and once assembled, the whole range is a
+     * single region of one file.
+     */
+    @Override
+    protected void writeRange(Session session, long offset, long length, OutputStream out) throws IOException {
+        if (!isContiguous(session.getId())) {
+            super.writeRange(session, offset, length, out);
+            return;
+        }
+
+        try (FileChannel source = FileChannel.open(Paths.get(ROOT, session.getId(), CONTENT_FILE_NAME), READ)) {
+            copyTo(source, offset, length, out);
+        }
+    }
+
+    @Override
+    protected void writeChunk(String id, int chunkNumber, long offset, long count, OutputStream out)
+            throws IOException {
+        FileChannel source;
+        try {
+            source = FileChannel.open(Paths.get(ROOT, id, String.valueOf(chunkNumber)), READ);
+        } catch (NoSuchFileException e) {
+            if (!assembled.contains(id))
+                throw e;
+
+            offset += getAllocation(id).getChunkOffset(chunkNumber);
+            source = FileChannel.open(Paths.get(ROOT, id, CONTENT_FILE_NAME), READ);
+        }
+
+        try {
+            copyTo(source, offset, count, out);
+        } finally {
+            source.close();
+        }
+    }
+
+    private FileInformation getAllocation(String id) throws IOException {
+        FileInformation fileInfo = allocations.get(id);
+
+        if (fileInfo == null)
+            throw new IOException("Storage not allocated for session " + id);
+
+        return fileInfo;
     }
 
 }
@@ -1,33 +1,277 @@
 package br.com.demo.chunkedupload.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import br.com.demo.chunkedupload.util.Configuration;
+
+/**
+ * Keeps chunks off-heap, in pages of an {@link OffHeapPagePool} bounded by a
+ * byte budget. Chunks that do not fit in the budget are spilled to another
+ * repository (the local file system, by default). Chunks kept in memory do not
+ * survive a restart.
+ */
 public class MemoryRepository extends FileRepository {
+	/**
+	 * Value of <code>chunkedupload.storage.mode</code> that selects this
+	 * repository
+	 */
+	public static final String MODE = "memory";
+
+	private static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+	private static final int PAGE_SIZE = 64 * 1024;
+	private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+	private final ConcurrentMap<String, ConcurrentMap<Integer, StoredChunk>> internalStorage;
 
-	private Map<String, Map<Integer, byte[]>> internalStorage;
+	private final OffHeapPagePool pool;
+
+	private final FileRepository spill;
 
 	public MemoryRepository() {
-		internalStorage = new HashMap<String, Map<Integer, byte[]>>();
+		this(Configuration.getLong("memory.capacity", DEFAULT_CAPACITY), new LocalFileSystemRepository());
+	}
+
+	/**
+	 * @param capacityInBytes
+	 *            off-heap budget
+	 * @param spill
+	 *            where chunks go once the budget is exhausted, or
+	 *            <code>null</code> to fail those writes instead
+	 */
+	public MemoryRepository(long capacityInBytes, FileRepository spill) {
+		this.internalStorage = new ConcurrentHashMap<String, ConcurrentMap<Integer, StoredChunk>>();
+		this.pool = new OffHeapPagePool(capacityInBytes, PAGE_SIZE, SLAB_SIZE);
+		this.spill = spill;
+	}
+
+	@Override
+	public void allocate(String id, FileInformation fileInfo) throws IOException {
+		getChunks(id);
+
+		if (spill != null)
+			spill.allocate(id, fileInfo);
 	}
 
 	@Override
-	public void persist(String id, int chunkNumber, byte[] buffer) throws IOException {
-		if (!internalStorage.containsKey(id))
-			internalStorage.put(id, new HashMap<Integer, byte[]>());
+	public long persist(String id, int chunkNumber, InputStream input) throws IOException {
+		ByteBuffer buffer = getTransferBuffer();
+		byte[] array = buffer.array();
+
+		List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+		ByteBuffer page = null;
+		byte[] pending = null;
+		long length = 0;
+		int read;
+
+		try {
+			reading: while ((read = input.read(array)) != -1) {
+				int offset = 0;
+
+				while (offset < read) {
+					if (page == null || !page.hasRemaining()) {
+						page = pool.acquire();
+
+						if (page == null) {
+							pending = Arrays.copyOfRange(array, offset, read);
+							break reading;
+						}
+
+						pages.add(page);
+					}
+
+					int count = Math.min(read - offset, page.remaining());
+					page.put(array, offset, count);
+					offset += count;
+					length += count;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// a client gone, or a body turned down, must not keep the pages
+			release(pages);
+			throw e;
+		}
+
+		if (pending != null)
+			return spill(id, chunkNumber, pages, length, pending, input);
+
+		store(id, chunkNumber, new StoredChunk(pages, (int) length));
+
+		return length;
+	}
+
+	private long spill(String id, int chunkNumber, List<ByteBuffer> pages, long length, byte[] pending,
+			InputStream rest) throws IOException {
+		try {
+			if (spill == null)
+				throw new IOException("Memory repository is full");
+
+			InputStream buffered = new SequenceInputStream(new StoredChunk(pages, (int) length).openStream(),
+					new ByteArrayInputStream(pending));
+
+			long persisted = spill.persist(id, chunkNumber, new SequenceInputStream(buffered, rest));
+
+			store(id, chunkNumber, null);
+
+			return persisted;
+		} finally {
+			release(pages);
+		}
+	}
+
+	private void release(List<ByteBuffer> pages) {
+		for (ByteBuffer page : pages) {
+			pool.release(page);
+		}
+	}
+
+	private void store(String id, int chunkNumber, StoredChunk chunk) {
+		ConcurrentMap<Integer, StoredChunk> chunks = getChunks(id);
+		StoredChunk previous = chunk == null ? chunks.remove(chunkNumber) : chunks.put(chunkNumber, chunk);
+
+		if (previous != null)
+			previous.release(pool);
+	}
+
+	private ConcurrentMap<Integer, StoredChunk> getChunks(String id) {
+		ConcurrentMap<Integer, StoredChunk> chunks = internalStorage.get(id);
 
-		Map<Integer, byte[]> blocks = internalStorage.get(id);
-		blocks.put(chunkNumber, buffer);
+		if (chunks == null) {
+			ConcurrentMap<Integer, StoredChunk> created = new ConcurrentHashMap<Integer, StoredChunk>();
+			chunks = internalStorage.putIfAbsent(id, created);
+			if (chunks == null)
+				chunks = created;
+		}
+
+		return chunks;
 	}
 
 	@Override
 	public byte[] read(String id, int chunkNumber) throws IOException {
-		if (!internalStorage.containsKey(id)) {
+		ConcurrentMap<Integer, StoredChunk> chunks = internalStorage.get(id);
+
+		if (chunks == null) {
 			throw new IOException("Session not found on internalStorage");
 		}
 
-		return internalStorage.get(id).get(chunkNumber);
+		StoredChunk chunk = chunks.get(chunkNumber);
+
+		if (chunk == null)
+			return spill != null ? spill.read(id, chunkNumber) : null;
+
+		byte[] content = new byte[chunk.length];
+		chunk.copyTo(0, content, 0, chunk.length);
+		return content;
+	}
+
+	@Override
+	public void delete(String id) throws IOException {
+		ConcurrentMap<Integer, StoredChunk> chunks = internalStorage.remove(id);
+
+		if (chunks != null) {
+			for (StoredChunk chunk : chunks.values()) {
+				chunk.release(pool);
+			}
+		}
+
+		if (spill != null)
+			spill.delete(id);
+	}
+
+	/**
+	 * Copies straight from the off-heap pages into <code>out</code>, through
+	 * the per-thread transfer buffer
+	 */
+	@Override
+	protected void writeChunk(String id, int chunkNumber, long offset, long count, OutputStream out)
+			throws IOException {
+		ConcurrentMap<Integer, StoredChunk> chunks = internalStorage.get(id);
+		StoredChunk chunk = chunks == null ? null : chunks.get(chunkNumber);
+
+		if (chunk == null) {
+			super.writeChunk(id, chunkNumber, offset, count, out);
+			return;
+		}
+
+		byte[] array = getTransferBuffer().array();
+		long end = offset + count;
+
+		while (offset < end) {
+			int length = (int) Math.min(array.length, end - offset);
+			chunk.copyTo((int) offset, array, 0, length);
+			out.write(array, 0, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * Content of a chunk, spread over fixed-size pages
+	 */
+	private static class StoredChunk {
+		private final ByteBuffer[] pages;
+		private final int length;
+
+		StoredChunk(List<ByteBuffer> pages, int length) {
+			this.pages = pages.toArray(new ByteBuffer[pages.size()]);
+			this.length = length;
+		}
+
+		void copyTo(int offset, byte[] target, int targetOffset, int count) {
+			while (count > 0) {
+				ByteBuffer page = pages[offset / PAGE_SIZE].duplicate();
+				int offsetInPage = offset % PAGE_SIZE;
+				int n = Math.min(count, PAGE_SIZE - offsetInPage);
+
+				page.position(offsetInPage);
+				page.get(target, targetOffset, n);
+
+				offset += n;
+				targetOffset += n;
+				count -= n;
+			}
+		}
+
+		InputStream openStream() {
+			return new InputStream() {
+				private int position = 0;
+
+				@Override
+				public int read() throws IOException {
+					if (position >= length)
+						return -1;
+
+					byte[] single = new byte[1];
+					copyTo(position++, single, 0, 1);
+					return single[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (position >= length)
+						return -1;
+
+					int n = Math.min(len, length - position);
+					copyTo(position, b, off, n);
+					position += n;
+					return n;
+				}
+			};
+		}
+
+		void release(OffHeapPagePool pool) {
+			for (ByteBuffer page : pages) {
+				pool.release(page);
+			}
+		}
 	}
 
 }
@@ -0,0 +1,71 @@
+package br.com.demo.chunkedupload.data;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Fixed-size pages carved out of direct (off-heap) slabs, bounded by a byte
+ * budget. Slabs are allocated lazily and pages are recycled, so a steady
+ * workload allocates no memory at all.
+ */
+public class OffHeapPagePool {
+	private final int pageSize;
+	private final int pagesPerSlab;
+	private final int maxPages;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> freePages = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private int allocatedPages;
+
+	public OffHeapPagePool(long capacityInBytes, int pageSize, int slabSize) {
+		this.pageSize = pageSize;
+		this.pagesPerSlab = Math.max(1, slabSize / pageSize);
+		this.maxPages = (int) Math.min(Integer.MAX_VALUE, capacityInBytes / pageSize);
+	}
+
+	/**
+	 * @return a cleared page, or <code>null</code> if the budget is exhausted
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer page;
+
+		while ((page = freePages.poll()) == null) {
+			if (!allocateSlab())
+				return null;
+		}
+
+		page.clear();
+		return page;
+	}
+
+	public void release(ByteBuffer page) {
+		freePages.offer(page);
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public long getCapacity() {
+		return (long) maxPages * pageSize;
+	}
+
+	private synchronized boolean allocateSlab() {
+		if (!freePages.isEmpty())
+			return true;
+
+		int pages = Math.min(pagesPerSlab, maxPages - allocatedPages);
+		if (pages <= 0)
+			return false;
+
+		ByteBuffer slab = ByteBuffer.allocateDirect(pages * pageSize);
+
+		for (int i = 0; i < pages; i++) {
+			slab.limit((i + 1) * pageSize).position(i * pageSize);
+			freePages.offer(slab.slice());
+		}
+
+		allocatedPages += pages;
+		return true;
+	}
+}
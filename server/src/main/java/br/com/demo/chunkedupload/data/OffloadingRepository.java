@@ -0,0 +1,151 @@
+package br.com.demo.chunkedupload.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Runs the persist, read, allocate and delete calls of another repository on
+ * a small pool of platform threads.
+ * <p>
+ * Meant for callers on virtual threads. Blocking file I/O would hold their
+ * carrier thread, and there can be far more of them than the disk can serve.
+ * Here they park while waiting for the pool, which also caps how many storage
+ * operations run at once. The transfer buffers of the pool threads are also
+ * reused, instead of being allocated for each short-lived virtual thread.
+ * <p>
+ * A chunk is received in full before being handed to the pool, so slow clients
+ * do not hold a pool thread. The chunk size limit bounds that buffer. Downloads
+ * are not offloaded, since they spend most of their time writing to the
+ * client.
+ */
+public class OffloadingRepository extends FileRepository {
+	private static final int RECEIVE_BUFFER_SIZE = 8 * 1024;
+
+	private final FileRepository delegate;
+	private final ExecutorService ioThreads;
+
+	public OffloadingRepository(FileRepository delegate, int ioThreads) {
+		this.delegate = delegate;
+		this.ioThreads = Executors.newFixedThreadPool(ioThreads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "storage-io-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public void allocate(final String id, final FileInformation fileInfo) throws IOException {
+		call(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				delegate.allocate(id, fileInfo);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public long persist(final String id, final int chunkNumber, InputStream input) throws IOException {
+		final byte[] chunk = receive(input);
+
+		return call(new Callable<Long>() {
+			@Override
+			public Long call() throws IOException {
+				return delegate.persist(id, chunkNumber, new ByteArrayInputStream(chunk));
+			}
+		});
+	}
+
+	@Override
+	public byte[] read(final String id, final int chunkNumber) throws IOException {
+		return call(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				return delegate.read(id, chunkNumber);
+			}
+		});
+	}
+
+	@Override
+	public void delete(final String id) throws IOException {
+		call(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				delegate.delete(id);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Not offloaded, since it already runs in the background
+	 */
+	@Override
+	public void assemble(Session session, ExecutorService copiers, long segmentSize) throws IOException {
+		delegate.assemble(session, copiers, segmentSize);
+	}
+
+	@Override
+	public long getUsableSpace() throws IOException {
+		return delegate.getUsableSpace();
+	}
+
+	@Override
+	public StreamingOutput getContentStream(Session session, long offset, long length) throws IOException {
+		return delegate.getContentStream(session, offset, length);
+	}
+
+	public void shutdown() {
+		ioThreads.shutdown();
+	}
+
+	private static byte[] receive(InputStream input) throws IOException {
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+		int read;
+
+		while ((read = input.read(buffer)) != -1) {
+			received.write(buffer, 0, read);
+		}
+
+		return received.toByteArray();
+	}
+
+	private <T> T call(Callable<T> operation) throws IOException {
+		Future<T> result = ioThreads.submit(operation);
+
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for storage");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+
+			throw new IOException(cause);
+		}
+	}
+}
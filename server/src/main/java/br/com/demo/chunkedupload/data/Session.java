@@ -7,10 +7,10 @@ import java.util.UUID;
 public class Session {
     private LocalDateTime createdDate;
 
-    private boolean failed = false;
+    private volatile boolean failed = false;
 
     private String id;
-    private LocalDateTime lastUpdate;
+    private volatile LocalDateTime lastUpdate;
 
     private String status;
 
@@ -22,6 +22,8 @@ public class Session {
 
     private FileInformation file;
 
+    private final FileDigest digest = new FileDigest();
+
     public Session(Long user, FileInformation fileInfo) {
 	this(user, fileInfo, DEFAULT_TIMEOUT);
     }
@@ -35,6 +37,19 @@ public class Session {
 	this.timeout = timeout;
     }
 
+    /**
+     * Rebuilds a session read back from the {@link SessionJournal}. Its timeout
+     * starts over from now, so the client has a full timeout to resume.
+     */
+    Session(String id, Long user, FileInformation fileInfo, Long timeout, LocalDateTime createdDate) {
+	this.id = id;
+	this.createdDate = createdDate;
+	this.lastUpdate = LocalDateTime.now();
+	this.user = user;
+	this.file = fileInfo;
+	this.timeout = timeout;
+    }
+
     /**
      * @return the createdDate
      */
@@ -42,6 +57,10 @@ public class Session {
 	return createdDate.toString();
     }
 
+    public LocalDateTime getCreatedDateTime() {
+	return createdDate;
+    }
+
     public String getId() {
 	return id;
     }
@@ -76,14 +95,14 @@ public class Session {
     }
 
     public boolean isConcluded() {
-	return file.getTotalNumberOfChunks() == file.getAlreadyPersistedChunks().length;
+	return file.getTotalNumberOfChunks() == file.getPersistedChunkCount();
     }
 
     /**
      * @return the alreadyPersistedBlocks
      */
     public int getSuccessfulChunks() {
-	return file.getAlreadyPersistedChunks().length;
+	return file.getPersistedChunkCount();
     }
 
     /**
@@ -93,6 +112,13 @@ public class Session {
 	return user;
     }
 
+    /**
+     * @return the timeout, in seconds
+     */
+    public Long getTimeout() {
+	return timeout;
+    }
+
     public boolean hasFailed() {
 	return failed;
     }
@@ -101,6 +127,14 @@ public class Session {
 	return Duration.between(lastUpdate, LocalDateTime.now()).getSeconds() >= timeout;
     }
 
+    /**
+     * @return how long until the session expires, in milliseconds. Zero or
+     *         less means it has already expired.
+     */
+    public long getMillisUntilExpiration() {
+	return timeout * 1000 - Duration.between(lastUpdate, LocalDateTime.now()).toMillis();
+    }
+
     public void maskAsFailed() {
 	failed = true;
     }
@@ -109,6 +143,13 @@ public class Session {
 	return file;
     }
 
+    /**
+     * @return the digest of the file, computed as its chunks arrive
+     */
+    public FileDigest getDigest() {
+	return digest;
+    }
+
     public void renewTimeout() {
 	lastUpdate = LocalDateTime.now();
     }
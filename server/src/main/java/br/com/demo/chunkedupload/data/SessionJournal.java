@@ -0,0 +1,439 @@
+package br.com.demo.chunkedupload.data;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of session changes (creation, persisted chunks, failures
+ * and removals), with periodic compacted snapshots.
+ * <p>
+ * The journal is split in numbered segments. A compaction switches appends to
+ * a new segment, writes the snapshot, and only then deletes the segments
+ * before it. On startup, {@link #recover()} loads the latest snapshot and
+ * replays the segments left. Snapshots store the persisted chunks as bitmaps,
+ * so recovery time depends on the number of sessions and on the journal tail,
+ * not on how many chunks were ever uploaded. Replaying a record twice is
+ * harmless, so a crash between writing a snapshot and deleting the segments
+ * it replaces loses nothing.
+ */
+public class SessionJournal {
+	private Logger LOG = LoggerFactory.getLogger(SessionJournal.class);
+
+	private static final int SNAPSHOT_MAGIC = 0x534e4150;
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private static final byte CREATED = 1;
+	private static final byte CHUNK_PERSISTED = 2;
+	private static final byte FAILED = 3;
+	private static final byte REMOVED = 4;
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static final Pattern SEGMENT_NAME = Pattern.compile("^sessions\\.(\\d{1,18})\\.journal$");
+
+	private final Path root;
+	private final Path snapshotPath;
+
+	/**
+	 * Guards the journal. A lock rather than a monitor, so virtual threads
+	 * blocked on journal I/O do not pin their carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Keeps compactions apart. They only take the journal lock to switch
+	 * segments, so appends go on while a snapshot is written.
+	 */
+	private final ReentrantLock compaction = new ReentrantLock();
+
+	private DataOutputStream journal;
+
+	/**
+	 * Number of the segment appended to
+	 */
+	private long segment;
+
+	private long recordsSinceSnapshot;
+
+	private ScheduledExecutorService compactor;
+
+	public SessionJournal(String directory) throws IOException {
+		this.root = Paths.get(directory);
+		Files.createDirectories(root);
+
+		this.snapshotPath = root.resolve("sessions.snapshot");
+
+		List<Long> segments = listSegments();
+		this.segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+	}
+
+	/**
+	 * Rebuilds the sessions from the latest snapshot and the journal tail, then
+	 * compacts them into a new snapshot. Must be called before anything is
+	 * appended.
+	 */
+	public List<Session> recover() throws IOException {
+		final List<Session> recovered;
+
+		lock.lock();
+		try {
+			Map<String, Session> sessions = new LinkedHashMap<String, Session>();
+
+			if (Files.exists(snapshotPath))
+				readSnapshot(sessions);
+
+			for (long number : listSegments()) {
+				replayJournal(sessions, getSegmentPath(number));
+			}
+
+			recovered = new ArrayList<Session>(sessions.values());
+		} finally {
+			lock.unlock();
+		}
+
+		// also drops a torn record left at the end of the journal by a crash
+		compact(() -> recovered);
+
+		LOG.info("Recovered {} sessions from {}", recovered.size(), root);
+		return recovered;
+	}
+
+	public void sessionCreated(Session session) throws IOException {
+		lock.lock();
+		try {
+			DataOutputStream out = open();
+			out.writeByte(CREATED);
+			writeSession(out, session);
+			append(out);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void chunkPersisted(Session session, int chunkNumber) throws IOException {
+		lock.lock();
+		try {
+			DataOutputStream out = open();
+			out.writeByte(CHUNK_PERSISTED);
+			out.writeUTF(session.getId());
+			out.writeInt(chunkNumber);
+			append(out);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void sessionFailed(Session session) throws IOException {
+		writeIdRecord(FAILED, session.getId());
+	}
+
+	public void sessionRemoved(Session session) throws IOException {
+		writeIdRecord(REMOVED, session.getId());
+	}
+
+	/**
+	 * @return how many records were appended since the last snapshot
+	 */
+	public long getRecordsSinceSnapshot() {
+		lock.lock();
+		try {
+			return recordsSinceSnapshot;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Starts a new journal segment, writes a snapshot of the sessions supplied
+	 * by <code>sessions</code>, and deletes the segments the snapshot replaces.
+	 * <p>
+	 * Only switching segments holds the journal lock; the sessions are
+	 * gathered and the snapshot is written while appends go on into the new
+	 * segment. Chunks are marked, and sessions registered, before being
+	 * journaled, so every change in the replaced segments is already in the
+	 * sessions gathered after the switch. Changes made meanwhile may be in both
+	 * the snapshot and the new segment, which is harmless.
+	 */
+	public void compact(Supplier<? extends Collection<Session>> sessions) throws IOException {
+		compaction.lock();
+		try {
+			long replaced;
+
+			lock.lock();
+			try {
+				DataOutputStream closing = journal;
+
+				journal = null;
+				replaced = segment++;
+				recordsSinceSnapshot = 0;
+
+				if (closing != null)
+					closing.close();
+			} finally {
+				lock.unlock();
+			}
+
+			writeSnapshot(sessions.get());
+
+			for (long number : listSegments()) {
+				if (number <= replaced)
+					Files.deleteIfExists(getSegmentPath(number));
+			}
+		} finally {
+			compaction.unlock();
+		}
+	}
+
+	/**
+	 * Compacts the journal in the background, every
+	 * <code>intervalSeconds</code>, once more than <code>threshold</code>
+	 * records were appended since the last snapshot
+	 */
+	public void startCompaction(final Supplier<Collection<Session>> sessions, long intervalSeconds,
+			final long threshold) {
+		lock.lock();
+		try {
+			if (compactor != null)
+				return;
+
+			compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "session-journal-compactor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+			compactor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (getRecordsSinceSnapshot() > threshold)
+							compact(sessions);
+					} catch (Exception e) {
+						LOG.error("Could not compact the session journal", e);
+					}
+				}
+			}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (compactor != null)
+				compactor.shutdownNow();
+
+			if (journal != null)
+				journal.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeIdRecord(byte type, String id) throws IOException {
+		lock.lock();
+		try {
+			DataOutputStream out = open();
+			out.writeByte(type);
+			out.writeUTF(id);
+			append(out);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private DataOutputStream open() throws IOException {
+		if (journal == null)
+			journal = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(getSegmentPath(segment).toFile(), true)));
+
+		return journal;
+	}
+
+	private void writeSnapshot(Collection<Session> sessions) throws IOException {
+		Path temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+
+		try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeInt(sessions.size());
+
+			for (Session session : sessions) {
+				writeSession(out, session);
+				out.writeBoolean(session.hasFailed());
+
+				long[] bitmap = session.getFileInfo().getChunkTracker().toWords();
+				out.writeInt(bitmap.length);
+				for (long word : bitmap) {
+					out.writeLong(word);
+				}
+			}
+
+			out.flush();
+			file.getFD().sync();
+		}
+
+		Files.move(temporary, snapshotPath, REPLACE_EXISTING, ATOMIC_MOVE);
+	}
+
+	private Path getSegmentPath(long number) {
+		return root.resolve("sessions." + number + ".journal");
+	}
+
+	/**
+	 * @return the numbers of the journal segments on disk, in order
+	 */
+	private List<Long> listSegments() throws IOException {
+		List<Long> segments = new ArrayList<Long>();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(root)) {
+			for (Path file : files) {
+				Matcher name = SEGMENT_NAME.matcher(file.getFileName().toString());
+				if (name.matches())
+					segments.add(Long.valueOf(name.group(1)));
+			}
+		}
+
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Hands the record over to the operating system, so it survives a crash of
+	 * the server process
+	 */
+	private void append(DataOutputStream out) throws IOException {
+		out.flush();
+		recordsSinceSnapshot++;
+	}
+
+	private static void writeSession(DataOutputStream out, Session session) throws IOException {
+		FileInformation fileInfo = session.getFileInfo();
+
+		out.writeUTF(session.getId());
+		out.writeLong(session.getUser());
+		out.writeUTF(fileInfo.getFileName());
+		out.writeInt(fileInfo.getChunkSize());
+		out.writeLong(fileInfo.getFileSize());
+		out.writeLong(session.getTimeout());
+		out.writeUTF(session.getCreatedDate());
+	}
+
+	private static Session readSession(DataInputStream in) throws IOException {
+		String id = in.readUTF();
+		long user = in.readLong();
+		String fileName = in.readUTF();
+		int chunkSize = in.readInt();
+		long fileSize = in.readLong();
+		long timeout = in.readLong();
+		LocalDateTime createdDate = LocalDateTime.parse(in.readUTF());
+
+		return new Session(id, user, new FileInformation(fileSize, fileName, chunkSize), timeout, createdDate);
+	}
+
+	private void readSnapshot(Map<String, Session> sessions) throws IOException {
+		try (DataInputStream in = openForReading(snapshotPath)) {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION)
+				throw new IOException("Unknown snapshot format: " + snapshotPath);
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				Session session = readSession(in);
+
+				if (in.readBoolean())
+					session.maskAsFailed();
+
+				long[] bitmap = new long[in.readInt()];
+				for (int w = 0; w < bitmap.length; w++) {
+					bitmap[w] = in.readLong();
+				}
+				session.getFileInfo().getChunkTracker().markAll(bitmap);
+
+				sessions.put(session.getId(), session);
+			}
+		}
+	}
+
+	private void replayJournal(Map<String, Session> sessions, Path segmentPath) throws IOException {
+		long records = 0;
+
+		try (DataInputStream in = openForReading(segmentPath)) {
+			while (true) {
+				int type = in.read();
+				if (type == -1)
+					break;
+
+				switch (type) {
+				case CREATED:
+					Session created = readSession(in);
+					if (!sessions.containsKey(created.getId()))
+						sessions.put(created.getId(), created);
+					break;
+				case CHUNK_PERSISTED:
+					Session session = sessions.get(in.readUTF());
+					int chunkNumber = in.readInt();
+					if (session != null)
+						session.getFileInfo().markChunkAsPersisted(chunkNumber);
+					break;
+				case FAILED:
+					Session failed = sessions.get(in.readUTF());
+					if (failed != null)
+						failed.maskAsFailed();
+					break;
+				case REMOVED:
+					sessions.remove(in.readUTF());
+					break;
+				default:
+					throw new IOException("Corrupted session journal " + segmentPath + " at record " + records);
+				}
+
+				records++;
+			}
+		} catch (EOFException e) {
+			LOG.warn("Ignoring incomplete record at the end of {}", segmentPath);
+		}
+
+		LOG.debug(">> Replayed {} journal records", records);
+	}
+
+	private static DataInputStream openForReading(Path path) throws IOException {
+		InputStream file = Files.newInputStream(path);
+		return new DataInputStream(new BufferedInputStream(file, BUFFER_SIZE));
+	}
+}
@@ -0,0 +1,12 @@
+package br.com.demo.chunkedupload.exception;
+
+/**
+ * The content of a chunk does not match the checksum sent with it. The chunk
+ * is not recorded, so the client can send it again.
+ */
+@SuppressWarnings("serial")
+public class ChecksumMismatchException extends BadRequestException {
+    public ChecksumMismatchException(String msg) {
+	super(msg);
+    }
+}
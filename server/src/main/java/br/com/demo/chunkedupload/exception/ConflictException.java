@@ -0,0 +1,12 @@
+package br.com.demo.chunkedupload.exception;
+
+/**
+ * The request contradicts what the server already holds, e.g. a chunk sent
+ * again with other content than the one persisted
+ */
+@SuppressWarnings("serial")
+public class ConflictException extends ApiException {
+    public ConflictException(String msg) {
+	super(409, msg);
+    }
+}
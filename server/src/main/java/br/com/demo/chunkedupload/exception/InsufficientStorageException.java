@@ -0,0 +1,13 @@
+package br.com.demo.chunkedupload.exception;
+
+/**
+ * The storage volume has no room left for the upload
+ */
+@SuppressWarnings("serial")
+public class InsufficientStorageException extends ApiException {
+    public static final int STATUS = 507;
+
+    public InsufficientStorageException(String msg) {
+	super(STATUS, msg);
+    }
+}
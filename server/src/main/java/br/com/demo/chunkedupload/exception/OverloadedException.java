@@ -0,0 +1,32 @@
+package br.com.demo.chunkedupload.exception;
+
+/**
+ * The server, or the user's share of it, is saturated, and the request was
+ * turned down before doing any work. It can be sent again after
+ * {@link #getRetryAfterSeconds()}.
+ */
+@SuppressWarnings("serial")
+public class OverloadedException extends ApiException {
+    /** The server as a whole is saturated */
+    public static final int SERVER_BUSY = 202;
+
+    /** The user holds more than their fair share of the server */
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    private final int status;
+    private final long retryAfterSeconds;
+
+    public OverloadedException(int status, String msg, long retryAfterSeconds) {
+	super(status, msg);
+	this.status = status;
+	this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatus() {
+	return status;
+    }
+
+    public long getRetryAfterSeconds() {
+	return retryAfterSeconds;
+    }
+}
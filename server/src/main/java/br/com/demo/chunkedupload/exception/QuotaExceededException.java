@@ -0,0 +1,11 @@
+package br.com.demo.chunkedupload.exception;
+
+/**
+ * The user's ongoing uploads would declare more bytes than their quota
+ */
+@SuppressWarnings("serial")
+public class QuotaExceededException extends ApiException {
+    public QuotaExceededException(String msg) {
+	super(403, msg);
+    }
+}
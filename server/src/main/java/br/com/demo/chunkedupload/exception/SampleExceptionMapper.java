@@ -21,12 +21,15 @@ import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.ext.ExceptionMapper;
 import javax.ws.rs.ext.Provider;
 
+import br.com.demo.chunkedupload.metrics.Metrics;
 import br.com.demo.chunkedupload.model.ApiResponse;
 
 @Provider
 public class SampleExceptionMapper implements ExceptionMapper<Exception> {
     @Override
     public Response toResponse(Exception exception) {
+	Metrics.FAILURES.increment(exception.getClass().getSimpleName());
+
 	if (exception instanceof javax.ws.rs.WebApplicationException) {
 	    javax.ws.rs.WebApplicationException e = (javax.ws.rs.WebApplicationException) exception;
 	    return Response.status(e.getResponse().getStatus())
@@ -39,6 +42,16 @@ public class SampleExceptionMapper implements ExceptionMapper<Exception> {
 	} else if (exception instanceof BadRequestException) {
 	    return Response.status(Status.BAD_REQUEST)
 		    .entity(new ApiResponse(ApiResponse.ERROR, exception.getMessage())).build();
+	} else if (exception instanceof OverloadedException) {
+	    OverloadedException e = (OverloadedException) exception;
+	    return Response.status(e.getStatus()).header("Retry-After", e.getRetryAfterSeconds())
+		    .entity(new ApiResponse(ApiResponse.TOO_BUSY, exception.getMessage())).build();
+	} else if (exception instanceof InsufficientStorageException) {
+	    return Response.status(InsufficientStorageException.STATUS)
+		    .entity(new ApiResponse(ApiResponse.ERROR, exception.getMessage())).build();
+	} else if (exception instanceof ConflictException) {
+	    return Response.status(Status.CONFLICT).entity(new ApiResponse(ApiResponse.ERROR, exception.getMessage()))
+		    .build();
 	} else if (exception instanceof ApiException) {
 	    return Response.status(Status.FORBIDDEN).entity(new ApiResponse(ApiResponse.ERROR, exception.getMessage()))
 		    .build();
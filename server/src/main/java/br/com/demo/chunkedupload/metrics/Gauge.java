@@ -0,0 +1,29 @@
+package br.com.demo.chunkedupload.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Value computed when the metrics are scraped
+ */
+public class Gauge extends Metric {
+    private final LongSupplier value;
+
+    public Gauge(String name, String help, LongSupplier value) {
+        super(name, help);
+        this.value = value;
+    }
+
+    public long get() {
+        return value.getAsLong();
+    }
+
+    @Override
+    protected String getType() {
+        return "gauge";
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        out.append(getName()).append(' ').append(get()).append('\n');
+    }
+}
@@ -0,0 +1,53 @@
+package br.com.demo.chunkedupload.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Family of counters told apart by the value of a single label
+ */
+public class LabeledCounter extends Metric {
+    private final String labelName;
+
+    private final ConcurrentMap<String, LongAdder> values = new ConcurrentHashMap<String, LongAdder>();
+
+    public LabeledCounter(String name, String help, String labelName) {
+        super(name, help);
+        this.labelName = labelName;
+    }
+
+    public void increment(String labelValue) {
+        LongAdder value = values.get(labelValue);
+
+        if (value == null) {
+            LongAdder created = new LongAdder();
+            value = values.putIfAbsent(labelValue, created);
+            if (value == null)
+                value = created;
+        }
+
+        value.increment();
+    }
+
+    public long get(String labelValue) {
+        LongAdder value = values.get(labelValue);
+        return value == null ? 0 : value.sum();
+    }
+
+    @Override
+    protected String getType() {
+        return "counter";
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder out) {
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(values).entrySet()) {
+            out.append(getName()).append('{').append(labelName).append("=\"")
+                    .append(escapeLabelValue(entry.getKey())).append("\"} ").append(entry.getValue().sum())
+                    .append('\n');
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package br.com.demo.chunkedupload.metrics;
+
+/**
+ * A named metric that can render itself in the Prometheus text exposition
+ * format
+ */
+public abstract class Metric {
+    private final String name;
+    private final String help;
+
+    protected Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * @return the Prometheus metric type: counter, gauge or summary
+     */
+    protected abstract String getType();
+
+    /**
+     * Appends the samples of this metric, without the HELP and TYPE lines
+     */
+    protected abstract void writeSamples(StringBuilder out);
+
+    void writeTo(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(getType()).append('\n');
+        writeSamples(out);
+    }
+
+    static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
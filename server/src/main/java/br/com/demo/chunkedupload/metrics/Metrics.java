@@ -0,0 +1,57 @@
+package br.com.demo.chunkedupload.metrics;
+
+/**
+ * Metrics of the server, exposed on <code>/api/metrics</code>
+ */
+public final class Metrics {
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final Histogram CHUNK_UPLOAD = REGISTRY.histogram("chunkedupload_chunk_upload_seconds",
+            "Time to handle a chunk upload request");
+
+    public static final Histogram BATCH_UPLOAD = REGISTRY.histogram("chunkedupload_batch_upload_seconds",
+            "Time to handle a batch upload request, for all of its chunks");
+
+    public static final Histogram CHUNK_BODY_READ = REGISTRY.histogram("chunkedupload_chunk_body_read_seconds",
+            "Time spent reading the body of a chunk from the client");
+
+    public static final Histogram CHUNK_PERSIST = REGISTRY.histogram("chunkedupload_chunk_persist_seconds",
+            "Time spent writing a chunk to storage, excluding body reads");
+
+    public static final Histogram CHUNK_BOOKKEEPING = REGISTRY.histogram("chunkedupload_chunk_bookkeeping_seconds",
+            "Time spent updating the session after a chunk was persisted");
+
+    public static final Histogram FILE_ASSEMBLY = REGISTRY.histogram("chunkedupload_file_assembly_seconds",
+            "Time to merge the chunks of a concluded upload into one file");
+
+    public static final Histogram CHUNK_SYNC = REGISTRY.histogram("chunkedupload_chunk_sync_seconds",
+            "Time spent waiting for a written chunk to reach stable storage");
+
+    public static final Counter CHUNKS_PERSISTED = REGISTRY.counter("chunkedupload_chunks_persisted_total",
+            "Chunks persisted");
+
+    public static final Counter SYNC_ROUNDS = REGISTRY.counter("chunkedupload_sync_rounds_total",
+            "Shared fsync rounds run by group commit, each covering the chunks written meanwhile");
+
+    public static final Counter DUPLICATE_CHUNKS = REGISTRY.counter("chunkedupload_duplicate_chunks_total",
+            "Chunks sent again with the content already persisted, and acknowledged without writing them");
+
+    public static final Counter BYTES_INGESTED = REGISTRY.counter("chunkedupload_bytes_ingested_total",
+            "Bytes of chunks persisted");
+
+    public static final Counter BYTES_SERVED = REGISTRY.counter("chunkedupload_bytes_served_total",
+            "Bytes of files downloaded");
+
+    public static final Counter SESSIONS_CREATED = REGISTRY.counter("chunkedupload_sessions_created_total",
+            "Upload sessions created");
+
+    public static final LabeledCounter FAILURES = REGISTRY.counter("chunkedupload_failures_total",
+            "Requests that failed, by exception type", "exception");
+
+    public static final LabeledCounter ADMISSION_REJECTIONS = REGISTRY.counter(
+            "chunkedupload_admission_rejections_total", "Chunk uploads turned down before being read, by reason",
+            "reason");
+
+    private Metrics() {
+    }
+}
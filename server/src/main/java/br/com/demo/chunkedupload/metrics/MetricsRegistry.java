@@ -0,0 +1,57 @@
+package br.com.demo.chunkedupload.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Set of metrics exposed together, sorted by name
+ */
+public class MetricsRegistry {
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+
+    public Counter counter(String name, String help) {
+        return register(new Counter(name, help));
+    }
+
+    public LabeledCounter counter(String name, String help, String labelName) {
+        return register(new LabeledCounter(name, help, labelName));
+    }
+
+    public Histogram histogram(String name, String help) {
+        return register(new Histogram(name, help));
+    }
+
+    /**
+     * Registers a gauge, replacing any previous gauge with the same name
+     */
+    public Gauge gauge(String name, String help, LongSupplier value) {
+        Gauge gauge = new Gauge(name, help, value);
+        metrics.put(name, gauge);
+        return gauge;
+    }
+
+    public Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+
+        for (Metric metric : metrics.values()) {
+            metric.writeTo(out);
+        }
+
+        return out.toString();
+    }
+
+    private <T extends Metric> T register(T metric) {
+        if (metrics.putIfAbsent(metric.getName(), metric) != null)
+            throw new IllegalArgumentException("Metric already registered: " + metric.getName());
+
+        return metric;
+    }
+}
@@ -0,0 +1,62 @@
+package br.com.demo.chunkedupload.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures how long reads from the wrapped stream block, and how many bytes
+ * they return. Meant to be read by a single thread, like a request body.
+ */
+public class TimedInputStream extends FilterInputStream {
+    private long readNanos;
+    private long bytesRead;
+
+    public TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long started = System.nanoTime();
+        try {
+            int b = super.read();
+            if (b != -1)
+                bytesRead++;
+            return b;
+        } finally {
+            readNanos += System.nanoTime() - started;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long started = System.nanoTime();
+        try {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                bytesRead += read;
+            return read;
+        } finally {
+            readNanos += System.nanoTime() - started;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long started = System.nanoTime();
+        try {
+            return super.skip(n);
+        } finally {
+            readNanos += System.nanoTime() - started;
+        }
+    }
+}
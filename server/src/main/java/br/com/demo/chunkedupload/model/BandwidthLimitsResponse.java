@@ -0,0 +1,60 @@
+package br.com.demo.chunkedupload.model;
+
+import java.util.Map;
+
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+
+/**
+ * Upload bandwidth limits, in bytes per second, 0 meaning no limit
+ */
+@javax.xml.bind.annotation.XmlRootElement
+public class BandwidthLimitsResponse {
+	public static BandwidthLimitsResponse fromLimiter(BandwidthLimiter limiter) {
+		BandwidthLimitsResponse model = new BandwidthLimitsResponse();
+
+		model.setGlobalBytesPerSecond(limiter.getGlobalRate());
+		model.setUserBytesPerSecond(limiter.getDefaultUserRate());
+		model.setUsers(limiter.getUserRates());
+
+		return model;
+	}
+
+	private long globalBytesPerSecond;
+
+	private long userBytesPerSecond;
+
+	private Map<Long, Long> users;
+
+	/**
+	 * @return the limit of all uploads together
+	 */
+	public long getGlobalBytesPerSecond() {
+		return globalBytesPerSecond;
+	}
+
+	/**
+	 * @return the limit of each user without a limit of their own
+	 */
+	public long getUserBytesPerSecond() {
+		return userBytesPerSecond;
+	}
+
+	/**
+	 * @return the users with a limit of their own, and their limits
+	 */
+	public Map<Long, Long> getUsers() {
+		return users;
+	}
+
+	public void setGlobalBytesPerSecond(long globalBytesPerSecond) {
+		this.globalBytesPerSecond = globalBytesPerSecond;
+	}
+
+	public void setUserBytesPerSecond(long userBytesPerSecond) {
+		this.userBytesPerSecond = userBytesPerSecond;
+	}
+
+	public void setUsers(Map<Long, Long> users) {
+		this.users = users;
+	}
+}
@@ -0,0 +1,67 @@
+package br.com.demo.chunkedupload.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a batch upload, with one entry per chunk in the order they were
+ * sent
+ */
+@javax.xml.bind.annotation.XmlRootElement
+public class BatchUploadResponse {
+	private String sessionId;
+
+	private Integer persistedChunks = 0;
+
+	private Integer failedChunks = 0;
+
+	private List<ChunkUploadResult> chunks = new ArrayList<ChunkUploadResult>();
+
+	public BatchUploadResponse() {
+	}
+
+	public BatchUploadResponse(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public void add(ChunkUploadResult result) {
+		chunks.add(result);
+
+		if (result.getStatus() == 200)
+			persistedChunks++;
+		else
+			failedChunks++;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public Integer getPersistedChunks() {
+		return persistedChunks;
+	}
+
+	public Integer getFailedChunks() {
+		return failedChunks;
+	}
+
+	public List<ChunkUploadResult> getChunks() {
+		return chunks;
+	}
+
+	public void setSessionId(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public void setPersistedChunks(Integer persistedChunks) {
+		this.persistedChunks = persistedChunks;
+	}
+
+	public void setFailedChunks(Integer failedChunks) {
+		this.failedChunks = failedChunks;
+	}
+
+	public void setChunks(List<ChunkUploadResult> chunks) {
+		this.chunks = chunks;
+	}
+}
@@ -0,0 +1,125 @@
+package br.com.demo.chunkedupload.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An inclusive byte range of a file, as requested through the HTTP
+ * <code>Range</code> header
+ */
+public class ByteRange {
+	private static final String UNIT = "bytes=";
+
+	/**
+	 * Requests with more ranges than this are served in full, to avoid abuse
+	 * through many tiny ranges
+	 */
+	public static final int MAX_RANGES = 16;
+
+	/**
+	 * Parses a <code>Range</code> header value against a file of
+	 * <code>fileSize</code> bytes.
+	 *
+	 * @return the satisfiable ranges, an empty list if none of them can be
+	 *         satisfied, or <code>null</code> if the header is missing or
+	 *         malformed and the whole file should be served
+	 */
+	public static List<ByteRange> parse(String header, long fileSize) {
+		if (header == null || !header.trim().startsWith(UNIT))
+			return null;
+
+		String[] specs = header.trim().substring(UNIT.length()).split(",");
+		if (specs.length > MAX_RANGES)
+			return null;
+
+		List<ByteRange> ranges = new ArrayList<ByteRange>();
+
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0)
+				return null;
+
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+
+			try {
+				if (first.isEmpty()) {
+					// suffix range: the last N bytes
+					if (last.isEmpty())
+						return null;
+
+					long suffix = Long.parseLong(last);
+					if (suffix > 0 && fileSize > 0)
+						ranges.add(new ByteRange(Math.max(0, fileSize - suffix), fileSize - 1));
+				} else {
+					long start = Long.parseLong(first);
+					long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+
+					if (end < start)
+						return null;
+
+					if (start < fileSize)
+						ranges.add(new ByteRange(start, Math.min(end, fileSize - 1)));
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		return ranges;
+	}
+
+	private final long start;
+
+	private final long end;
+
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the first byte of the range
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the last byte of the range (inclusive)
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * @return the value of the <code>Content-Range</code> header for this range
+	 */
+	public String toContentRange(long fileSize) {
+		return String.format("bytes %d-%d/%d", start, end, fileSize);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ByteRange))
+			return false;
+
+		ByteRange other = (ByteRange) obj;
+		return start == other.start && end == other.end;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(start) * 31 + Long.hashCode(end);
+	}
+
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+}
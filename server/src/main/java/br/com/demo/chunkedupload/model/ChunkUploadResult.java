@@ -0,0 +1,86 @@
+package br.com.demo.chunkedupload.model;
+
+/**
+ * Outcome of one chunk of a batch upload
+ */
+@javax.xml.bind.annotation.XmlRootElement
+public class ChunkUploadResult {
+	public static ChunkUploadResult persisted(int chunkNumber) {
+		ChunkUploadResult result = new ChunkUploadResult();
+
+		result.setChunkNumber(chunkNumber);
+		result.setStatus(200);
+
+		return result;
+	}
+
+	public static ChunkUploadResult failed(int chunkNumber, int status, String message) {
+		ChunkUploadResult result = new ChunkUploadResult();
+
+		result.setChunkNumber(chunkNumber);
+		result.setStatus(status);
+		result.setMessage(message);
+
+		return result;
+	}
+
+	/**
+	 * @param retryAfterSeconds
+	 *            when the chunk may be sent again, for chunks turned down by
+	 *            admission control
+	 */
+	public static ChunkUploadResult rejected(int chunkNumber, int status, String message, long retryAfterSeconds) {
+		ChunkUploadResult result = failed(chunkNumber, status, message);
+
+		result.setRetryAfterSeconds(retryAfterSeconds);
+
+		return result;
+	}
+
+	private Integer chunkNumber;
+
+	private Integer status;
+
+	private String message;
+
+	private Long retryAfterSeconds;
+
+	public Integer getChunkNumber() {
+		return chunkNumber;
+	}
+
+	/**
+	 * @return the HTTP status the chunk would have got if uploaded alone
+	 */
+	public Integer getStatus() {
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return seconds to wait before sending the chunk again, or null if it
+	 *         was not turned down for lack of capacity
+	 */
+	public Long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	public void setChunkNumber(Integer chunkNumber) {
+		this.chunkNumber = chunkNumber;
+	}
+
+	public void setStatus(Integer status) {
+		this.status = status;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public void setRetryAfterSeconds(Long retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+}
@@ -10,12 +10,19 @@ public class SessionCreationStatusResponse {
 		model.setSessionId(session.getId());
 		model.setUserId(session.getUser());
 		model.setFileName(session.getFileInfo().getFileName());
+		model.setChunkSize(session.getFileInfo().getChunkSize());
 
 		return model;
 	}
 
 	private String fileName;
 
+	private Integer chunkSize;
+
+	private Integer recommendedChunkSize;
+
+	private Integer maxChunkSize;
+
 	private String sessionId;
 
 	private Long userId;
@@ -65,4 +72,38 @@ public class SessionCreationStatusResponse {
 		this.userId = userId;
 	}
 
+	/**
+	 * @return the chunk size of the session
+	 */
+	public Integer getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(Integer chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return the chunk size the server recommends for this file, which
+	 *         clients may use for their next sessions
+	 */
+	public Integer getRecommendedChunkSize() {
+		return recommendedChunkSize;
+	}
+
+	public void setRecommendedChunkSize(Integer recommendedChunkSize) {
+		this.recommendedChunkSize = recommendedChunkSize;
+	}
+
+	/**
+	 * @return the largest chunk size the server accepts
+	 */
+	public Integer getMaxChunkSize() {
+		return maxChunkSize;
+	}
+
+	public void setMaxChunkSize(Integer maxChunkSize) {
+		this.maxChunkSize = maxChunkSize;
+	}
+
 }
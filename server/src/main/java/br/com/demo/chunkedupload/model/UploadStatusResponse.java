@@ -3,6 +3,7 @@ package br.com.demo.chunkedupload.model;
 import java.util.ArrayList;
 import java.util.List;
 
+import br.com.demo.chunkedupload.data.FileDigest;
 import br.com.demo.chunkedupload.data.Session;
 
 @javax.xml.bind.annotation.XmlRootElement
@@ -26,6 +27,9 @@ public class UploadStatusResponse {
 		model.setUser(session.getUser());
 		model.setId(session.getId());
 		model.setStatus(session.getStatus());
+		// sessions recovered after a restart have no digest
+		FileDigest digest = session.getDigest();
+		model.setSha256(digest != null ? digest.getHex() : null);
 
 		return model;
 	}
@@ -54,6 +58,7 @@ public class UploadStatusResponse {
 
 	private String lastUpdate;
 	private Double progress;
+	private String sha256;
 	private String status;
 	private Integer successfulChunks;
 	private Integer totalNumberOfChunks;
@@ -94,6 +99,13 @@ public class UploadStatusResponse {
 		return progress;
 	}
 
+	/**
+	 * @return the SHA-256 of the file, once every chunk was received
+	 */
+	public String getSha256() {
+		return sha256;
+	}
+
 	/**
 	 * @return the status
 	 */
@@ -145,6 +157,10 @@ public class UploadStatusResponse {
 		this.progress = progress;
 	}
 
+	public void setSha256(String sha256) {
+		this.sha256 = sha256;
+	}
+
 	private void setStatus(String status) {
 		this.status = status;
 
@@ -0,0 +1,74 @@
+package br.com.demo.chunkedupload.model;
+
+import java.util.Map;
+
+/**
+ * Number of upload sessions by status, of one user or of the whole server
+ */
+@javax.xml.bind.annotation.XmlRootElement
+public class UploadsSummaryResponse {
+	public static UploadsSummaryResponse fromCounts(Long user, Map<String, Long> countByStatus) {
+		UploadsSummaryResponse model = new UploadsSummaryResponse();
+
+		model.setUser(user);
+		model.setOngoing(countByStatus.get("ongoing"));
+		model.setDone(countByStatus.get("done"));
+		model.setFailed(countByStatus.get("failed"));
+		model.setTotal(model.getOngoing() + model.getDone() + model.getFailed());
+
+		return model;
+	}
+
+	private Long user;
+
+	private Long ongoing;
+
+	private Long done;
+
+	private Long failed;
+
+	private Long total;
+
+	/**
+	 * @return the user, or null for a summary of every session
+	 */
+	public Long getUser() {
+		return user;
+	}
+
+	public Long getOngoing() {
+		return ongoing;
+	}
+
+	public Long getDone() {
+		return done;
+	}
+
+	public Long getFailed() {
+		return failed;
+	}
+
+	public Long getTotal() {
+		return total;
+	}
+
+	public void setUser(Long user) {
+		this.user = user;
+	}
+
+	public void setOngoing(Long ongoing) {
+		this.ongoing = ongoing;
+	}
+
+	public void setDone(Long done) {
+		this.done = done;
+	}
+
+	public void setFailed(Long failed) {
+		this.failed = failed;
+	}
+
+	public void setTotal(Long total) {
+		this.total = total;
+	}
+}
@@ -0,0 +1,591 @@
+package br.com.demo.chunkedupload.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.exception.ConflictException;
+import br.com.demo.chunkedupload.exception.OverloadedException;
+import br.com.demo.chunkedupload.exception.SampleExceptionMapper;
+import br.com.demo.chunkedupload.metrics.Metrics;
+import br.com.demo.chunkedupload.model.ApiResponse;
+import br.com.demo.chunkedupload.model.UploadStatusResponse;
+import br.com.demo.chunkedupload.service.AdmissionController;
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+import br.com.demo.chunkedupload.service.ChunkSizeAdvisor;
+import br.com.demo.chunkedupload.service.ExecutionMode;
+import br.com.demo.chunkedupload.service.UploadService;
+import br.com.demo.chunkedupload.util.Configuration;
+import br.com.demo.chunkedupload.util.Crc32c;
+
+/**
+ * Non-blocking alternative to {@link FileResource#uploadFileChunk}, for raw
+ * (not multipart) chunk bodies:
+ * <code>PUT /async/upload/user/{userId}/session/{sessionId}?chunkNumber={n}</code>
+ * <p>
+ * The body is read with a servlet 3.1 {@link ReadListener}, so no thread waits
+ * on slow clients: container threads only run when bytes have arrived. The
+ * bytes are collected in a {@link ChunkBuffer}, which holds at most
+ * <code>chunkedupload.async.bufferBytes</code> (1MB by default) in memory and
+ * spills the rest to a temporary file. Once the body is complete, and the
+ * {@link AdmissionController} lets the chunk in, a task of a bounded pool
+ * persists it and sends the response, so those tasks never wait on the client
+ * either. The admission permit is only held while the chunk is written, so a
+ * slow client does not keep others from writing.
+ * <p>
+ * Bodies are read within the bandwidth limits of their user. Rather than
+ * sleeping on a container thread, a reader in debt stops reading, and a timer
+ * resumes it once the debt is paid.
+ * <p>
+ * A body shorter or longer than its chunk is answered with a 400, and leaves
+ * the upload as it was.
+ * <p>
+ * Status (<code>GET /async/upload/{sessionId}</code>) and downloads
+ * (<code>GET /async/download/{sessionId}</code>) are handed off to the same
+ * executor, which runs on virtual threads when
+ * <code>chunkedupload.threads.mode=virtual</code>.
+ */
+public class AsyncUploadServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static Logger LOG = LoggerFactory.getLogger(AsyncUploadServlet.class);
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_SERVER_BUSY = 202;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_REQUEST_TIMEOUT = 408;
+    private static final int STATUS_SERVER_ERROR = 500;
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+
+    private static final Pattern UPLOAD_PATH = Pattern.compile("^/upload/user/(\\d{1,18})/session/([^/]+)/?$");
+    private static final Pattern STATUS_PATH = Pattern.compile("^/upload/([^/]+)/?$");
+    private static final Pattern DOWNLOAD_PATH = Pattern.compile("^/download/([^/]+)/?$");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private UploadService uploadService;
+
+    private Executor executor;
+
+    private long timeoutMillis;
+
+    private int bufferBytes;
+
+    private final transient ScheduledExecutorService throttler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "async-throttler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AsyncUploadServlet() {
+
+    }
+
+    AsyncUploadServlet(UploadService uploadService, Executor executor, long timeoutMillis) {
+        this(uploadService, executor, timeoutMillis, DEFAULT_BUFFER_BYTES);
+    }
+
+    AsyncUploadServlet(UploadService uploadService, Executor executor, long timeoutMillis, int bufferBytes) {
+        this.uploadService = uploadService;
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+        this.bufferBytes = bufferBytes;
+    }
+
+    @Override
+    public void init() throws ServletException {
+        if (uploadService == null)
+            uploadService = FileResource.getUploadService();
+
+        if (executor == null) {
+            ExecutionMode mode = ExecutionMode.fromString(Configuration.getString("threads.mode", "platform"));
+
+            executor = mode.newExecutor("async-worker",
+                    Configuration.getInt("async.threads", Runtime.getRuntime().availableProcessors()),
+                    Configuration.getInt("async.queueSize", 1024));
+
+            timeoutMillis = Configuration.getLong("async.timeoutMillis", 60000);
+            bufferBytes = Configuration.getInt("async.bufferBytes", DEFAULT_BUFFER_BYTES);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor instanceof ExecutorService)
+            ((ExecutorService) executor).shutdown();
+
+        throttler.shutdownNow();
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long started = System.nanoTime();
+
+        Matcher path = UPLOAD_PATH.matcher(request.getPathInfo() == null ? "" : request.getPathInfo());
+        if (!path.matches()) {
+            send(response, STATUS_NOT_FOUND, new ApiResponse(ApiResponse.ERROR, "Not found"));
+            return;
+        }
+
+        Long userId = Long.valueOf(path.group(1));
+        String sessionId = path.group(2);
+        int chunkNumber = parseChunkNumber(request.getParameter("chunkNumber"));
+
+        if (chunkNumber < 1) {
+            send(response, STATUS_BAD_REQUEST, new ApiResponse(ApiResponse.ERROR, "Invalid chunk number"));
+            return;
+        }
+
+        Session session = uploadService.getSession(sessionId);
+        if (session == null) {
+            send(response, STATUS_NOT_FOUND, new ApiResponse(ApiResponse.ERROR, "Session not found"));
+            return;
+        }
+
+        if (chunkNumber > session.getFileInfo().getTotalNumberOfChunks()) {
+            send(response, STATUS_BAD_REQUEST, new ApiResponse(ApiResponse.ERROR, "Invalid chunk number"));
+            return;
+        }
+
+        Long checksum;
+        try {
+            String header = request.getHeader(FileResource.CHUNK_CHECKSUM_HEADER);
+            checksum = header == null ? null : Crc32c.parse(header);
+        } catch (NumberFormatException e) {
+            send(response, STATUS_BAD_REQUEST, new ApiResponse(ApiResponse.ERROR, "Invalid chunk checksum"));
+            return;
+        }
+
+        try {
+            // a retry of a persisted chunk is acknowledged without reading its body
+            if (uploadService.isDuplicateChunk(session, chunkNumber, checksum)) {
+                response.setStatus(STATUS_OK);
+                Metrics.CHUNK_UPLOAD.record(System.nanoTime() - started);
+                return;
+            }
+        } catch (ConflictException e) {
+            sendError(response, e);
+            return;
+        }
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(timeoutMillis);
+
+        ChunkReader reader = new ChunkReader(async, request.getInputStream(), sessionId, userId, chunkNumber,
+                checksum, session.getFileInfo().getChunkLength(chunkNumber), uploadService.getBandwidthLimiter(),
+                started);
+        async.addListener(reader);
+        reader.input.setReadListener(reader);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String path = request.getPathInfo() == null ? "" : request.getPathInfo();
+
+        Matcher status = STATUS_PATH.matcher(path);
+        if (status.matches()) {
+            final String sessionId = status.group(1);
+
+            dispatch(request, new Task() {
+                @Override
+                public void run(HttpServletResponse response) throws Exception {
+                    Session session = uploadService.getSession(sessionId);
+
+                    if (session == null)
+                        response.setStatus(STATUS_NOT_FOUND);
+                    else
+                        send(response, STATUS_OK, UploadStatusResponse.fromSession(session));
+                }
+            });
+            return;
+        }
+
+        Matcher download = DOWNLOAD_PATH.matcher(path);
+        if (download.matches()) {
+            final String sessionId = download.group(1);
+
+            dispatch(request, new Task() {
+                @Override
+                public void run(HttpServletResponse response) throws Exception {
+                    Session session = uploadService.getSession(sessionId);
+
+                    if (session == null) {
+                        response.setStatus(STATUS_NOT_FOUND);
+                        return;
+                    }
+
+                    StreamingOutput content = uploadService.getContentStream(session);
+
+                    response.setStatus(STATUS_OK);
+                    response.setContentType("application/octet-stream");
+                    response.setHeader("Content-Length", String.valueOf(session.getFileInfo().getFileSize()));
+                    response.setHeader("Content-Disposition",
+                            "attachment; filename=\"" + session.getFileInfo().getFileName() + "\"");
+                    content.write(response.getOutputStream());
+                }
+            });
+            return;
+        }
+
+        send(response, STATUS_NOT_FOUND, new ApiResponse(ApiResponse.ERROR, "Not found"));
+    }
+
+    /**
+     * Runs <code>task</code> on the executor, releasing the container thread
+     * until it completes
+     */
+    private void dispatch(HttpServletRequest request, final Task task) {
+        final AsyncContext async = request.startAsync();
+        async.setTimeout(timeoutMillis);
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    HttpServletResponse response = (HttpServletResponse) async.getResponse();
+
+                    try {
+                        task.run(response);
+                    } catch (Exception e) {
+                        sendError(response, e);
+                    } finally {
+                        async.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                send((HttpServletResponse) async.getResponse(), STATUS_SERVER_BUSY,
+                        new ApiResponse(ApiResponse.TOO_BUSY, "Server busy. Try again."));
+            } catch (IOException ioe) {
+                LOG.debug(">> Could not send 'server busy' response");
+            } finally {
+                async.complete();
+            }
+        }
+    }
+
+    private interface Task {
+        void run(HttpServletResponse response) throws Exception;
+    }
+
+    static void sendError(HttpServletResponse response, Exception e) {
+        Response error = new SampleExceptionMapper().toResponse(e);
+
+        try {
+            if (!response.isCommitted()) {
+                for (Map.Entry<String, List<Object>> header : error.getMetadata().entrySet()) {
+                    for (Object value : header.getValue()) {
+                        response.addHeader(header.getKey(), String.valueOf(value));
+                    }
+                }
+
+                send(response, error.getStatus(), error.getEntity());
+            }
+        } catch (IOException ioe) {
+            LOG.debug(">> Could not send error response: {}", ioe.getMessage());
+        }
+    }
+
+    private static int parseChunkNumber(String value) {
+        try {
+            return value == null ? 0 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void send(HttpServletResponse response, int status, Object entity) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        MAPPER.writeValue(response.getOutputStream(), entity);
+    }
+
+    /**
+     * Reads the chunk as it arrives into a {@link ChunkBuffer}, and hands it
+     * over to the persist pool once complete. The response is sent exactly
+     * once: when the chunk is persisted or turned down, or when the request
+     * times out. The buffer is dropped then, or once the persist task no longer
+     * reads it.
+     */
+    private class ChunkReader implements ReadListener, AsyncListener {
+        private final AsyncContext async;
+        private final ServletInputStream input;
+        private final String sessionId;
+        private final Long userId;
+        private final int chunkNumber;
+        private final Long checksum;
+        private final long length;
+        private final BandwidthLimiter limiter;
+        private final long started;
+
+        private final ChunkBuffer buffer = new ChunkBuffer(bufferBytes);
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        // guarded by this
+        private final byte[] segment;
+        private long received;
+        private boolean ended;
+        private boolean persisting;
+
+        /**
+         * When the first bytes came in, and how long reading has been paused
+         * by the limiter since, to time the link alone
+         */
+        private long firstRead;
+        private long throttledNanos;
+
+        ChunkReader(AsyncContext async, ServletInputStream input, String sessionId, Long userId, int chunkNumber,
+                Long checksum, long length, BandwidthLimiter limiter, long started) {
+            this.async = async;
+            this.input = input;
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.chunkNumber = chunkNumber;
+            this.checksum = checksum;
+            this.length = length;
+            this.limiter = limiter;
+            this.started = started;
+            this.segment = new byte[(int) Math.min(SEGMENT_SIZE, length + 1)];
+        }
+
+        @Override
+        public synchronized void onDataAvailable() throws IOException {
+            while (!completed.get() && !ended && input.isReady()) {
+                // at most one byte past the chunk, enough to tell it is too large
+                int read = input.read(segment, 0, (int) Math.min(segment.length, length + 1 - received));
+                if (read == -1)
+                    return;
+
+                if (received == 0)
+                    firstRead = System.nanoTime();
+                received += read;
+                if (received > length) {
+                    ended = true;
+                    finish(STATUS_BAD_REQUEST, new ApiResponse(ApiResponse.ERROR, "Chunk is larger than expected"));
+                    return;
+                }
+
+                try {
+                    buffer.write(segment, 0, read);
+                } catch (IOException e) {
+                    LOG.warn(">> Could not buffer chunk {} of session {}: {}",
+                            new Object[] { chunkNumber, sessionId, e.getMessage() });
+                    ended = true;
+                    finish(STATUS_SERVER_ERROR, new ApiResponse(ApiResponse.ERROR, "Could not receive the chunk"));
+                    return;
+                }
+
+                long wait = limiter == null ? 0 : limiter.reserve(userId, read);
+                if (wait > 0) {
+                    throttle(wait);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public synchronized void onAllDataRead() throws IOException {
+            if (completed.get() || ended)
+                return;
+
+            ended = true;
+
+            if (received < length) {
+                finish(STATUS_BAD_REQUEST, new ApiResponse(ApiResponse.ERROR,
+                        String.format("Chunk %d has %d bytes, expected %d", chunkNumber, received, length)));
+                return;
+            }
+
+            recordTransfer();
+
+            // admitted only now, so the permit covers the write and not the client
+            final AdmissionController.Permit permit;
+            try {
+                permit = uploadService.admit(sessionId, userId, chunkNumber);
+            } catch (OverloadedException e) {
+                fail(e);
+                return;
+            }
+
+            persisting = true;
+
+            try {
+                executor.execute(() -> persist(permit));
+            } catch (RejectedExecutionException e) {
+                persisting = false;
+                permit.close();
+                finish(STATUS_SERVER_BUSY, new ApiResponse(ApiResponse.TOO_BUSY, "Server busy. Try again."));
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOG.debug(">> Could not read chunk {} of session {}: {}",
+                    new Object[] { chunkNumber, sessionId, t.getMessage() });
+
+            Metrics.FAILURES.increment(t.getClass().getSimpleName());
+
+            if (completed.compareAndSet(false, true)) {
+                release();
+                async.complete();
+            }
+        }
+
+        /**
+         * Resumes reading after <code>nanos</code>, leaving the container thread
+         */
+        private void throttle(long nanos) {
+            throttledNanos += nanos;
+
+            try {
+                throttler.schedule(this::resume, nanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // the servlet is being destroyed
+                onError(e);
+            }
+        }
+
+        /**
+         * Reports how fast the body came off the socket, which is the only
+         * wait on the client this servlet sees
+         */
+        private void recordTransfer() {
+            ChunkSizeAdvisor advisor = uploadService.getChunkSizeAdvisor();
+
+            if (advisor != null && received > 0)
+                advisor.recordTransfer(userId, received, System.nanoTime() - firstRead - throttledNanos);
+        }
+
+        private void resume() {
+            try {
+                onDataAvailable();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        private void persist(AdmissionController.Permit permit) {
+            try (AdmissionController.Permit written = permit; InputStream body = buffer.getInputStream()) {
+                uploadService.persistBlock(sessionId, userId, chunkNumber, body, checksum);
+
+                finish(STATUS_OK, null);
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                closeBuffer();
+            }
+        }
+
+        private void finish(int status, ApiResponse entity) {
+            if (!completed.compareAndSet(false, true))
+                return;
+
+            release();
+
+            try {
+                HttpServletResponse response = (HttpServletResponse) async.getResponse();
+
+                if (entity == null)
+                    response.setStatus(status);
+                else if (!response.isCommitted())
+                    send(response, status, entity);
+            } catch (IOException e) {
+                LOG.debug(">> Could not send response for chunk {} of session {}", chunkNumber, sessionId);
+            } finally {
+                async.complete();
+                Metrics.CHUNK_UPLOAD.record(System.nanoTime() - started);
+            }
+        }
+
+        /**
+         * Answers with the status and headers <code>e</code> maps to
+         */
+        private void fail(Exception e) {
+            if (!completed.compareAndSet(false, true))
+                return;
+
+            release();
+
+            try {
+                sendError((HttpServletResponse) async.getResponse(), e);
+            } finally {
+                async.complete();
+                Metrics.CHUNK_UPLOAD.record(System.nanoTime() - started);
+            }
+        }
+
+        /**
+         * Drops the buffer, unless the persist task still reads it
+         */
+        private void release() {
+            synchronized (this) {
+                if (persisting)
+                    return;
+            }
+            closeBuffer();
+        }
+
+        private void closeBuffer() {
+            try {
+                buffer.close();
+            } catch (IOException e) {
+                LOG.warn(">> Could not drop the buffer of chunk {} of session {}: {}",
+                        new Object[] { chunkNumber, sessionId, e.getMessage() });
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // a chunk already being persisted is kept, so the retry is acknowledged
+            finish(STATUS_REQUEST_TIMEOUT, new ApiResponse(ApiResponse.ERROR, "Timed out receiving the chunk"));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package br.com.demo.chunkedupload.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import br.com.demo.chunkedupload.metrics.TimedInputStream;
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+import br.com.demo.chunkedupload.service.ChunkSizeAdvisor;
+
+/**
+ * Reads the chunk uploads of {@link FileResource} within the bandwidth limits
+ * of their user, and samples how fast the user's link is for the
+ * {@link ChunkSizeAdvisor}.
+ * <p>
+ * Jersey receives a whole multipart body before the resource method runs, so
+ * the limits are applied here, to the request stream itself, as the body comes
+ * off the socket. That is also the only place where the time spent reading
+ * says anything about the link; only the reads are timed, not the throttling.
+ * {@link AsyncUploadServlet} does both on its own, since its reads must not
+ * sleep.
+ */
+public class BandwidthFilter implements Filter {
+    private static final Pattern UPLOAD_PATH = Pattern
+            .compile("^/file/upload/user/(\\d{1,18})/session/[^/]+(/batch)?/?$");
+
+    private BandwidthLimiter limiter;
+
+    private ChunkSizeAdvisor advisor;
+
+    public BandwidthFilter() {
+
+    }
+
+    BandwidthFilter(BandwidthLimiter limiter, ChunkSizeAdvisor advisor) {
+        this.limiter = limiter;
+        this.advisor = advisor;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        BandwidthLimiter limiter = getLimiter();
+        HttpServletRequest http = (HttpServletRequest) request;
+        Matcher path = UPLOAD_PATH.matcher(http.getPathInfo() == null ? "" : http.getPathInfo());
+
+        if (limiter == null || !"PUT".equals(http.getMethod()) || !path.matches()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Long userId = Long.valueOf(path.group(1));
+        TimedInputStream body = new TimedInputStream(http.getInputStream());
+
+        chain.doFilter(new ThrottledRequest(http, body, limiter, userId), response);
+
+        ChunkSizeAdvisor advisor = getAdvisor();
+        if (advisor != null)
+            advisor.recordTransfer(userId, body.getBytesRead(), body.getReadNanos());
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private BandwidthLimiter getLimiter() {
+        if (limiter != null)
+            return limiter;
+
+        return FileResource.getUploadService() == null ? null : FileResource.getUploadService().getBandwidthLimiter();
+    }
+
+    private ChunkSizeAdvisor getAdvisor() {
+        if (advisor != null)
+            return advisor;
+
+        return FileResource.getUploadService() == null ? null : FileResource.getUploadService().getChunkSizeAdvisor();
+    }
+
+    private static class ThrottledRequest extends HttpServletRequestWrapper {
+        private final ServletInputStream input;
+
+        ThrottledRequest(HttpServletRequest request, InputStream body, BandwidthLimiter limiter, Long userId)
+                throws IOException {
+            super(request);
+            this.input = new ThrottledServletInputStream(request.getInputStream(), body, limiter, userId);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return input;
+        }
+    }
+
+    /**
+     * Blocking reads of <code>body</code>, which reads <code>request</code>,
+     * paid for in tokens of the user
+     */
+    private static class ThrottledServletInputStream extends ServletInputStream {
+        private final ServletInputStream request;
+        private final InputStream throttled;
+
+        ThrottledServletInputStream(ServletInputStream request, InputStream body, BandwidthLimiter limiter,
+                Long userId) {
+            this.request = request;
+            this.throttled = limiter.throttle(userId, body);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return throttled.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return throttled.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return throttled.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return throttled.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            throttled.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return request.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return request.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            request.setReadListener(readListener);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package br.com.demo.chunkedupload.resource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import br.com.demo.chunkedupload.exception.BadRequestException;
+
+/**
+ * Reads the chunks of a batch upload body. Each chunk is framed by an 8-byte
+ * header, its number and its length as big-endian 32-bit integers, followed by
+ * its content:
+ *
+ * <pre>
+ * [chunkNumber][length][content] [chunkNumber][length][content] ...
+ * </pre>
+ *
+ * The content of each chunk is streamed from the body, not buffered. Whatever
+ * the previous chunk left unread is skipped when moving to the next one.
+ */
+class ChunkBatchReader {
+    private static final int HEADER_LENGTH = 8;
+
+    private final InputStream input;
+    private final byte[] header = new byte[HEADER_LENGTH];
+
+    private int chunkNumber;
+    private int chunkLength;
+    private ChunkInputStream content;
+
+    ChunkBatchReader(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Moves to the next chunk
+     *
+     * @return false when the body has no more chunks
+     * @throws BadRequestException
+     *             if the body ends in the middle of a chunk or its header
+     */
+    boolean next() throws IOException, BadRequestException {
+        if (content != null)
+            content.skipRemaining();
+
+        int first = input.read();
+        if (first == -1) {
+            content = null;
+            return false;
+        }
+
+        header[0] = (byte) first;
+        readHeader();
+
+        chunkNumber = readInt(0);
+        chunkLength = readInt(4);
+
+        if (chunkLength < 0)
+            throw new BadRequestException("Invalid length for chunk " + chunkNumber);
+
+        content = new ChunkInputStream(chunkLength);
+        return true;
+    }
+
+    int getChunkNumber() {
+        return chunkNumber;
+    }
+
+    int getChunkLength() {
+        return chunkLength;
+    }
+
+    /**
+     * @return the content of the current chunk. Closing it does not close the
+     *         body.
+     */
+    InputStream getContent() {
+        return content;
+    }
+
+    private void readHeader() throws IOException, BadRequestException {
+        int position = 1;
+
+        while (position < HEADER_LENGTH) {
+            int read = input.read(header, position, HEADER_LENGTH - position);
+            if (read == -1)
+                throw new BadRequestException("Batch body ends in the middle of a chunk header");
+
+            position += read;
+        }
+    }
+
+    private int readInt(int offset) {
+        return (header[offset] & 0xff) << 24 | (header[offset + 1] & 0xff) << 16 | (header[offset + 2] & 0xff) << 8
+                | header[offset + 3] & 0xff;
+    }
+
+    /**
+     * Content of one chunk. Ends after its length, and fails if the body ends
+     * before that.
+     */
+    private class ChunkInputStream extends InputStream {
+        private long remaining;
+
+        ChunkInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0)
+                return -1;
+
+            int b = input.read();
+            if (b == -1)
+                throw truncated();
+
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0)
+                return -1;
+
+            int read = input.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1)
+                throw truncated();
+
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(input.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        void skipRemaining() throws IOException, BadRequestException {
+            try {
+                while (remaining > 0) {
+                    long skipped = input.skip(remaining);
+
+                    if (skipped <= 0) {
+                        if (input.read() == -1)
+                            throw truncated();
+                        skipped = 1;
+                    }
+
+                    remaining -= skipped;
+                }
+            } catch (EOFException e) {
+                throw new BadRequestException("Batch body ends in the middle of chunk " + chunkNumber);
+            }
+        }
+
+        private EOFException truncated() {
+            return new EOFException("Batch body ends in the middle of chunk " + chunkNumber);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package br.com.demo.chunkedupload.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the body of a chunk while it is received, so that it is only
+ * persisted once complete, and no persisting thread waits on the client.
+ * <p>
+ * The first <code>memoryBytes</code> of the body are kept on the heap. The rest
+ * is spilled to a temporary file as it arrives, which is deleted on
+ * {@link #close()}.
+ */
+class ChunkBuffer implements Closeable {
+    private final long memoryBytes;
+
+    private final List<byte[]> segments = new ArrayList<byte[]>();
+    private long inMemory;
+
+    private Path spillFile;
+    private FileChannel spill;
+
+    private boolean closed;
+
+    ChunkBuffer(long memoryBytes) {
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * Appends <code>length</code> bytes of <code>b</code>, which are copied
+     */
+    synchronized void write(byte[] b, int offset, int length) throws IOException {
+        if (closed)
+            throw new IOException("Chunk buffer is closed");
+
+        if (spill == null && inMemory + length <= memoryBytes) {
+            segments.add(Arrays.copyOfRange(b, offset, offset + length));
+            inMemory += length;
+            return;
+        }
+
+        if (spill == null) {
+            spillFile = Files.createTempFile("chunk-", ".part");
+            spill = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, offset, length);
+        while (buffer.hasRemaining()) {
+            spill.write(buffer);
+        }
+    }
+
+    /**
+     * @return the body written so far. Nothing may be written afterwards.
+     */
+    synchronized InputStream getInputStream() throws IOException {
+        if (closed)
+            throw new IOException("Chunk buffer is closed");
+
+        List<InputStream> parts = new ArrayList<InputStream>();
+        for (byte[] segment : segments) {
+            parts.add(new ByteArrayInputStream(segment));
+        }
+
+        if (spill != null) {
+            spill.close();
+            parts.add(Files.newInputStream(spillFile));
+        }
+
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    /**
+     * Drops the body, deleting its temporary file. Closing again does nothing.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        segments.clear();
+
+        if (spill != null) {
+            spill.close();
+            Files.deleteIfExists(spillFile);
+        }
+    }
+}
@@ -2,12 +2,19 @@ package br.com.demo.chunkedupload.resource;
 
 import static br.com.demo.chunkedupload.model.ApiResponse.ERROR;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -16,18 +23,43 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.sun.jersey.multipart.FormDataParam;
 
+import br.com.demo.chunkedupload.data.CompressingRepository;
+import br.com.demo.chunkedupload.data.ContentAddressedRepository;
+import br.com.demo.chunkedupload.data.FileRepository;
 import br.com.demo.chunkedupload.data.LocalFileSystemRepository;
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.Durability;
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.StorageMode;
+import br.com.demo.chunkedupload.data.MemoryRepository;
+import br.com.demo.chunkedupload.data.OffloadingRepository;
 import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.data.SessionJournal;
+import br.com.demo.chunkedupload.exception.OverloadedException;
 import br.com.demo.chunkedupload.exception.SampleExceptionMapper;
+import br.com.demo.chunkedupload.metrics.Metrics;
+import br.com.demo.chunkedupload.model.BatchUploadResponse;
+import br.com.demo.chunkedupload.model.ByteRange;
+import br.com.demo.chunkedupload.model.ChunkUploadResult;
 import br.com.demo.chunkedupload.model.SessionCreationStatusResponse;
 import br.com.demo.chunkedupload.model.UploadStatusResponse;
+import br.com.demo.chunkedupload.model.UploadsSummaryResponse;
+import br.com.demo.chunkedupload.service.AdmissionController;
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+import br.com.demo.chunkedupload.service.CapacityManager;
+import br.com.demo.chunkedupload.service.ChunkSizeAdvisor;
+import br.com.demo.chunkedupload.service.ExecutionMode;
+import br.com.demo.chunkedupload.service.SessionPage;
 import br.com.demo.chunkedupload.service.UploadService;
+import br.com.demo.chunkedupload.util.Configuration;
+import br.com.demo.chunkedupload.util.Crc32c;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -43,14 +75,128 @@ public class FileResource {
     private static final int STATUS_SESSION_EXPIRED = 410;
     private static final int STATUS_SERVER_BUSY = 202;
     private static final int STATUS_OK = 200;
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
     private static final int STATUS_CREATED = 201;
     private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_CONFLICT = 409;
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int STATUS_FORBIDDEN = 403;
+    private static final int STATUS_INSUFFICIENT_STORAGE = 507;
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Optional CRC32C of a chunk, as 8 hexadecimal digits
+     */
+    static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-CRC32C";
+
+    private static final ObjectMapper JSON = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 
     private static UploadService uploadService;
 
     // TODO: add spring IoC here
     static {
-        uploadService = new UploadService(new LocalFileSystemRepository());
+        String storageMode = Configuration.getString("storage.mode", "chunks");
+        FileRepository storage;
+
+        if (ContentAddressedRepository.MODE.equalsIgnoreCase(storageMode)) {
+            try {
+                final ContentAddressedRepository blocks = new ContentAddressedRepository();
+                Metrics.REGISTRY.gauge("chunkedupload_stored_blocks", "Distinct chunks in content-addressed storage",
+                        () -> blocks.getBlockCount());
+                Metrics.REGISTRY.gauge("chunkedupload_deduplicated_bytes",
+                        "Bytes of chunks that were already stored, and were not written again",
+                        () -> blocks.getDeduplicatedBytes());
+                storage = blocks;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if (MemoryRepository.MODE.equalsIgnoreCase(storageMode)) {
+            storage = new MemoryRepository();
+        } else {
+            storage = new LocalFileSystemRepository(StorageMode.fromString(storageMode),
+                    Durability.fromString(Configuration.getString("durability.mode", "none")));
+        }
+
+        if (Configuration.getBoolean("compression.enabled", false)) {
+            if (StorageMode.fromString(storageMode) == StorageMode.PREALLOCATED)
+                throw new IllegalStateException("Compression needs chunks stored separately, not preallocated");
+
+            final CompressingRepository compressing = new CompressingRepository(storage,
+                    Configuration.getInt("compression.minSavingsPercent", 10));
+            Metrics.REGISTRY.gauge("chunkedupload_compression_received_bytes", "Bytes of chunks before compression",
+                    () -> compressing.getReceivedBytes());
+            Metrics.REGISTRY.gauge("chunkedupload_compression_stored_bytes", "Bytes of chunks after compression",
+                    () -> compressing.getStoredBytes());
+            storage = compressing;
+        }
+
+        if (ExecutionMode.fromString(Configuration.getString("threads.mode", "platform")) == ExecutionMode.VIRTUAL)
+            storage = new OffloadingRepository(storage, Configuration.getInt("io.threads", 64));
+
+        // chunks kept in memory are lost on restart, so their sessions are not journaled
+        if (Configuration.getBoolean("journal.enabled", !MemoryRepository.MODE.equalsIgnoreCase(storageMode))) {
+            try {
+                SessionJournal journal = new SessionJournal(
+                        Configuration.getString("journal.dir", "./files_store/.journal"));
+                uploadService = new UploadService(storage, journal);
+                journal.startCompaction(uploadService::getAllSessions,
+                        Configuration.getLong("journal.compactionIntervalSeconds", 60),
+                        Configuration.getLong("journal.compactionThreshold", 100000));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            uploadService = new UploadService(storage);
+        }
+
+        uploadService.setChunkSizeAdvisor(new ChunkSizeAdvisor(
+                Configuration.getInt("chunk.minSize", ChunkSizeAdvisor.DEFAULT_MIN_CHUNK_SIZE),
+                Configuration.getInt("chunk.maxSize", ChunkSizeAdvisor.DEFAULT_MAX_CHUNK_SIZE),
+                Configuration.getInt("chunk.defaultSize", ChunkSizeAdvisor.DEFAULT_CHUNK_SIZE),
+                Configuration.getInt("chunk.targetSeconds", 2)));
+
+        if (Configuration.getBoolean("admission.enabled", true)) {
+            final AdmissionController admission = new AdmissionController(
+                    Configuration.getInt("admission.maxWrites", 4 * Runtime.getRuntime().availableProcessors()),
+                    Configuration.getLong("admission.maxBytes", 512L * 1024 * 1024),
+                    Configuration.getLong("admission.maxRetryAfterSeconds", 30));
+            Metrics.REGISTRY.gauge("chunkedupload_admitted_writes", "Chunk writes in flight",
+                    () -> admission.getWritesInFlight());
+            Metrics.REGISTRY.gauge("chunkedupload_admitted_bytes", "Bytes of the chunk writes in flight",
+                    () -> admission.getBytesInFlight());
+            uploadService.setAdmissionController(admission);
+        }
+
+        if (Configuration.getBoolean("capacity.enabled", true)) {
+            final CapacityManager capacity = new CapacityManager(storage,
+                    Configuration.getLong("capacity.userQuotaBytes", 0),
+                    Configuration.getLong("capacity.minFreeBytes", 256L * 1024 * 1024));
+            Metrics.REGISTRY.gauge("chunkedupload_reserved_bytes",
+                    "Bytes still to be uploaded by the ongoing sessions, reserved in storage",
+                    () -> capacity.getPendingBytes());
+            uploadService.setCapacityManager(capacity);
+        }
+
+        // always installed, so limits can be set at runtime
+        uploadService.setBandwidthLimiter(
+                new BandwidthLimiter(Configuration.getLong("bandwidth.globalBytesPerSecond", 0),
+                        Configuration.getLong("bandwidth.userBytesPerSecond", 0)));
+
+        Metrics.REGISTRY.gauge("chunkedupload_active_sessions", "Upload sessions still receiving chunks",
+                () -> uploadService.getActiveSessionCount());
+
+        if (Configuration.getBoolean("assembly.enabled", true)) {
+            uploadService.startFileAssembler(Configuration.getInt("assembly.copiers", 4),
+                    Configuration.getLong("assembly.segmentSize", 256L * 1024 * 1024));
+        }
+
+        if (Configuration.getBoolean("expiry.enabled", true)) {
+            uploadService.startExpiryReaper(Configuration.getLong("expiry.tickMillis", 1000),
+                    Configuration.getInt("expiry.reclaimsPerSecond", 20),
+                    Configuration.getLong("expiry.retentionSeconds", 7L * 24 * 60 * 60));
+        }
     }
 
     public FileResource() {
@@ -61,25 +207,41 @@ public class FileResource {
         FileResource.uploadService = uploadService;
     }
 
+    /**
+     * @return the service shared by every upload endpoint
+     */
+    static UploadService getUploadService() {
+        return uploadService;
+    }
+
     @POST
     @Path("/create/{userId}")
     @Produces({ MediaType.APPLICATION_JSON })
-    @ApiOperation(value = "creates an upload session")
+    @ApiOperation(value = "creates an upload session", notes = "The response carries the chunk size the server recommends for this file, from its size and the user's recent throughput. Without a chunk size, the session uses the recommended one. The total size is reserved until the upload concludes, fails or expires.")
     @ApiResponses(value = {
             @ApiResponse(code = STATUS_CREATED, message = "Session created successfully", response = SessionCreationStatusResponse.class),
+            @ApiResponse(code = STATUS_FORBIDDEN, message = "Total size exceeds the upload quota of the user"),
+            @ApiResponse(code = STATUS_INSUFFICIENT_STORAGE, message = "Not enough storage space for the file, or the session could not be stored"),
             @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
     public Response startSession(@ApiParam(value = "ID of user", required = true) @PathParam("userId") Long userId,
-                                 @ApiParam(value = "Chunk size in bytes", required = true) @FormParam("chunkSize") int chunkSize,
+                                 @ApiParam(value = "Chunk size in bytes, the recommended one if missing") @FormParam("chunkSize") Integer chunkSize,
                                  @ApiParam(value = "Total file size in bytes", required = true) @FormParam("totalSize") Long totalSize,
                                  @ApiParam(value = "File name") @FormParam("fileName") String fileName) {
         try {
-            Session session = uploadService.createSession(userId, fileName, chunkSize, totalSize);
+            int recommendedChunkSize = totalSize == null ? 0 : uploadService.recommendChunkSize(userId, totalSize);
+
+            Session session = uploadService.createSession(userId, fileName,
+                    chunkSize == null ? recommendedChunkSize : chunkSize, totalSize);
 
             // LOG.debug(String.format("Session started for user {0} and file
             // {1}. Session id: {2}", userId, fileName,
             // session.getId()));
 
-            return Response.status(STATUS_CREATED).entity(SessionCreationStatusResponse.fromSession(session)).build();
+            SessionCreationStatusResponse created = SessionCreationStatusResponse.fromSession(session);
+            created.setRecommendedChunkSize(recommendedChunkSize);
+            created.setMaxChunkSize(uploadService.getMaxChunkSize());
+
+            return Response.status(STATUS_CREATED).entity(created).build();
         } catch (Exception e) {
             return new SampleExceptionMapper().toResponse(e);
         }
@@ -94,16 +256,21 @@ public class FileResource {
     @Path("/upload/user/{userId}/session/{sessionId}/")
     @Consumes({ MediaType.MULTIPART_FORM_DATA })
     @Produces({ MediaType.APPLICATION_JSON })
-    @ApiOperation(value = "uploads a file chunk")
+    @ApiOperation(value = "uploads a file chunk", notes = "A chunk that was already persisted is acknowledged without being written again. With its checksum, its body is not even read. The body is read within the bandwidth limits of the user.")
     @ApiResponses(value = {
             @ApiResponse(code = STATUS_OK, message = "Chunk uploaded successfully", response = UploadStatusResponse.class),
-            @ApiResponse(code = STATUS_SERVER_BUSY, message = "Server busy during that particular upload. Try again."),
+            @ApiResponse(code = STATUS_SERVER_BUSY, message = "Server busy during that particular upload. Try again after the Retry-After header."),
+            @ApiResponse(code = STATUS_BAD_REQUEST, message = "Invalid chunk, or content not matching its checksum"),
+            @ApiResponse(code = STATUS_CONFLICT, message = "Chunk already persisted with other content"),
+            @ApiResponse(code = STATUS_TOO_MANY_REQUESTS, message = "Too many chunks of this user in flight. Try again after the Retry-After header."),
             @ApiResponse(code = STATUS_SESSION_EXPIRED, message = "Session expired"),
             @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
     public Response uploadFileChunk(@ApiParam(value = "ID of user", required = true) @PathParam("userId") Long userId,
                                     @ApiParam(value = "Session id", required = true) @PathParam("sessionId") String sessionId,
                                     @ApiParam(value = "Chunk number (starts from 1)", required = true) @QueryParam("chunkNumber") int chunkNumber,
+                                    @ApiParam(value = "CRC32C of the chunk, as 8 hexadecimal digits") @HeaderParam(CHUNK_CHECKSUM_HEADER) String checksum,
                                     @ApiParam(value = "file content to upload") @FormDataParam("file") InputStream inputStream) {
+        long started = System.nanoTime();
         try {
 
             if (userId == null)
@@ -115,12 +282,101 @@ public class FileResource {
             if (chunkNumber < 1)
                 return badRequest("Invalid chunk number");
 
-            uploadService.persistBlock(sessionId, userId, chunkNumber, IOUtils.toByteArray(inputStream));
+            Long expectedChecksum;
+            try {
+                expectedChecksum = checksum == null ? null : Crc32c.parse(checksum);
+            } catch (NumberFormatException e) {
+                return badRequest("Invalid chunk checksum");
+            }
+
+            // Jersey has received the multipart body by now, so the permit only covers the write
+            try (AdmissionController.Permit permit = uploadService.admit(sessionId, userId, chunkNumber)) {
+                uploadService.persistBlock(sessionId, userId, chunkNumber, inputStream, expectedChecksum);
+            }
 
             return Response.status(STATUS_OK).build();
         } catch (Exception e) {
 
             return new SampleExceptionMapper().toResponse(e);
+        } finally {
+            Metrics.CHUNK_UPLOAD.record(System.nanoTime() - started);
+        }
+    }
+
+    @PUT
+    @Path("/upload/user/{userId}/session/{sessionId}/batch")
+    @Consumes({ MediaType.APPLICATION_OCTET_STREAM })
+    @Produces({ MediaType.APPLICATION_JSON })
+    @ApiOperation(value = "uploads several chunks of a session in one request", notes = "Each chunk is sent as its number and its length, as big-endian 32-bit integers, followed by its content. Chunks are persisted as they are read; one failing does not stop the others.")
+    @ApiResponses(value = {
+            @ApiResponse(code = STATUS_OK, message = "Batch processed, see the result of each chunk", response = BatchUploadResponse.class),
+            @ApiResponse(code = STATUS_BAD_REQUEST, message = "Malformed batch body"),
+            @ApiResponse(code = STATUS_NOT_FOUND, message = "Session not found"),
+            @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
+    public Response uploadFileChunks(@ApiParam(value = "ID of user", required = true) @PathParam("userId") Long userId,
+                                     @ApiParam(value = "Session id", required = true) @PathParam("sessionId") String sessionId,
+                                     @ApiParam(value = "framed chunks to upload") InputStream inputStream) {
+        long started = System.nanoTime();
+        try {
+            if (userId == null)
+                return badRequest("User missing");
+
+            Session session = uploadService.getSession(sessionId);
+
+            if (session == null)
+                return Response.status(STATUS_NOT_FOUND).build();
+
+            int chunkSize = session.getFileInfo().getChunkSize();
+            int totalNumberOfChunks = session.getFileInfo().getTotalNumberOfChunks();
+            BatchUploadResponse results = new BatchUploadResponse(sessionId);
+            ChunkBatchReader batch = new ChunkBatchReader(inputStream);
+            Long retryAfterSeconds = null;
+
+            // a body cut in the middle of a frame ends the batch with a 400;
+            // the chunks before it stay persisted, and re-sending them is safe
+            while (batch.next()) {
+                int chunkNumber = batch.getChunkNumber();
+
+                if (chunkNumber < 1 || chunkNumber > totalNumberOfChunks) {
+                    results.add(ChunkUploadResult.failed(chunkNumber, STATUS_BAD_REQUEST, "Invalid chunk number"));
+                } else if (batch.getChunkLength() > chunkSize) {
+                    results.add(ChunkUploadResult.failed(chunkNumber, STATUS_BAD_REQUEST,
+                            "Chunk is larger than expected"));
+                } else {
+                    ChunkUploadResult result = persistChunk(sessionId, userId, chunkNumber, batch.getContent());
+                    results.add(result);
+
+                    if (result.getRetryAfterSeconds() != null)
+                        retryAfterSeconds = Math.max(result.getRetryAfterSeconds(),
+                                retryAfterSeconds == null ? 0 : retryAfterSeconds);
+                }
+            }
+
+            Response.ResponseBuilder response = Response.status(STATUS_OK).entity(results);
+            // the longest wait, for clients that re-send the failed chunks together
+            if (retryAfterSeconds != null)
+                response.header("Retry-After", retryAfterSeconds);
+
+            return response.build();
+        } catch (Exception e) {
+            return new SampleExceptionMapper().toResponse(e);
+        } finally {
+            Metrics.BATCH_UPLOAD.record(System.nanoTime() - started);
+        }
+    }
+
+    private ChunkUploadResult persistChunk(String sessionId, Long userId, int chunkNumber, InputStream content) {
+        try (AdmissionController.Permit permit = uploadService.admit(sessionId, userId, chunkNumber)) {
+            uploadService.persistBlock(sessionId, userId, chunkNumber, content);
+            return ChunkUploadResult.persisted(chunkNumber);
+        } catch (OverloadedException e) {
+            Metrics.FAILURES.increment(e.getClass().getSimpleName());
+            return ChunkUploadResult.rejected(chunkNumber, e.getStatus(), e.getMessage(), e.getRetryAfterSeconds());
+        } catch (Exception e) {
+            Response failure = new SampleExceptionMapper().toResponse(e);
+            String message = ((br.com.demo.chunkedupload.model.ApiResponse) failure.getEntity()).getMessage();
+
+            return ChunkUploadResult.failed(chunkNumber, failure.getStatus(), message);
         }
     }
 
@@ -152,26 +408,131 @@ public class FileResource {
     @Produces({ MediaType.APPLICATION_JSON })
     @ApiResponses(value = {
             @ApiResponse(code = STATUS_OK, message = "OK", response = UploadStatusResponse.class, responseContainer = "List"),
+            @ApiResponse(code = STATUS_BAD_REQUEST, message = "Invalid cursor, limit or filter"),
             @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
-    @ApiOperation(value = "gets the status of upload sessions", response = UploadStatusResponse.class, responseContainer = "List")
-    public Response listUploadsStatus() {
+    @ApiOperation(value = "gets the status of upload sessions, one page at a time", notes = "Sessions are listed in creation order. When there may be more, the cursor of the next page is returned in the X-Next-Cursor header.", response = UploadStatusResponse.class, responseContainer = "List")
+    public Response listUploadsStatus(@ApiParam(value = "Cursor returned with the previous page") @QueryParam("cursor") String cursor,
+                                      @ApiParam(value = "Maximum number of sessions, up to 1000") @QueryParam("limit") @DefaultValue("100") int limit,
+                                      @ApiParam(value = "Only sessions of this user") @QueryParam("user") Long user,
+                                      @ApiParam(value = "Only sessions with this status", allowableValues = "ongoing,done,failed") @QueryParam("status") String status,
+                                      @ApiParam(value = "Only sessions created after this date, e.g. 2018-01-31T23:59:59") @QueryParam("createdAfter") String createdAfter) {
+        return listSessions(cursor, limit, user, status, createdAfter);
+    }
+
+    @GET
+    @Path("/uploads/user/{userId}")
+    @Produces({ MediaType.APPLICATION_JSON })
+    @ApiResponses(value = {
+            @ApiResponse(code = STATUS_OK, message = "OK", response = UploadStatusResponse.class, responseContainer = "List"),
+            @ApiResponse(code = STATUS_BAD_REQUEST, message = "Invalid cursor, limit or filter"),
+            @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
+    @ApiOperation(value = "gets the status of the upload sessions of a user, one page at a time", notes = "Walks the sessions of the user only. Paginated like /uploads.", response = UploadStatusResponse.class, responseContainer = "List")
+    public Response listUserUploadsStatus(@ApiParam(value = "ID of user", required = true) @PathParam("userId") Long userId,
+                                          @ApiParam(value = "Cursor returned with the previous page") @QueryParam("cursor") String cursor,
+                                          @ApiParam(value = "Maximum number of sessions, up to 1000") @QueryParam("limit") @DefaultValue("100") int limit,
+                                          @ApiParam(value = "Only sessions with this status", allowableValues = "ongoing,done,failed") @QueryParam("status") String status,
+                                          @ApiParam(value = "Only sessions created after this date, e.g. 2018-01-31T23:59:59") @QueryParam("createdAfter") String createdAfter) {
+        if (userId == null)
+            return badRequest("User missing");
+
+        return listSessions(cursor, limit, userId, status, createdAfter);
+    }
+
+    @GET
+    @Path("/uploads/summary")
+    @Produces({ MediaType.APPLICATION_JSON })
+    @ApiResponses(value = { @ApiResponse(code = STATUS_OK, message = "OK", response = UploadsSummaryResponse.class),
+            @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
+    @ApiOperation(value = "counts upload sessions by status", response = UploadsSummaryResponse.class)
+    public Response getUploadsSummary() {
+        try {
+            return Response.status(STATUS_OK)
+                    .entity(UploadsSummaryResponse.fromCounts(null, uploadService.countSessionsByStatus(null))).build();
+        } catch (Exception e) {
+            return new SampleExceptionMapper().toResponse(e);
+        }
+    }
+
+    @GET
+    @Path("/uploads/user/{userId}/summary")
+    @Produces({ MediaType.APPLICATION_JSON })
+    @ApiResponses(value = { @ApiResponse(code = STATUS_OK, message = "OK", response = UploadsSummaryResponse.class),
+            @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
+    @ApiOperation(value = "counts the upload sessions of a user by status", response = UploadsSummaryResponse.class)
+    public Response getUserUploadsSummary(@ApiParam(value = "ID of user", required = true) @PathParam("userId") Long userId) {
+        try {
+            if (userId == null)
+                return badRequest("User missing");
+
+            return Response.status(STATUS_OK)
+                    .entity(UploadsSummaryResponse.fromCounts(userId, uploadService.countSessionsByStatus(userId)))
+                    .build();
+        } catch (Exception e) {
+            return new SampleExceptionMapper().toResponse(e);
+        }
+    }
+
+    private Response listSessions(String cursor, int limit, Long user, String status, String createdAfter) {
         try {
-            List<UploadStatusResponse> sessions = UploadStatusResponse.fromSessionList(uploadService.getAllSessions());
-            return Response.status(STATUS_OK).entity(sessions).build();
+            LocalDateTime after;
+            try {
+                after = StringUtils.isEmpty(createdAfter) ? null : LocalDateTime.parse(createdAfter);
+            } catch (DateTimeParseException e) {
+                return badRequest("Invalid date: " + createdAfter);
+            }
+
+            SessionPage page = uploadService.findSessions(StringUtils.trimToNull(cursor), limit, user,
+                    StringUtils.trimToNull(status), after);
+
+            Response.ResponseBuilder response = Response.status(STATUS_OK).entity(toJsonArray(page.getSessions()))
+                    .type(MediaType.APPLICATION_JSON);
+
+            if (page.getNextCursor() != null)
+                response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+
+            return response.build();
         } catch (Exception e) {
             return new SampleExceptionMapper().toResponse(e);
         }
     }
 
+    /**
+     * Writes the status of each session as it goes, instead of building them
+     * all before serializing
+     */
+    private static StreamingOutput toJsonArray(final List<Session> sessions) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                JsonGenerator json = JSON.getFactory().createGenerator(output);
+
+                json.writeStartArray();
+                for (Session session : sessions) {
+                    JSON.writeValue(json, UploadStatusResponse.fromSession(session));
+                }
+                json.writeEndArray();
+
+                json.flush();
+            }
+        };
+    }
+
+    public Response downloadFile(String sessionId) {
+        return downloadFile(sessionId, null);
+    }
+
     @GET
     @Path("/download/{sessionId}")
     @Produces(MediaType.MULTIPART_FORM_DATA)
     @ApiResponses(value = { @ApiResponse(code = STATUS_OK, message = "OK"),
+            @ApiResponse(code = STATUS_PARTIAL_CONTENT, message = "Partial content"),
             @ApiResponse(code = STATUS_NOT_FOUND, message = "Not found"),
+            @ApiResponse(code = STATUS_RANGE_NOT_SATISFIABLE, message = "Requested range not satisfiable"),
             @ApiResponse(code = STATUS_SERVER_ERROR, message = "Internal server error") })
     @ApiOperation(value = "downloads a previously uploaded file")
     public Response downloadFile(
-                                 @ApiParam(value = "Session ID", required = true) @PathParam("sessionId") String sessionId) {
+                                 @ApiParam(value = "Session ID", required = true) @PathParam("sessionId") String sessionId,
+                                 @ApiParam(value = "Byte ranges to download, e.g. bytes=0-1023") @HeaderParam("Range") String range) {
 
         try {
             final Session session = uploadService.getSession(sessionId);
@@ -180,10 +541,40 @@ public class FileResource {
                 return Response.status(STATUS_NOT_FOUND).build();
             }
 
-            return Response.ok(uploadService.getContentStream(session), MediaType.MULTIPART_FORM_DATA)
-                    .header("Content-Length", session.getFileInfo().getFileSize()).header("Content-Disposition",
-                            "attachment; filename=\"" + session.getFileInfo().getFileName() + "\"")
-                    .build();
+            long fileSize = session.getFileInfo().getFileSize();
+            String contentDisposition = "attachment; filename=\"" + session.getFileInfo().getFileName() + "\"";
+            List<ByteRange> ranges = ByteRange.parse(range, fileSize);
+
+            if (ranges == null) {
+                return Response.ok(uploadService.getContentStream(session), MediaType.MULTIPART_FORM_DATA)
+                        .header("Content-Length", fileSize).header("Content-Disposition", contentDisposition)
+                        .header("Accept-Ranges", "bytes").build();
+            }
+
+            if (ranges.isEmpty()) {
+                return Response.status(STATUS_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + fileSize)
+                        .build();
+            }
+
+            if (ranges.size() == 1) {
+                ByteRange single = ranges.get(0);
+
+                return Response.status(STATUS_PARTIAL_CONTENT)
+                        .entity(uploadService.getContentStream(session, single))
+                        .type(MediaType.MULTIPART_FORM_DATA).header("Content-Length", single.getLength())
+                        .header("Content-Range", single.toContentRange(fileSize))
+                        .header("Content-Disposition", contentDisposition).header("Accept-Ranges", "bytes").build();
+            }
+
+            MultipartByteRangesOutput multipart = new MultipartByteRangesOutput(MediaType.APPLICATION_OCTET_STREAM,
+                    fileSize);
+            for (ByteRange part : ranges) {
+                multipart.addPart(part, uploadService.getContentStream(session, part));
+            }
+
+            return Response.status(STATUS_PARTIAL_CONTENT).entity(multipart).type(multipart.getContentType())
+                    .header("Content-Length", multipart.getContentLength())
+                    .header("Content-Disposition", contentDisposition).header("Accept-Ranges", "bytes").build();
         } catch (Exception e) {
             return new SampleExceptionMapper().toResponse(e);
         }
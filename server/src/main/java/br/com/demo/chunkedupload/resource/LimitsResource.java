@@ -0,0 +1,148 @@
+package br.com.demo.chunkedupload.resource;
+
+import static br.com.demo.chunkedupload.model.ApiResponse.ERROR;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import br.com.demo.chunkedupload.model.ApiResponse;
+import br.com.demo.chunkedupload.model.BandwidthLimitsResponse;
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponses;
+
+/**
+ * Reads and changes the upload bandwidth limits of the running server
+ */
+@Path("/limits")
+@Api(value = "/limits", tags = "limits")
+@Produces({ MediaType.APPLICATION_JSON })
+public class LimitsResource {
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_NOT_FOUND = 404;
+
+    private BandwidthLimiter limiter;
+
+    public LimitsResource() {
+
+    }
+
+    LimitsResource(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @GET
+    @ApiOperation(value = "gets the upload bandwidth limits, in bytes per second", notes = "0 means no limit", response = BandwidthLimitsResponse.class)
+    @ApiResponses(value = {
+            @io.swagger.annotations.ApiResponse(code = STATUS_OK, message = "OK", response = BandwidthLimitsResponse.class),
+            @io.swagger.annotations.ApiResponse(code = STATUS_NOT_FOUND, message = "Bandwidth is not limited on this server") })
+    public Response getLimits() {
+        BandwidthLimiter limiter = getLimiter();
+        if (limiter == null)
+            return notLimited();
+
+        return Response.status(STATUS_OK).entity(BandwidthLimitsResponse.fromLimiter(limiter)).build();
+    }
+
+    @PUT
+    @Path("/global")
+    @ApiOperation(value = "sets the upload bandwidth of all users together", response = BandwidthLimitsResponse.class)
+    @ApiResponses(value = {
+            @io.swagger.annotations.ApiResponse(code = STATUS_OK, message = "Limit changed", response = BandwidthLimitsResponse.class),
+            @io.swagger.annotations.ApiResponse(code = STATUS_BAD_REQUEST, message = "Invalid limit"),
+            @io.swagger.annotations.ApiResponse(code = STATUS_NOT_FOUND, message = "Bandwidth is not limited on this server") })
+    public Response setGlobalLimit(@ApiParam(value = "Bytes per second, 0 for no limit", required = true) @FormParam("bytesPerSecond") Long bytesPerSecond) {
+        BandwidthLimiter limiter = getLimiter();
+        if (limiter == null)
+            return notLimited();
+
+        if (bytesPerSecond == null || bytesPerSecond < 0)
+            return invalidLimit();
+
+        limiter.setGlobalRate(bytesPerSecond);
+        return getLimits();
+    }
+
+    @PUT
+    @Path("/user")
+    @ApiOperation(value = "sets the upload bandwidth of each user without a limit of their own", response = BandwidthLimitsResponse.class)
+    @ApiResponses(value = {
+            @io.swagger.annotations.ApiResponse(code = STATUS_OK, message = "Limit changed", response = BandwidthLimitsResponse.class),
+            @io.swagger.annotations.ApiResponse(code = STATUS_BAD_REQUEST, message = "Invalid limit"),
+            @io.swagger.annotations.ApiResponse(code = STATUS_NOT_FOUND, message = "Bandwidth is not limited on this server") })
+    public Response setDefaultUserLimit(@ApiParam(value = "Bytes per second, 0 for no limit", required = true) @FormParam("bytesPerSecond") Long bytesPerSecond) {
+        BandwidthLimiter limiter = getLimiter();
+        if (limiter == null)
+            return notLimited();
+
+        if (bytesPerSecond == null || bytesPerSecond < 0)
+            return invalidLimit();
+
+        limiter.setDefaultUserRate(bytesPerSecond);
+        return getLimits();
+    }
+
+    @PUT
+    @Path("/user/{userId}")
+    @ApiOperation(value = "gives a user an upload bandwidth of their own", response = BandwidthLimitsResponse.class)
+    @ApiResponses(value = {
+            @io.swagger.annotations.ApiResponse(code = STATUS_OK, message = "Limit changed", response = BandwidthLimitsResponse.class),
+            @io.swagger.annotations.ApiResponse(code = STATUS_BAD_REQUEST, message = "Invalid limit"),
+            @io.swagger.annotations.ApiResponse(code = STATUS_NOT_FOUND, message = "Bandwidth is not limited on this server") })
+    public Response setUserLimit(@ApiParam(value = "ID of user", required = true) @PathParam("userId") Long userId,
+                                 @ApiParam(value = "Bytes per second, 0 for no limit", required = true) @FormParam("bytesPerSecond") Long bytesPerSecond) {
+        BandwidthLimiter limiter = getLimiter();
+        if (limiter == null)
+            return notLimited();
+
+        if (userId == null || bytesPerSecond == null || bytesPerSecond < 0)
+            return invalidLimit();
+
+        limiter.setUserRate(userId, bytesPerSecond);
+        return getLimits();
+    }
+
+    @DELETE
+    @Path("/user/{userId}")
+    @ApiOperation(value = "puts a user back on the default upload bandwidth", response = BandwidthLimitsResponse.class)
+    @ApiResponses(value = {
+            @io.swagger.annotations.ApiResponse(code = STATUS_OK, message = "Limit removed", response = BandwidthLimitsResponse.class),
+            @io.swagger.annotations.ApiResponse(code = STATUS_NOT_FOUND, message = "Bandwidth is not limited on this server") })
+    public Response resetUserLimit(@ApiParam(value = "ID of user", required = true) @PathParam("userId") Long userId) {
+        BandwidthLimiter limiter = getLimiter();
+        if (limiter == null)
+            return notLimited();
+
+        if (userId == null)
+            return invalidLimit();
+
+        limiter.resetUserRate(userId);
+        return getLimits();
+    }
+
+    private BandwidthLimiter getLimiter() {
+        if (limiter != null)
+            return limiter;
+
+        return FileResource.getUploadService() == null ? null : FileResource.getUploadService().getBandwidthLimiter();
+    }
+
+    private static Response notLimited() {
+        return Response.status(STATUS_NOT_FOUND).entity(new ApiResponse(ERROR, "Bandwidth is not limited on this server"))
+                .build();
+    }
+
+    private static Response invalidLimit() {
+        return Response.status(STATUS_BAD_REQUEST).entity(new ApiResponse(ERROR, "Invalid limit")).build();
+    }
+}
@@ -0,0 +1,24 @@
+package br.com.demo.chunkedupload.resource;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import br.com.demo.chunkedupload.metrics.Metrics;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+@Path("/metrics")
+@Api(value = "/metrics", tags = "metrics")
+public class MetricsResource {
+    /** Content type of the Prometheus text exposition format */
+    static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    @ApiOperation(value = "gets the server metrics, in the Prometheus text format")
+    public Response getMetrics() {
+        return Response.ok(Metrics.REGISTRY.toPrometheusText(), PROMETHEUS_TEXT).build();
+    }
+}
@@ -0,0 +1,71 @@
+package br.com.demo.chunkedupload.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import br.com.demo.chunkedupload.model.ByteRange;
+
+/**
+ * Body of a <code>multipart/byteranges</code> response (RFC 7233, appendix A),
+ * with one part per requested range
+ */
+class MultipartByteRangesOutput implements StreamingOutput {
+    private final String boundary = UUID.randomUUID().toString();
+
+    private final String partContentType;
+    private final long fileSize;
+
+    private final List<ByteRange> ranges = new ArrayList<ByteRange>();
+    private final List<StreamingOutput> contents = new ArrayList<StreamingOutput>();
+
+    MultipartByteRangesOutput(String partContentType, long fileSize) {
+        this.partContentType = partContentType;
+        this.fileSize = fileSize;
+    }
+
+    void addPart(ByteRange range, StreamingOutput content) {
+        ranges.add(range);
+        contents.add(content);
+    }
+
+    String getContentType() {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    long getContentLength() {
+        long length = closingDelimiter().length;
+
+        for (ByteRange range : ranges) {
+            length += partHeader(range).length + range.getLength();
+        }
+
+        return length;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException, WebApplicationException {
+        for (int i = 0; i < ranges.size(); i++) {
+            out.write(partHeader(ranges.get(i)));
+            contents.get(i).write(out);
+        }
+
+        out.write(closingDelimiter());
+        out.flush();
+    }
+
+    private byte[] partHeader(ByteRange range) {
+        return String.format("\r\n--%s\r\nContent-Type: %s\r\nContent-Range: %s\r\n\r\n", boundary, partContentType,
+                range.toContentRange(fileSize)).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private byte[] closingDelimiter() {
+        return String.format("\r\n--%s--\r\n", boundary).getBytes(StandardCharsets.US_ASCII);
+    }
+}
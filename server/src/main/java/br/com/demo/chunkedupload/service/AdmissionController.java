@@ -0,0 +1,231 @@
+package br.com.demo.chunkedupload.service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import br.com.demo.chunkedupload.exception.OverloadedException;
+import br.com.demo.chunkedupload.metrics.Metrics;
+
+/**
+ * Decides whether a received chunk may start writing.
+ * <p>
+ * At most <code>maxWrites</code> chunks are written at once, holding at most
+ * <code>maxBytes</code> between them. A single chunk larger than that is only
+ * let in when nothing else is in flight. Requests beyond the limits are
+ * turned down at once with a {@link OverloadedException#SERVER_BUSY}, rather
+ * than queued behind the disk.
+ * <p>
+ * Users who were turned down recently are contending for the server. While
+ * there are contenders, or the server is full, a user holding more than an
+ * even split of the writes between the users in flight and the contenders
+ * gets a {@link OverloadedException#TOO_MANY_REQUESTS}. So a user alone can
+ * use the whole server, but has to make room as soon as others are waiting.
+ * <p>
+ * Retry-After is the time the work ahead of the request should take to
+ * drain, estimated from the average duration of the recent writes.
+ */
+public class AdmissionController {
+    static final String REASON_SERVER_BUSY = "server_busy";
+    static final String REASON_FAIR_SHARE = "fair_share";
+
+    /**
+     * Weight of the latest write in the average write duration
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * Assumed duration of a write, until one completes
+     */
+    private static final long INITIAL_WRITE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxWrites;
+    private final long maxBytes;
+    private final long maxRetryAfterSeconds;
+
+    /**
+     * How long a user turned down keeps counting as a contender, long enough
+     * for them to come back after the longest Retry-After
+     */
+    private final long contentionNanos;
+
+    // guarded by this
+    private int writes;
+    private long bytes;
+    private final Map<Long, Integer> writesByUser = new HashMap<Long, Integer>();
+
+    /**
+     * Deadline of each contender, in the order they were turned down. Users
+     * with writes in flight are not contenders, so the two never overlap.
+     */
+    private final LinkedHashMap<Long, Long> contenders = new LinkedHashMap<Long, Long>();
+
+    private double averageWriteNanos = INITIAL_WRITE_NANOS;
+
+    /**
+     * @param maxWrites
+     *            chunks written at once
+     * @param maxBytes
+     *            bytes of the chunks written at once
+     * @param maxRetryAfterSeconds
+     *            longest Retry-After sent to clients
+     */
+    public AdmissionController(int maxWrites, long maxBytes, long maxRetryAfterSeconds) {
+        if (maxWrites < 1 || maxBytes < 1 || maxRetryAfterSeconds < 1)
+            throw new IllegalArgumentException("Admission limits must be positive");
+
+        this.maxWrites = maxWrites;
+        this.maxBytes = maxBytes;
+        this.maxRetryAfterSeconds = maxRetryAfterSeconds;
+        this.contentionNanos = TimeUnit.SECONDS.toNanos(maxRetryAfterSeconds + 1);
+    }
+
+    /**
+     * @param user
+     * @param length
+     *            bytes of the chunk about to be written
+     * @return the permit to close once the chunk is written, or failed
+     * @throws OverloadedException
+     *             if the chunk cannot be written now
+     */
+    public synchronized Permit admit(Long user, long length) throws OverloadedException {
+        long now = System.nanoTime();
+        expireContenders(now);
+
+        int userWrites = writesByUser.getOrDefault(user, 0);
+        boolean full = writes >= maxWrites || (writes > 0 && bytes + length > maxBytes);
+
+        if (full || hasOtherContenders(user)) {
+            int fairShare = getFairShare(user, userWrites);
+
+            if (userWrites >= fairShare)
+                throw reject(OverloadedException.TOO_MANY_REQUESTS, REASON_FAIR_SHARE,
+                        "Too many chunks of this user in flight. Try again.", (double) userWrites / fairShare);
+        }
+
+        if (full) {
+            if (userWrites == 0)
+                contend(user, now);
+
+            throw reject(OverloadedException.SERVER_BUSY, REASON_SERVER_BUSY, "Server busy. Try again.",
+                    Math.max((double) writes / maxWrites, (double) bytes / maxBytes));
+        }
+
+        contenders.remove(user);
+        writes++;
+        bytes += length;
+        writesByUser.put(user, userWrites + 1);
+
+        return new Permit(this, user, length, now);
+    }
+
+    /**
+     * @return chunks being written
+     */
+    public synchronized int getWritesInFlight() {
+        return writes;
+    }
+
+    /**
+     * @return bytes of the chunks being written
+     */
+    public synchronized long getBytesInFlight() {
+        return bytes;
+    }
+
+    private synchronized void release(Permit permit) {
+        writes--;
+        bytes -= permit.length;
+
+        int userWrites = writesByUser.get(permit.user);
+        if (userWrites <= 1)
+            writesByUser.remove(permit.user);
+        else
+            writesByUser.put(permit.user, userWrites - 1);
+
+        averageWriteNanos += SMOOTHING * ((System.nanoTime() - permit.admitted) - averageWriteNanos);
+    }
+
+    /**
+     * @return how many writes <code>user</code> may hold, out of an even split
+     *         between the users in flight and the contenders
+     */
+    private int getFairShare(Long user, int userWrites) {
+        int users = writesByUser.size() + contenders.size();
+
+        if (userWrites == 0 && !contenders.containsKey(user))
+            users++;
+
+        return Math.max(1, maxWrites / users);
+    }
+
+    private boolean hasOtherContenders(Long user) {
+        return contenders.size() > (contenders.containsKey(user) ? 1 : 0);
+    }
+
+    private void contend(Long user, long now) {
+        // re-inserted, so the map stays sorted by deadline
+        contenders.remove(user);
+        contenders.put(user, now + contentionNanos);
+    }
+
+    private void expireContenders(long now) {
+        Iterator<Long> deadlines = contenders.values().iterator();
+
+        while (deadlines.hasNext() && deadlines.next() - now < 0) {
+            deadlines.remove();
+        }
+    }
+
+    /**
+     * @param backlog
+     *            work ahead of the request, in average writes
+     */
+    private OverloadedException reject(int status, String reason, String message, double backlog) {
+        Metrics.ADMISSION_REJECTIONS.increment(reason);
+
+        long seconds = (long) Math.ceil(averageWriteNanos * backlog / TimeUnit.SECONDS.toNanos(1));
+        return new OverloadedException(status, message, Math.min(maxRetryAfterSeconds, Math.max(1, seconds)));
+    }
+
+    /**
+     * Room for one chunk write, given back on {@link #close()}
+     */
+    public static class Permit implements AutoCloseable {
+        /**
+         * Permit of a server without admission control
+         */
+        public static final Permit UNLIMITED = new Permit(null, null, 0, 0);
+
+        private final AdmissionController controller;
+        private final Long user;
+        private final long length;
+        private final long admitted;
+
+        private boolean closed;
+
+        private Permit(AdmissionController controller, Long user, long length, long admitted) {
+            this.controller = controller;
+            this.user = user;
+            this.length = length;
+            this.admitted = admitted;
+        }
+
+        /**
+         * Gives the room back. Closing a permit again does nothing.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed || controller == null)
+                    return;
+
+                closed = true;
+            }
+
+            controller.release(this);
+        }
+    }
+}
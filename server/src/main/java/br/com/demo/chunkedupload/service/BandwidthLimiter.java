@@ -0,0 +1,234 @@
+package br.com.demo.chunkedupload.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import br.com.demo.chunkedupload.util.TokenBucket;
+
+/**
+ * Limits how fast chunk bodies are read, per user and overall.
+ * <p>
+ * Each user has a token bucket, refilled at their own rate or at the default
+ * user rate, and all of them share a global bucket. A throttled body takes
+ * tokens from both as it is read, and sleeps off whichever debt is longer
+ * before the next read. The socket is not read meanwhile, so TCP flow control
+ * slows the client down too. Bursts of up to {@link #BURST_SECONDS} of
+ * traffic go through at full speed.
+ * <p>
+ * A rate of 0 means no limit. Rates can be changed at any time, and apply to
+ * the bodies being read from their next read on.
+ */
+public class BandwidthLimiter {
+    static final int BURST_SECONDS = 1;
+
+    /**
+     * Largest read between two throttling decisions, so a large read buffer
+     * cannot pull in more than a burst at once
+     */
+    static final int MAX_READ = 64 * 1024;
+
+    private static final int MAX_TRACKED_USERS = 100000;
+
+    private final TokenBucket global;
+
+    private volatile long defaultUserRate;
+
+    private final ConcurrentMap<Long, Long> userRates = new ConcurrentHashMap<Long, Long>();
+
+    private final ConcurrentMap<Long, TokenBucket> buckets = new ConcurrentHashMap<Long, TokenBucket>();
+
+    /**
+     * @param globalRate
+     *            bytes per second read from all users together
+     * @param defaultUserRate
+     *            bytes per second read from a user without a rate of their own
+     */
+    public BandwidthLimiter(long globalRate, long defaultUserRate) {
+        this.global = new TokenBucket(globalRate, burstOf(globalRate));
+        this.defaultUserRate = checkRate(defaultUserRate);
+    }
+
+    /**
+     * @return <code>input</code>, read no faster than the limits of
+     *         <code>user</code> allow
+     */
+    public InputStream throttle(Long user, InputStream input) {
+        return new ThrottledInputStream(input, bucketOf(user));
+    }
+
+    /**
+     * Pays for <code>bytes</code> read from a body of <code>user</code>, for
+     * readers that must not sleep
+     *
+     * @return nanoseconds to wait before reading more, 0 if none
+     */
+    public long reserve(Long user, long bytes) {
+        return reserve(bucketOf(user), bytes);
+    }
+
+    private long reserve(TokenBucket user, long bytes) {
+        return Math.max(user.reserve(bytes), global.reserve(bytes));
+    }
+
+    public long getGlobalRate() {
+        return global.getRate();
+    }
+
+    public void setGlobalRate(long rate) {
+        global.setRate(checkRate(rate), burstOf(rate));
+    }
+
+    public long getDefaultUserRate() {
+        return defaultUserRate;
+    }
+
+    public void setDefaultUserRate(long rate) {
+        defaultUserRate = checkRate(rate);
+
+        for (Map.Entry<Long, TokenBucket> bucket : buckets.entrySet()) {
+            if (!userRates.containsKey(bucket.getKey()))
+                bucket.getValue().setRate(rate, burstOf(rate));
+        }
+    }
+
+    /**
+     * @return the rate <code>user</code> is limited to
+     */
+    public long getUserRate(Long user) {
+        Long rate = userRates.get(user);
+        return rate == null ? defaultUserRate : rate;
+    }
+
+    /**
+     * Gives <code>user</code> a rate of their own, instead of the default one
+     */
+    public void setUserRate(Long user, long rate) {
+        userRates.put(user, checkRate(rate));
+        updateBucket(user);
+    }
+
+    /**
+     * Puts <code>user</code> back on the default rate
+     */
+    public void resetUserRate(Long user) {
+        userRates.remove(user);
+        updateBucket(user);
+    }
+
+    /**
+     * @return the users with a rate of their own, and their rates
+     */
+    public Map<Long, Long> getUserRates() {
+        return Collections.unmodifiableMap(new TreeMap<Long, Long>(userRates));
+    }
+
+    private void updateBucket(Long user) {
+        TokenBucket bucket = buckets.get(user);
+
+        if (bucket != null) {
+            long rate = getUserRate(user);
+            bucket.setRate(rate, burstOf(rate));
+        }
+    }
+
+    private TokenBucket bucketOf(Long user) {
+        TokenBucket bucket = buckets.get(user);
+
+        if (bucket == null) {
+            if (buckets.size() >= MAX_TRACKED_USERS)
+                evictIdle();
+
+            long rate = getUserRate(user);
+            TokenBucket created = new TokenBucket(rate, burstOf(rate));
+            bucket = buckets.putIfAbsent(user, created);
+            if (bucket == null)
+                bucket = created;
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Drops the buckets nobody drew from for a while, which would start over
+     * full anyway
+     */
+    private void evictIdle() {
+        Iterator<TokenBucket> iterator = buckets.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().isFull())
+                iterator.remove();
+        }
+    }
+
+    private static long checkRate(long rate) {
+        if (rate < 0)
+            throw new IllegalArgumentException("Invalid rate: " + rate + " bytes per second");
+
+        return rate;
+    }
+
+    private static long burstOf(long rate) {
+        return Math.max(rate * BURST_SECONDS, MAX_READ);
+    }
+
+    /**
+     * Pays for the bytes read from the wrapped stream, in tokens of the user
+     * and of the server. Meant to be read by a single thread, like a request
+     * body.
+     */
+    private class ThrottledInputStream extends FilterInputStream {
+        private final TokenBucket user;
+
+        ThrottledInputStream(InputStream in, TokenBucket user) {
+            super(in);
+            this.user = user;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                pay(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, Math.min(len, MAX_READ));
+            if (read > 0)
+                pay(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, MAX_READ));
+            if (skipped > 0)
+                pay(skipped);
+            return skipped;
+        }
+
+        private void pay(long bytes) throws InterruptedIOException {
+            long wait = reserve(user, bytes);
+            if (wait <= 0)
+                return;
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling a chunk body");
+            }
+        }
+    }
+}
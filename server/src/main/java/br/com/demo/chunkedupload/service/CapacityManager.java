@@ -0,0 +1,180 @@
+package br.com.demo.chunkedupload.service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.com.demo.chunkedupload.data.FileRepository;
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.exception.InsufficientStorageException;
+import br.com.demo.chunkedupload.exception.QuotaExceededException;
+
+/**
+ * Reserves the declared size of each upload when its session is created, so
+ * uploads that cannot finish are turned down before any byte is sent.
+ * <p>
+ * Two limits apply:
+ * <ul>
+ * <li>The declared sizes of a user's ongoing uploads must fit in
+ * <code>userQuota</code>.</li>
+ * <li>The bytes still to come for every ongoing upload, plus
+ * <code>minFreeBytes</code>, must fit in the free space of the storage
+ * volume.</li>
+ * </ul>
+ * The bytes still to come shrink as chunks are persisted, and the space they
+ * take shows up in the free space instead. A reservation is released when its
+ * upload concludes, fails or expires.
+ */
+public class CapacityManager {
+    private static Logger LOG = LoggerFactory.getLogger(CapacityManager.class);
+
+    private final FileRepository storage;
+    private final long userQuota;
+    private final long minFreeBytes;
+
+    // guarded by this
+    private final Map<String, Reservation> reservations = new HashMap<String, Reservation>();
+    private final Map<Long, Long> reservedByUser = new HashMap<Long, Long>();
+    private long pendingBytes;
+
+    /**
+     * @param storage
+     *            where chunks are stored, which tells its free space
+     * @param userQuota
+     *            bytes a user may declare for their ongoing uploads, or 0 for
+     *            no quota
+     * @param minFreeBytes
+     *            free space kept out of reservations
+     */
+    public CapacityManager(FileRepository storage, long userQuota, long minFreeBytes) {
+        if (userQuota < 0 || minFreeBytes < 0)
+            throw new IllegalArgumentException("Capacity limits cannot be negative");
+
+        this.storage = storage;
+        this.userQuota = userQuota;
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    /**
+     * Reserves the declared size of a new session
+     *
+     * @throws QuotaExceededException
+     *             if it does not fit in the quota of its user
+     * @throws InsufficientStorageException
+     *             if it does not fit in the free space of the storage
+     */
+    public void reserve(Session session) throws QuotaExceededException, InsufficientStorageException {
+        long fileSize = session.getFileInfo().getFileSize();
+        long usableSpace = getUsableSpace();
+
+        synchronized (this) {
+            long userReserved = reservedByUser.getOrDefault(session.getUser(), 0L);
+
+            if (userQuota > 0 && userReserved + fileSize > userQuota)
+                throw new QuotaExceededException(String.format(
+                        "Upload quota exceeded: %d of %d bytes are reserved by ongoing uploads",
+                        userReserved, userQuota));
+
+            if (usableSpace >= 0 && pendingBytes + fileSize + minFreeBytes > usableSpace)
+                throw new InsufficientStorageException("Not enough storage space for a file of " + fileSize
+                        + " bytes");
+
+            add(session, fileSize);
+        }
+    }
+
+    /**
+     * Reserves what is left of a session recovered after a restart, which was
+     * admitted before and is not checked again
+     */
+    public synchronized void restore(Session session) {
+        long persisted = 0;
+        for (int chunk = 1; chunk <= session.getFileInfo().getTotalNumberOfChunks(); chunk++) {
+            if (session.getFileInfo().isChunkPersisted(chunk))
+                persisted += session.getFileInfo().getChunkLength(chunk);
+        }
+
+        add(session, session.getFileInfo().getFileSize() - persisted);
+    }
+
+    /**
+     * Records that <code>length</code> bytes of the session reached the
+     * storage, where they now take free space
+     */
+    public synchronized void chunkPersisted(Session session, long length) {
+        Reservation reservation = reservations.get(session.getId());
+
+        if (reservation != null) {
+            long paid = Math.min(length, reservation.pending);
+            reservation.pending -= paid;
+            pendingBytes -= paid;
+        }
+    }
+
+    /**
+     * Releases the reservation of a session. Releasing it again does nothing.
+     */
+    public synchronized void release(Session session) {
+        Reservation reservation = reservations.remove(session.getId());
+        if (reservation == null)
+            return;
+
+        pendingBytes -= reservation.pending;
+
+        long userReserved = reservedByUser.get(reservation.user) - reservation.declared;
+        if (userReserved <= 0)
+            reservedByUser.remove(reservation.user);
+        else
+            reservedByUser.put(reservation.user, userReserved);
+    }
+
+    /**
+     * @return bytes still to come for every ongoing upload
+     */
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return bytes declared by the ongoing uploads of <code>user</code>
+     */
+    public synchronized long getReservedBytes(Long user) {
+        return reservedByUser.getOrDefault(user, 0L);
+    }
+
+    private void add(Session session, long pending) {
+        Reservation reservation = new Reservation(session.getUser(), session.getFileInfo().getFileSize(), pending);
+        if (reservations.putIfAbsent(session.getId(), reservation) != null)
+            return;
+
+        pendingBytes += pending;
+        reservedByUser.merge(reservation.user, reservation.declared, Long::sum);
+    }
+
+    /**
+     * Read out of the lock, since it may ask the file system
+     */
+    private long getUsableSpace() {
+        try {
+            return storage.getUsableSpace();
+        } catch (IOException e) {
+            LOG.warn("Could not read the free space of the storage", e);
+            return -1;
+        }
+    }
+
+    private static class Reservation {
+        final Long user;
+        final long declared;
+        long pending;
+
+        Reservation(Long user, long declared, long pending) {
+            this.user = user;
+            this.declared = declared;
+            this.pending = pending;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package br.com.demo.chunkedupload.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Body of a chunk upload, which must hold exactly the bytes of its chunk.
+ * <p>
+ * A body that ends early, runs past the chunk, or cannot be read at all fails
+ * with a {@link BodyException}, before storage sees a wrong chunk. Those are
+ * faults of the request, which the client may retry, rather than of the
+ * upload, which must not fail for them.
+ */
+class ChunkBodyInputStream extends FilterInputStream {
+    private final int chunkNumber;
+    private final long length;
+
+    private long count;
+
+    ChunkBodyInputStream(InputStream in, int chunkNumber, long length) {
+        super(in);
+        this.chunkNumber = chunkNumber;
+        this.length = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = readBody();
+        if (b != -1)
+            counted(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read;
+        try {
+            read = super.read(b, off, len);
+        } catch (IOException e) {
+            throw new BodyException("Could not read chunk " + chunkNumber + ": " + e.getMessage(), e);
+        }
+
+        if (read == -1)
+            counted(0);
+        else
+            counted(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        throw new IOException("Chunk content cannot be skipped");
+    }
+
+    /**
+     * Checks nothing is left of the body, for storage that stops reading once
+     * it has the bytes it expects
+     */
+    void verifyEnd() throws BodyException {
+        try {
+            if (read() != -1)
+                throw tooLarge();
+        } catch (BodyException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new BodyException(e.getMessage(), e);
+        }
+    }
+
+    private int readBody() throws IOException {
+        try {
+            return super.read();
+        } catch (IOException e) {
+            throw new BodyException("Could not read chunk " + chunkNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param read
+     *            bytes just read, or 0 at the end of the body
+     */
+    private void counted(int read) throws BodyException {
+        count += read;
+
+        if (count > length)
+            throw tooLarge();
+
+        if (read == 0 && count < length)
+            throw new BodyException(
+                    String.format("Chunk %d has %d bytes, expected %d", chunkNumber, count, length), null);
+    }
+
+    private BodyException tooLarge() {
+        return new BodyException(String.format("Chunk %d is larger than expected %d bytes", chunkNumber, length),
+                null);
+    }
+
+    /**
+     * The body of a chunk upload is wrong or unreadable
+     */
+    @SuppressWarnings("serial")
+    static class BodyException extends IOException {
+        BodyException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package br.com.demo.chunkedupload.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recommends a chunk size for new upload sessions.
+ * <p>
+ * The starting point is the amount of data the user's link moves in
+ * <code>targetSeconds</code>, from the throughput observed on their recent
+ * chunk uploads. Fast links get large chunks, and flaky or slow links get
+ * small ones, which are cheaper to retry. Users with no recent uploads get
+ * <code>defaultChunkSize</code>. Throughput is only sampled where the body
+ * comes off the socket, not from bodies buffered before being persisted.
+ * <p>
+ * The server load is left out on purpose: chunks grown under load would make
+ * each retry more expensive exactly when retries are likely. The result is
+ * then large enough to keep files within {@link #MAX_CHUNKS_PER_FILE} chunks,
+ * clamped to the configured bounds and never larger than the file.
+ */
+public class ChunkSizeAdvisor {
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    static final int MAX_CHUNKS_PER_FILE = 10000;
+
+    /**
+     * Weight of the latest sample in the per-user throughput average
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Shorter transfers are too short to time reliably
+     */
+    private static final long MIN_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int MAX_TRACKED_USERS = 100000;
+
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final int defaultChunkSize;
+    private final double targetSeconds;
+
+    private final Map<Long, Throughput> throughputs = new ConcurrentHashMap<Long, Throughput>();
+
+    public ChunkSizeAdvisor() {
+        this(DEFAULT_MIN_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE, DEFAULT_CHUNK_SIZE, 2);
+    }
+
+    /**
+     * @param minChunkSize
+     *            smallest recommended size, except for smaller files.
+     *            Recommendations are multiples of it.
+     * @param maxChunkSize
+     *            largest chunk size accepted by the server
+     * @param defaultChunkSize
+     *            recommended size for users with no recent uploads
+     * @param targetSeconds
+     *            how long uploading one chunk should take
+     */
+    public ChunkSizeAdvisor(int minChunkSize, int maxChunkSize, int defaultChunkSize, double targetSeconds) {
+        if (minChunkSize < 1 || maxChunkSize < minChunkSize)
+            throw new IllegalArgumentException("Invalid chunk size bounds: " + minChunkSize + ".." + maxChunkSize);
+
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.defaultChunkSize = defaultChunkSize;
+        this.targetSeconds = targetSeconds;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    /**
+     * @param user
+     * @param fileSize
+     * @return the chunk size <code>user</code> should use to upload a file of
+     *         <code>fileSize</code> bytes
+     */
+    public int recommend(Long user, long fileSize) {
+        Throughput throughput = user == null ? null : throughputs.get(user);
+
+        double size = throughput == null ? defaultChunkSize : throughput.getBytesPerSecond() * targetSeconds;
+
+        long recommended = (long) size - (long) size % minChunkSize;
+
+        long fewestChunks = (fileSize + MAX_CHUNKS_PER_FILE - 1) / MAX_CHUNKS_PER_FILE;
+        recommended = Math.max(recommended, (fewestChunks + minChunkSize - 1) / minChunkSize * minChunkSize);
+
+        recommended = Math.max(minChunkSize, Math.min(recommended, maxChunkSize));
+
+        if (fileSize > 0 && fileSize < recommended)
+            return (int) fileSize;
+
+        return (int) recommended;
+    }
+
+    /**
+     * Records that <code>bytes</code> of a request body took
+     * <code>readNanos</code> to come off the socket from <code>user</code>
+     */
+    public void recordTransfer(Long user, long bytes, long readNanos) {
+        if (user == null || bytes <= 0 || readNanos < MIN_SAMPLE_NANOS)
+            return;
+
+        double bytesPerSecond = bytes * (double) TimeUnit.SECONDS.toNanos(1) / readNanos;
+
+        Throughput throughput = throughputs.get(user);
+        if (throughput == null) {
+            if (throughputs.size() >= MAX_TRACKED_USERS)
+                evictOne();
+
+            throughputs.putIfAbsent(user, new Throughput(bytesPerSecond));
+        } else {
+            throughput.add(bytesPerSecond);
+        }
+    }
+
+    private void evictOne() {
+        Iterator<Long> users = throughputs.keySet().iterator();
+        if (users.hasNext()) {
+            users.next();
+            users.remove();
+        }
+    }
+
+    /**
+     * Exponentially weighted average of a user's upload throughput
+     */
+    private static class Throughput {
+        private volatile double bytesPerSecond;
+
+        Throughput(double bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        /**
+         * Concurrent samples may overwrite each other, which an estimate can
+         * afford
+         */
+        void add(double sample) {
+            bytesPerSecond += SMOOTHING * (sample - bytesPerSecond);
+        }
+
+        double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+    }
+}
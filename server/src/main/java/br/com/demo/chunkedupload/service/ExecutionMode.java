@@ -0,0 +1,99 @@
+package br.com.demo.chunkedupload.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Kind of threads that run request work handed off by the servlet container
+ */
+public enum ExecutionMode {
+    /**
+     * A fixed pool of platform threads with a bounded queue. Tasks are
+     * rejected once the queue is full.
+     */
+    PLATFORM,
+
+    /**
+     * One virtual thread per task (Java 21 and later). Blocking I/O parks the
+     * virtual thread instead of holding a platform thread, so concurrency is
+     * not capped by a pool size. Falls back to {@link #PLATFORM} on older
+     * runtimes.
+     */
+    VIRTUAL;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionMode.class);
+
+    public static ExecutionMode fromString(String value) {
+        if (value != null && value.trim().equalsIgnoreCase("virtual"))
+            return VIRTUAL;
+
+        return PLATFORM;
+    }
+
+    /**
+     * @return whether the running JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the executor for this mode
+     *
+     * @param name
+     *            prefix of the thread names
+     * @param platformThreads
+     *            size of the platform thread pool
+     * @param queueSize
+     *            tasks waiting for a platform thread before new ones are
+     *            rejected
+     */
+    public ExecutorService newExecutor(String name, int platformThreads, int queueSize) {
+        if (this == VIRTUAL) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null)
+                return executor;
+
+            LOG.warn("Virtual threads are not supported by this JVM; running {} on platform threads", name);
+        }
+
+        return new ThreadPoolExecutor(platformThreads, platformThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * The server is built for Java 8, so the Java 21 factory is looked up
+     * reflectively
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
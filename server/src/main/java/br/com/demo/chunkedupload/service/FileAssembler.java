@@ -0,0 +1,108 @@
+package br.com.demo.chunkedupload.service;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.com.demo.chunkedupload.data.FileRepository;
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.metrics.Metrics;
+
+/**
+ * Merges the chunks of concluded uploads into one contiguous file, on a
+ * background thread, one upload at a time. Segments of files larger than
+ * <code>segmentSize</code> are copied in parallel by <code>copiers</code>
+ * threads.
+ */
+public class FileAssembler {
+    private Logger LOG = LoggerFactory.getLogger(FileAssembler.class);
+
+    private final FileRepository fileStorage;
+
+    private final long segmentSize;
+
+    private final int copierCount;
+
+    private final BlockingQueue<Session> queue = new LinkedBlockingQueue<Session>();
+
+    private volatile ExecutorService copiers;
+
+    private volatile Thread worker;
+
+    public FileAssembler(FileRepository fileStorage, int copiers, long segmentSize) {
+        this.fileStorage = fileStorage;
+        this.copierCount = Math.max(1, copiers);
+        this.segmentSize = segmentSize;
+    }
+
+    public void assemble(Session session) {
+        queue.offer(session);
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public synchronized void start() {
+        if (worker != null)
+            return;
+
+        copiers = Executors.newFixedThreadPool(copierCount, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "file-assembly-copier-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (worker == Thread.currentThread()) {
+                        assembleNow(queue.take());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "file-assembler");
+
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        Thread current = worker;
+        worker = null;
+
+        if (current != null)
+            current.interrupt();
+
+        if (copiers != null)
+            copiers.shutdownNow();
+    }
+
+    private void assembleNow(Session session) {
+        if (session.hasFailed())
+            return;
+
+        long started = System.nanoTime();
+        try {
+            fileStorage.assemble(session, copiers, segmentSize);
+            Metrics.FILE_ASSEMBLY.record(System.nanoTime() - started);
+            LOG.debug(">> Assembled session {}", session.getId());
+        } catch (Exception e) {
+            LOG.error("Could not assemble session " + session.getId(), e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package br.com.demo.chunkedupload.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.com.demo.chunkedupload.data.Session;
+
+/**
+ * Evicts expired sessions with a hashed timing wheel.
+ * <p>
+ * Each session sits in the bucket of the tick at which it is due to expire,
+ * by default when it times out.
+ * Every tick, the reaper thread visits a single bucket. Sessions whose timeout
+ * was renewed in the meantime are moved to the bucket of their new deadline
+ * instead of being expired, so {@link Session#renewTimeout()} needs no
+ * callback into the wheel. Scheduling, rescheduling and expiring a session are
+ * all O(1).
+ * <p>
+ * Only the reaper thread touches the buckets. Other threads hand sessions over
+ * through a lock-free queue.
+ */
+public class SessionExpiryReaper {
+    private Logger LOG = LoggerFactory.getLogger(SessionExpiryReaper.class);
+
+    private final long tickMillis;
+
+    private final Queue<Entry>[] wheel;
+
+    private final Queue<Session> pending = new ConcurrentLinkedQueue<Session>();
+
+    private final Consumer<Session> onExpiration;
+
+    private final ToLongFunction<Session> millisUntilExpiration;
+
+    private long tick;
+
+    private volatile Thread worker;
+
+    public SessionExpiryReaper(long tickMillis, int wheelSize, Consumer<Session> onExpiration) {
+        this(tickMillis, wheelSize, onExpiration, Session::getMillisUntilExpiration);
+    }
+
+    /**
+     * @param millisUntilExpiration
+     *            how long until a session is due. Zero or less means it is
+     *            due now.
+     */
+    @SuppressWarnings("unchecked")
+    public SessionExpiryReaper(long tickMillis, int wheelSize, Consumer<Session> onExpiration,
+            ToLongFunction<Session> millisUntilExpiration) {
+        this.tickMillis = tickMillis;
+        this.onExpiration = onExpiration;
+        this.millisUntilExpiration = millisUntilExpiration;
+        this.wheel = new Queue[wheelSize];
+
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayDeque<Entry>();
+        }
+    }
+
+    public void schedule(Session session) {
+        pending.offer(session);
+    }
+
+    public synchronized void start() {
+        if (worker != null)
+            return;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long next = System.nanoTime();
+
+                while (worker == Thread.currentThread()) {
+                    next += TimeUnit.MILLISECONDS.toNanos(tickMillis);
+
+                    long sleep = next - System.nanoTime();
+                    if (sleep > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(sleep);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    advance();
+                }
+            }
+        }, "session-expiry-reaper");
+
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        Thread current = worker;
+        worker = null;
+
+        if (current != null)
+            current.interrupt();
+    }
+
+    /**
+     * Moves the wheel one tick forward, expiring the sessions due in that tick
+     */
+    void advance() {
+        Session session;
+        while ((session = pending.poll()) != null) {
+            place(session);
+        }
+
+        Queue<Entry> bucket = wheel[(int) (tick % wheel.length)];
+        tick++;
+
+        List<Session> renewed = new ArrayList<Session>();
+        Iterator<Entry> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if (entry.rounds > 0) {
+                entry.rounds--;
+                continue;
+            }
+
+            iterator.remove();
+
+            if (millisUntilExpiration.applyAsLong(entry.session) > 0) {
+                renewed.add(entry.session);
+                continue;
+            }
+
+            try {
+                onExpiration.accept(entry.session);
+            } catch (RuntimeException e) {
+                LOG.error("Could not expire session " + entry.session.getId(), e);
+            }
+        }
+
+        for (Session s : renewed) {
+            place(s);
+        }
+    }
+
+    private void place(Session session) {
+        long ticks = Math.max(0, (millisUntilExpiration.applyAsLong(session) + tickMillis - 1) / tickMillis);
+
+        Entry entry = new Entry(session, ticks / wheel.length);
+        wheel[(int) ((tick + ticks) % wheel.length)].add(entry);
+    }
+
+    private static class Entry {
+        final Session session;
+        long rounds;
+
+        Entry(Session session, long rounds) {
+            this.session = session;
+            this.rounds = rounds;
+        }
+    }
+}
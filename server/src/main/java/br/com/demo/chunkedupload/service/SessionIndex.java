@@ -0,0 +1,127 @@
+package br.com.demo.chunkedupload.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.demo.chunkedupload.data.Session;
+
+/**
+ * Registered sessions in creation order, overall, by user and by status.
+ * <p>
+ * The status of a session changes when its last chunk is persisted or when it
+ * fails, and whoever causes the change calls {@link #statusChanged(Session)}.
+ * Index updates of a session are serialized on the session itself and read
+ * its current state, so the last update always leaves it under its latest
+ * status, whatever the interleaving.
+ */
+class SessionIndex {
+    static final List<String> STATUSES = Collections.unmodifiableList(Arrays.asList("ongoing", "done", "failed"));
+
+    private final ConcurrentNavigableMap<SessionKey, Session> byCreation = new ConcurrentSkipListMap<SessionKey, Session>();
+
+    private final ConcurrentMap<Long, ConcurrentNavigableMap<SessionKey, Session>> byUser = new ConcurrentHashMap<Long, ConcurrentNavigableMap<SessionKey, Session>>();
+
+    private final Map<String, ConcurrentNavigableMap<SessionKey, Session>> byStatus = new LinkedHashMap<String, ConcurrentNavigableMap<SessionKey, Session>>();
+
+    /**
+     * Sizes of the status indexes, which skip lists can only count by walking
+     */
+    private final Map<String, AtomicLong> countByStatus = new LinkedHashMap<String, AtomicLong>();
+
+    SessionIndex() {
+        for (String status : STATUSES) {
+            byStatus.put(status, new ConcurrentSkipListMap<SessionKey, Session>());
+            countByStatus.put(status, new AtomicLong());
+        }
+    }
+
+    void add(final Session session) {
+        final SessionKey key = SessionKey.of(session);
+
+        synchronized (session) {
+            byCreation.put(key, session);
+
+            byUser.compute(session.getUser(), (user, sessions) -> {
+                if (sessions == null)
+                    sessions = new ConcurrentSkipListMap<SessionKey, Session>();
+
+                sessions.put(key, session);
+                return sessions;
+            });
+
+            indexStatus(key, session, session.getStatus());
+        }
+    }
+
+    void remove(Session session) {
+        final SessionKey key = SessionKey.of(session);
+
+        synchronized (session) {
+            if (byCreation.remove(key) == null)
+                return;
+
+            byUser.computeIfPresent(session.getUser(), (user, sessions) -> {
+                sessions.remove(key);
+                return sessions.isEmpty() ? null : sessions;
+            });
+
+            indexStatus(key, session, null);
+        }
+    }
+
+    /**
+     * Moves <code>session</code> to the index of its current status
+     */
+    void statusChanged(Session session) {
+        SessionKey key = SessionKey.of(session);
+
+        synchronized (session) {
+            if (byCreation.containsKey(key))
+                indexStatus(key, session, session.getStatus());
+        }
+    }
+
+    NavigableMap<SessionKey, Session> all() {
+        return byCreation;
+    }
+
+    NavigableMap<SessionKey, Session> ofUser(Long user) {
+        NavigableMap<SessionKey, Session> sessions = byUser.get(user);
+        return sessions == null ? Collections.<SessionKey, Session> emptyNavigableMap() : sessions;
+    }
+
+    NavigableMap<SessionKey, Session> withStatus(String status) {
+        return byStatus.get(status);
+    }
+
+    long count(String status) {
+        return countByStatus.get(status).get();
+    }
+
+    /**
+     * @param status
+     *            the status to index the session under, or null to drop it
+     *            from every status index
+     */
+    private void indexStatus(SessionKey key, Session session, String status) {
+        for (Map.Entry<String, ConcurrentNavigableMap<SessionKey, Session>> index : byStatus.entrySet()) {
+            AtomicLong count = countByStatus.get(index.getKey());
+
+            if (index.getKey().equals(status)) {
+                if (index.getValue().put(key, session) == null)
+                    count.incrementAndGet();
+            } else if (index.getValue().remove(key) != null) {
+                count.decrementAndGet();
+            }
+        }
+    }
+}
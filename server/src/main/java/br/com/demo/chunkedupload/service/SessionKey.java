@@ -0,0 +1,77 @@
+package br.com.demo.chunkedupload.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.exception.BadRequestException;
+
+/**
+ * Orders sessions by creation time, then by id. Also serves as the opaque
+ * cursor of session listings, which stays valid across restarts since both
+ * parts are journaled.
+ */
+final class SessionKey implements Comparable<SessionKey> {
+    private static final char SEPARATOR = '|';
+
+    private final LocalDateTime createdDate;
+    private final String id;
+
+    SessionKey(LocalDateTime createdDate, String id) {
+        this.createdDate = createdDate;
+        this.id = id;
+    }
+
+    static SessionKey of(Session session) {
+        return new SessionKey(session.getCreatedDateTime(), session.getId());
+    }
+
+    /**
+     * @return a key before any session created at <code>createdDate</code>
+     */
+    static SessionKey first(LocalDateTime createdDate) {
+        return new SessionKey(createdDate, "");
+    }
+
+    static SessionKey fromCursor(String cursor) throws BadRequestException {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(SEPARATOR);
+
+            if (separator < 0)
+                throw new BadRequestException("Invalid cursor");
+
+            return new SessionKey(LocalDateTime.parse(decoded.substring(0, separator)),
+                    decoded.substring(separator + 1));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+    }
+
+    String toCursor() {
+        String key = createdDate.toString() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    LocalDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    @Override
+    public int compareTo(SessionKey other) {
+        int byDate = createdDate.compareTo(other.createdDate);
+        return byDate != 0 ? byDate : id.compareTo(other.id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SessionKey && compareTo((SessionKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * createdDate.hashCode() + id.hashCode();
+    }
+}
@@ -0,0 +1,29 @@
+package br.com.demo.chunkedupload.service;
+
+import java.util.List;
+
+import br.com.demo.chunkedupload.data.Session;
+
+/**
+ * One page of a session listing
+ */
+public class SessionPage {
+    private final List<Session> sessions;
+    private final String nextCursor;
+
+    public SessionPage(List<Session> sessions, String nextCursor) {
+        this.sessions = sessions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return the cursor of the next page, or null if this is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
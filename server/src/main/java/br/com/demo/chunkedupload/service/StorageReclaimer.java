@@ -0,0 +1,81 @@
+package br.com.demo.chunkedupload.service;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import br.com.demo.chunkedupload.data.FileRepository;
+
+/**
+ * Deletes the storage of evicted sessions on a background thread, at most
+ * <code>deletionsPerSecond</code> sessions per second. Expiring many sessions
+ * at once therefore does not compete with uploads for disk I/O.
+ */
+public class StorageReclaimer {
+    private Logger LOG = LoggerFactory.getLogger(StorageReclaimer.class);
+
+    private final FileRepository fileStorage;
+
+    private final long intervalNanos;
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+
+    private volatile Thread worker;
+
+    public StorageReclaimer(FileRepository fileStorage, int deletionsPerSecond) {
+        this.fileStorage = fileStorage;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, deletionsPerSecond);
+    }
+
+    public void reclaim(String sessionId) {
+        queue.offer(sessionId);
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public synchronized void start() {
+        if (worker != null)
+            return;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (worker == Thread.currentThread()) {
+                        String sessionId = queue.take();
+                        long started = System.nanoTime();
+
+                        try {
+                            fileStorage.delete(sessionId);
+                            LOG.debug(">> Reclaimed storage of session {}", sessionId);
+                        } catch (Exception e) {
+                            LOG.error("Could not reclaim storage of session " + sessionId, e);
+                        }
+
+                        long wait = intervalNanos - (System.nanoTime() - started);
+                        if (wait > 0)
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "storage-reclaimer");
+
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        Thread current = worker;
+        worker = null;
+
+        if (current != null)
+            current.interrupt();
+    }
+}
@@ -1,12 +1,26 @@
 package br.com.demo.chunkedupload.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.lang3.StringUtils;
@@ -16,24 +30,98 @@ import org.slf4j.LoggerFactory;
 import br.com.demo.chunkedupload.data.FileInformation;
 import br.com.demo.chunkedupload.data.FileRepository;
 import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.data.SessionJournal;
 import br.com.demo.chunkedupload.exception.ApiException;
 import br.com.demo.chunkedupload.exception.BadRequestException;
+import br.com.demo.chunkedupload.exception.ChecksumMismatchException;
+import br.com.demo.chunkedupload.exception.ConflictException;
+import br.com.demo.chunkedupload.exception.InsufficientStorageException;
 import br.com.demo.chunkedupload.exception.InvalidOperationException;
 import br.com.demo.chunkedupload.exception.NotFoundException;
+import br.com.demo.chunkedupload.exception.OverloadedException;
+import br.com.demo.chunkedupload.exception.QuotaExceededException;
+import br.com.demo.chunkedupload.metrics.Metrics;
+import br.com.demo.chunkedupload.metrics.TimedInputStream;
+import br.com.demo.chunkedupload.model.ByteRange;
+import br.com.demo.chunkedupload.util.Crc32c;
 
 public class UploadService {
     private Logger LOG = LoggerFactory.getLogger(UploadService.class);
 
-    private static final int CHUNK_LIMIT = 1024 * 1024;
+    /**
+     * With one-second ticks, a wheel of this size covers the default one-hour
+     * session timeout in a single lap
+     */
+    private static final int EXPIRY_WHEEL_SIZE = 4096;
+
+    /** Buffer used to read the bodies of chunks sent again, without storing them */
+    private static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+
+    public static final int MAX_PAGE_SIZE = 1000;
 
     Map<String, Session> sessions;
     FileRepository fileStorage;
 
+    /**
+     * The sessions in creation order, overall, by user and by status
+     */
+    private final SessionIndex index = new SessionIndex();
+
+    private final SessionJournal journal;
+
+    private volatile ChunkSizeAdvisor chunkSizeAdvisor = new ChunkSizeAdvisor();
+
+    private volatile AdmissionController admissionController;
+
+    private volatile BandwidthLimiter bandwidthLimiter;
+
+    private volatile CapacityManager capacityManager;
+
+    private volatile SessionExpiryReaper expiryReaper;
+
+    /**
+     * How long concluded uploads are kept past their timeout, or a negative
+     * value to keep them until they are deleted
+     */
+    private volatile long retentionMillis = -1;
+    private volatile StorageReclaimer storageReclaimer;
+    private volatile FileAssembler fileAssembler;
+
+    /**
+     * Hashes the chunks that arrived ahead of the hashed prefix of their file
+     */
+    private final ExecutorService digester = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "file-digester");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public UploadService(FileRepository storage) {
         this.fileStorage = storage;
+        this.journal = null;
         sessions = Collections.synchronizedMap(new ConcurrentHashMap<String, Session>());
     }
 
+    /**
+     * Creates a service whose sessions survive restarts. The sessions recorded
+     * in <code>journal</code> are recovered before it starts journaling new
+     * changes.
+     *
+     * @param storage
+     * @param journal
+     * @throws IOException
+     */
+    public UploadService(FileRepository storage, SessionJournal journal) throws IOException {
+        this.fileStorage = storage;
+        this.journal = journal;
+        sessions = Collections.synchronizedMap(new ConcurrentHashMap<String, Session>());
+
+        for (Session session : journal.recover()) {
+            fileStorage.allocate(session.getId(), session.getFileInfo());
+            register(session);
+        }
+    }
+
     /**
      * Creates a new session
      *
@@ -42,9 +130,14 @@ public class UploadService {
      * @param chunkSize
      * @param fileSize
      * @return
-     * @throws ApiException
+     * @throws BadRequestException
+     *             if a parameter is invalid
+     * @throws QuotaExceededException
+     *             if the file does not fit in the quota of the user
+     * @throws InsufficientStorageException
+     *             if the file does not fit in the free storage space
      */
-    public Session createSession(Long user, String fileName, int chunkSize, Long fileSize) throws BadRequestException {
+    public Session createSession(Long user, String fileName, int chunkSize, Long fileSize) throws ApiException {
 
         if (StringUtils.isEmpty(fileName))
             throw new BadRequestException("File name missing");
@@ -52,8 +145,8 @@ public class UploadService {
         if (user == null)
             throw new BadRequestException("User ID missing");
 
-        if (chunkSize > CHUNK_LIMIT)
-            throw new BadRequestException(String.format("Maximum chunk size is {} bytes", CHUNK_LIMIT));
+        if (chunkSize > getMaxChunkSize())
+            throw new BadRequestException(String.format("Maximum chunk size is %d bytes", getMaxChunkSize()));
 
         if (chunkSize < 1)
             throw new BadRequestException("Chunk size must be greater than zero");
@@ -62,7 +155,34 @@ public class UploadService {
             throw new BadRequestException("Total size must be greater than zero");
 
         Session session = new Session(user, new FileInformation(fileSize, fileName, chunkSize));
-        sessions.put(session.getId(), session);
+
+        CapacityManager capacity = capacityManager;
+        if (capacity != null)
+            capacity.reserve(session);
+
+        try {
+            fileStorage.allocate(session.getId(), session.getFileInfo());
+        } catch (IOException e) {
+            throw discard(session, capacity, e);
+        }
+
+        // registered before it is journaled, so a compaction that drops the
+        // record from the journal has the session in its snapshot
+        register(session);
+
+        if (journal != null) {
+            try {
+                journal.sessionCreated(session);
+            } catch (IOException e) {
+                unregister(session);
+                throw discard(session, capacity, e);
+            }
+        }
+
+        Metrics.SESSIONS_CREATED.increment();
+
+        if (expiryReaper != null)
+            expiryReaper.schedule(session);
 
         LOG.debug(">> Created session {}, fileName {}, chunkSize {}, fileSize {}, totalChunks {}", new Object[] {
                 session.getId(), fileName, chunkSize, fileSize, session.getFileInfo().getTotalNumberOfChunks() });
@@ -70,10 +190,265 @@ public class UploadService {
         return session;
     }
 
+    public ChunkSizeAdvisor getChunkSizeAdvisor() {
+        return chunkSizeAdvisor;
+    }
+
+    public void setChunkSizeAdvisor(ChunkSizeAdvisor chunkSizeAdvisor) {
+        this.chunkSizeAdvisor = chunkSizeAdvisor;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * @param admissionController
+     *            bounds the chunk writes in flight, or null to accept them all
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    /**
+     * @param bandwidthLimiter
+     *            limits how fast chunk bodies are read, or null to read them
+     *            as fast as they come
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    public CapacityManager getCapacityManager() {
+        return capacityManager;
+    }
+
+    /**
+     * Reserves the declared size of new sessions from now on, and what is
+     * left to upload of the ongoing ones
+     *
+     * @param capacityManager
+     *            the reservations, or null to accept any size
+     */
+    public void setCapacityManager(CapacityManager capacityManager) {
+        if (capacityManager != null) {
+            for (Session session : index.withStatus("ongoing").values()) {
+                capacityManager.restore(session);
+            }
+        }
+
+        this.capacityManager = capacityManager;
+    }
+
+    /**
+     * Reserves room for writing a chunk, right before it is written. Chunks of
+     * unknown sessions are let through, for {@link #persistBlock} to reject
+     * them.
+     *
+     * @param sessionId
+     * @param userId
+     * @param chunkNumber
+     * @return the permit to close once the chunk is persisted, or failed
+     * @throws OverloadedException
+     *             if the server cannot take the chunk now
+     */
+    public AdmissionController.Permit admit(String sessionId, Long userId, int chunkNumber)
+            throws OverloadedException {
+        AdmissionController controller = admissionController;
+        if (controller == null)
+            return AdmissionController.Permit.UNLIMITED;
+
+        Session session = getSession(sessionId);
+        FileInformation file = session == null ? null : session.getFileInfo();
+        long length = file == null || chunkNumber < 1 || chunkNumber > file.getTotalNumberOfChunks() ? 0
+                : file.getChunkLength(chunkNumber);
+
+        return controller.admit(userId, length);
+    }
+
+    /**
+     * @return the largest chunk size accepted for new sessions
+     */
+    public int getMaxChunkSize() {
+        return chunkSizeAdvisor.getMaxChunkSize();
+    }
+
+    /**
+     * @param user
+     * @param fileSize
+     * @return the chunk size <code>user</code> should use for a file of
+     *         <code>fileSize</code> bytes, given their recent throughput
+     */
+    public int recommendChunkSize(Long user, long fileSize) {
+        return chunkSizeAdvisor.recommend(user, fileSize);
+    }
+
+    /**
+     * Starts merging the chunks of concluded uploads into one file each, in the
+     * background, beginning with the uploads that concluded before a restart
+     *
+     * @param copiers
+     *            threads copying the segments of large files in parallel
+     * @param segmentSize
+     *            files larger than this are copied in segments of about this
+     *            size
+     */
+    public synchronized void startFileAssembler(int copiers, long segmentSize) {
+        if (fileAssembler != null)
+            return;
+
+        fileAssembler = new FileAssembler(fileStorage, copiers, segmentSize);
+        for (Session session : index.withStatus("done").values()) {
+            fileAssembler.assemble(session);
+        }
+        fileAssembler.start();
+    }
+
+    /**
+     * Starts evicting expired sessions in the background. Their storage is
+     * deleted at most <code>reclaimsPerSecond</code> sessions per second.
+     * Concluded uploads are kept <code>retentionSeconds</code> longer, so they
+     * can still be downloaded.
+     *
+     * @param tickMillis
+     *            resolution of the expiry timing wheel
+     * @param reclaimsPerSecond
+     * @param retentionSeconds
+     *            how long concluded uploads are kept past their timeout.
+     *            Negative keeps them until they are deleted.
+     */
+    public synchronized void startExpiryReaper(long tickMillis, int reclaimsPerSecond, long retentionSeconds) {
+        if (expiryReaper != null)
+            return;
+
+        retentionMillis = retentionSeconds < 0 ? -1 : TimeUnit.SECONDS.toMillis(retentionSeconds);
+
+        storageReclaimer = new StorageReclaimer(fileStorage, reclaimsPerSecond);
+        storageReclaimer.start();
+
+        expiryReaper = new SessionExpiryReaper(tickMillis, EXPIRY_WHEEL_SIZE, this::expire,
+                this::getMillisUntilExpiration);
+        for (Session session : getAllSessions()) {
+            expiryReaper.schedule(session);
+        }
+        expiryReaper.start();
+    }
+
+    /**
+     * Evicts an expired session and schedules the deletion of its storage.
+     * Concluded uploads are only evicted once their retention is over, and
+     * never without one.
+     */
+    void expire(Session session) {
+        if (session.isConcluded() && !session.hasFailed() && retentionMillis < 0)
+            return;
+
+        if (sessions.remove(session.getId(), session)) {
+            index.remove(session);
+            releaseCapacity(session);
+            LOG.debug(">> Expired session {}", session.getId());
+
+            if (journal != null) {
+                try {
+                    journal.sessionRemoved(session);
+                } catch (IOException e) {
+                    LOG.error("Could not journal the removal of session " + session.getId(), e);
+                }
+            }
+
+            if (storageReclaimer != null)
+                storageReclaimer.reclaim(session.getId());
+        }
+    }
+
+    /**
+     * @return how long until the session is due to expire: when it times out,
+     *         or for a concluded upload, once it was retained past that
+     */
+    long getMillisUntilExpiration(Session session) {
+        long millis = session.getMillisUntilExpiration();
+        long retention = retentionMillis;
+
+        if (retention >= 0 && session.isConcluded() && !session.hasFailed())
+            return millis + retention;
+
+        return millis;
+    }
+
     public Session getSession(String id) {
         return sessions.get(id);
     }
 
+    /**
+     * Lists sessions in creation order, one page at a time. Walks the index of
+     * the user or of the status when filtering by them, so only the sessions
+     * of the page are visited, plus those of the user that do not match the
+     * other filters.
+     *
+     * @param cursor
+     *            where the previous page ended, or null for the first page
+     * @param limit
+     *            maximum number of sessions in the page
+     * @param user
+     *            if not null, only sessions of this user
+     * @param status
+     *            if not null, only sessions with this status (ongoing, done
+     *            or failed)
+     * @param createdAfter
+     *            if not null, only sessions created after it
+     * @return the page. Its cursor is null when the listing is over, and
+     *         a full page may be followed by an empty one.
+     * @throws BadRequestException
+     *             on an invalid cursor, limit or status
+     */
+    public SessionPage findSessions(String cursor, int limit, Long user, String status, LocalDateTime createdAfter)
+            throws BadRequestException {
+        if (limit < 1 || limit > MAX_PAGE_SIZE)
+            throw new BadRequestException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+
+        if (status != null && !SessionIndex.STATUSES.contains(status))
+            throw new BadRequestException("Status must be one of " + SessionIndex.STATUSES);
+
+        NavigableMap<SessionKey, Session> candidates;
+
+        if (user != null)
+            candidates = index.ofUser(user);
+        else if (status != null)
+            candidates = index.withStatus(status);
+        else
+            candidates = index.all();
+
+        if (cursor != null)
+            candidates = candidates.tailMap(SessionKey.fromCursor(cursor), false);
+
+        if (createdAfter != null)
+            candidates = candidates.tailMap(SessionKey.first(createdAfter), true);
+
+        List<Session> page = new ArrayList<Session>(Math.min(limit, 64));
+
+        for (Map.Entry<SessionKey, Session> entry : candidates.entrySet()) {
+            Session session = entry.getValue();
+
+            if (user != null && !user.equals(session.getUser()))
+                continue;
+            if (status != null && !status.equals(session.getStatus()))
+                continue;
+            if (createdAfter != null && !session.getCreatedDateTime().isAfter(createdAfter))
+                continue;
+
+            page.add(session);
+
+            if (page.size() == limit)
+                return new SessionPage(page, entry.getKey().toCursor());
+        }
+
+        return new SessionPage(page, null);
+    }
+
     public List<Session> getAllSessions() {
         List<Session> list = new ArrayList<>();
         for (Session s : sessions.values()) {
@@ -82,38 +457,402 @@ public class UploadService {
         return list;
     }
 
+    /**
+     * @return how many sessions are still receiving chunks
+     */
+    public long getActiveSessionCount() {
+        long active = 0;
+        for (Session s : index.withStatus("ongoing").values()) {
+            if (!s.isExpired())
+                active++;
+        }
+        return active;
+    }
+
+    /**
+     * @param user
+     *            the user whose sessions to count, or null for every session
+     * @return how many sessions are ongoing, done and failed. Counting every
+     *         session is O(1); counting those of a user walks them.
+     */
+    public Map<String, Long> countSessionsByStatus(Long user) {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+        if (user == null) {
+            for (String status : SessionIndex.STATUSES) {
+                counts.put(status, index.count(status));
+            }
+            return counts;
+        }
+
+        for (String status : SessionIndex.STATUSES) {
+            counts.put(status, 0L);
+        }
+        for (Session session : index.ofUser(user).values()) {
+            counts.merge(session.getStatus(), 1L, Long::sum);
+        }
+        return counts;
+    }
+
     public void persistBlock(String sessionId, Long userId, int chunkNumber, byte[] buffer)
             throws ApiException, IOException {
         Session session = getSession(sessionId);
+        validateChunk(session, chunkNumber);
+
+        long expectedLength = session.getFileInfo().getChunkLength(chunkNumber);
+        if (buffer.length != expectedLength) {
+            throw new BadRequestException(
+                    String.format("Chunk %d has %d bytes, expected %d", chunkNumber, buffer.length, expectedLength));
+        }
 
         try {
-            if (session == null) {
-                throw new NotFoundException("Session not found");
-            }
+            if (isDuplicateBody(session, chunkNumber, new ByteArrayInputStream(buffer), null))
+                return;
+
+            MessageDigest fileDigest = session.getDigest().fork(chunkNumber);
 
+            long started = System.nanoTime();
             fileStorage.persist(sessionId, chunkNumber, buffer);
+            long persisted = System.nanoTime();
 
-            LOG.debug(">> Persisted session {}, chunkNumber {}, {} bytes",
-                    new Object[] { sessionId, chunkNumber, buffer.length });
+            if (fileDigest != null)
+                fileDigest.update(buffer);
 
-            session.getFileInfo().markChunkAsPersisted(chunkNumber);
-            session.renewTimeout();
+            Checksum crc = Crc32c.newChecksum();
+            crc.update(buffer, 0, buffer.length);
+            session.getFileInfo().setChunkChecksum(chunkNumber, crc.getValue());
+
+            markChunkAsPersisted(session, chunkNumber, buffer.length, fileDigest);
+
+            recordChunk(0, persisted - started, System.nanoTime() - persisted, buffer.length);
+        } catch (BadRequestException | ConflictException e) {
+            throw e;
         } catch (Exception e) {
-            if (session != null)
-                session.maskAsFailed();
+            markAsFailed(session);
 
             throw e;
         }
     }
 
+    /**
+     * Persists a chunk straight from the request stream, without buffering it
+     * on the heap
+     *
+     * @param sessionId
+     * @param userId
+     * @param chunkNumber
+     * @param inputStream
+     * @throws ApiException
+     * @throws IOException
+     */
+    public void persistBlock(String sessionId, Long userId, int chunkNumber, InputStream inputStream)
+            throws ApiException, IOException {
+        persistBlock(sessionId, userId, chunkNumber, inputStream, null);
+    }
+
+    /**
+     * Persists a chunk straight from the request stream, verifying its
+     * CRC32C on the way. On a mismatch, the chunk is not recorded and the
+     * session does not fail, so the client can send it again.
+     * <p>
+     * A chunk that was already persisted is not written again. If it comes
+     * with the checksum of the persisted content, it is acknowledged without
+     * reading its body; otherwise its body is read, but not stored, and
+     * compared with the persisted content.
+     *
+     * @param expectedCrc32c
+     *            checksum sent by the client, or null to skip verification
+     * @throws ChecksumMismatchException
+     *             if the content does not match <code>expectedCrc32c</code>
+     * @throws ConflictException
+     *             if the chunk was already persisted with other content
+     */
+    public void persistBlock(String sessionId, Long userId, int chunkNumber, InputStream inputStream,
+            Long expectedCrc32c) throws ApiException, IOException {
+        Session session = getSession(sessionId);
+        validateChunk(session, chunkNumber);
+
+        ChunkBodyInputStream body = new ChunkBodyInputStream(inputStream, chunkNumber,
+                session.getFileInfo().getChunkLength(chunkNumber));
+
+        try {
+            if (isDuplicateChunk(session, chunkNumber, expectedCrc32c)
+                    || isDuplicateBody(session, chunkNumber, body, expectedCrc32c))
+                return;
+
+            TimedInputStream timedInput = new TimedInputStream(body);
+            InputStream content = timedInput;
+
+            MessageDigest fileDigest = session.getDigest().fork(chunkNumber);
+            if (fileDigest != null)
+                content = new DigestInputStream(content, fileDigest);
+
+            Checksum crc = Crc32c.newChecksum();
+            content = new CheckedInputStream(content, crc);
+
+            long started = System.nanoTime();
+            long length = fileStorage.persist(sessionId, chunkNumber, content);
+            body.verifyEnd();
+            long persisted = System.nanoTime();
+
+            verifyChecksum(chunkNumber, crc.getValue(), expectedCrc32c);
+            session.getFileInfo().setChunkChecksum(chunkNumber, crc.getValue());
+
+            markChunkAsPersisted(session, chunkNumber, length, fileDigest);
+
+            recordChunk(timedInput.getReadNanos(), persisted - started - timedInput.getReadNanos(),
+                    System.nanoTime() - persisted, length);
+        } catch (ChunkBodyInputStream.BodyException e) {
+            // the request is wrong, or was cut, not the upload
+            throw new BadRequestException(e.getMessage());
+        } catch (BadRequestException | ConflictException e) {
+            throw e;
+        } catch (Exception e) {
+            markAsFailed(session);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Tells whether a chunk is already persisted with the given checksum, so
+     * that sending it again is unnecessary. Callers can check this before
+     * reading the body of a chunk upload.
+     *
+     * @param crc32c
+     *            checksum sent with the chunk, or null
+     * @return false if the chunk is not persisted, or if either checksum is
+     *         unknown
+     * @throws ConflictException
+     *             if the chunk was persisted with another checksum
+     */
+    public boolean isDuplicateChunk(Session session, int chunkNumber, Long crc32c) throws ConflictException {
+        if (crc32c == null || !session.getFileInfo().isChunkPersisted(chunkNumber))
+            return false;
+
+        long persisted = session.getFileInfo().getChunkChecksum(chunkNumber);
+        if (persisted == -1)
+            return false;
+
+        if (persisted != crc32c) {
+            throw new ConflictException(String.format("Chunk %d was already persisted with CRC32C %s, not %s",
+                    chunkNumber, Crc32c.toHex(persisted), Crc32c.toHex(crc32c)));
+        }
+
+        acknowledgeDuplicate(session, chunkNumber);
+        return true;
+    }
+
+    /**
+     * Compares the body of a chunk that was already persisted with the
+     * persisted content, by checksum when it is known and by length
+     * otherwise. The body is read, but not stored.
+     *
+     * @return false if the chunk is not persisted
+     * @throws ConflictException
+     *             if the body differs from the persisted content
+     */
+    private boolean isDuplicateBody(Session session, int chunkNumber, InputStream body, Long expectedCrc32c)
+            throws ApiException, IOException {
+        FileInformation fileInfo = session.getFileInfo();
+
+        if (!fileInfo.isChunkPersisted(chunkNumber))
+            return false;
+
+        Checksum crc = Crc32c.newChecksum();
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        long length = 0;
+        int read;
+
+        while ((read = body.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+            length += read;
+        }
+
+        verifyChecksum(chunkNumber, crc.getValue(), expectedCrc32c);
+
+        long persisted = fileInfo.getChunkChecksum(chunkNumber);
+        if (persisted == -1 ? length != fileInfo.getChunkLength(chunkNumber) : persisted != crc.getValue()) {
+            throw new ConflictException(
+                    String.format("Chunk %d was already persisted with other content", chunkNumber));
+        }
+
+        acknowledgeDuplicate(session, chunkNumber);
+        return true;
+    }
+
+    private void acknowledgeDuplicate(Session session, int chunkNumber) {
+        LOG.debug(">> Chunk {} of session {} was already persisted", chunkNumber, session.getId());
+
+        Metrics.DUPLICATE_CHUNKS.increment();
+        session.renewTimeout();
+    }
+
+    private static void verifyChecksum(int chunkNumber, long actual, Long expected)
+            throws ChecksumMismatchException {
+        if (expected != null && actual != expected) {
+            throw new ChecksumMismatchException(String.format("Chunk %d has CRC32C %s, expected %s", chunkNumber,
+                    Crc32c.toHex(actual), Crc32c.toHex(expected)));
+        }
+    }
+
+    private void register(Session session) {
+        sessions.put(session.getId(), session);
+        index.add(session);
+    }
+
+    /**
+     * Gives back the storage and the reservation of a session that could not
+     * be created
+     *
+     * @return the error to report to the client
+     */
+    private InsufficientStorageException discard(Session session, CapacityManager capacity, IOException cause) {
+        LOG.error("Could not create session " + session.getId(), cause);
+
+        if (capacity != null)
+            capacity.release(session);
+
+        try {
+            fileStorage.delete(session.getId());
+        } catch (IOException e) {
+            LOG.warn("Could not delete the storage of session " + session.getId(), e);
+        }
+
+        return new InsufficientStorageException("Could not store the session. Try again later.");
+    }
+
+    /**
+     * Takes back a session whose creation could not be journaled
+     */
+    private void unregister(Session session) {
+        sessions.remove(session.getId(), session);
+        index.remove(session);
+
+        // a compaction may have put it in a snapshot meanwhile
+        try {
+            journal.sessionRemoved(session);
+        } catch (IOException e) {
+            LOG.error("Could not journal the removal of session " + session.getId(), e);
+        }
+    }
+
+    private void validateChunk(Session session, int chunkNumber) throws ApiException {
+        if (session == null) {
+            throw new NotFoundException("Session not found");
+        }
+
+        if (chunkNumber < 1 || chunkNumber > session.getFileInfo().getTotalNumberOfChunks()) {
+            throw new BadRequestException("Invalid chunk number");
+        }
+    }
+
+    /**
+     * @param fileDigest
+     *            the file digest forked for this chunk, with the chunk hashed
+     *            into it, or null
+     */
+    private void markChunkAsPersisted(Session session, int chunkNumber, long length, MessageDigest fileDigest)
+            throws IOException {
+        LOG.debug(">> Persisted session {}, chunkNumber {}, {} bytes",
+                new Object[] { session.getId(), chunkNumber, length });
+
+        boolean concluded = false;
+
+        if (session.getFileInfo().markChunkAsPersisted(chunkNumber)) {
+            CapacityManager capacity = capacityManager;
+            if (capacity != null)
+                capacity.chunkPersisted(session, length);
+
+            concluded = session.isConcluded();
+            if (concluded) {
+                index.statusChanged(session);
+                releaseCapacity(session);
+            }
+
+            if (journal != null)
+                journal.chunkPersisted(session, chunkNumber);
+        }
+
+        // the chunks that arrived early are read back off the request thread
+        if (session.getDigest().advance(session, chunkNumber, fileDigest))
+            digester.execute(() -> catchUpDigest(session));
+
+        if (concluded && fileAssembler != null && !session.hasFailed())
+            fileAssembler.assemble(session);
+
+        session.renewTimeout();
+    }
+
+    private void catchUpDigest(Session session) {
+        try {
+            session.getDigest().catchUp(session, fileStorage);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not hash chunks of session " + session.getId(), e);
+        }
+    }
+
+    private static void recordChunk(long readNanos, long persistNanos, long bookkeepingNanos, long length) {
+        Metrics.CHUNK_BODY_READ.record(readNanos);
+        Metrics.CHUNK_PERSIST.record(persistNanos);
+        Metrics.CHUNK_BOOKKEEPING.record(bookkeepingNanos);
+        Metrics.CHUNKS_PERSISTED.increment();
+        Metrics.BYTES_INGESTED.add(length);
+    }
+
+    private void markAsFailed(Session session) {
+        session.maskAsFailed();
+        index.statusChanged(session);
+        releaseCapacity(session);
+
+        if (journal != null) {
+            try {
+                journal.sessionFailed(session);
+            } catch (IOException e) {
+                LOG.error("Could not journal the failure of session " + session.getId(), e);
+            }
+        }
+    }
+
+    private void releaseCapacity(Session session) {
+        CapacityManager capacity = capacityManager;
+        if (capacity != null)
+            capacity.release(session);
+    }
+
     public StreamingOutput getContentStream(Session session)
             throws IOException, InvalidOperationException, NotFoundException {
+        checkDownloadable(session);
+
+        return countServedBytes(fileStorage.getContentStream(session), session.getFileInfo().getFileSize());
+    }
+
+    /**
+     * @return a stream with only the bytes of <code>range</code>
+     */
+    public StreamingOutput getContentStream(Session session, ByteRange range)
+            throws IOException, InvalidOperationException, NotFoundException {
+        checkDownloadable(session);
+
+        return countServedBytes(fileStorage.getContentStream(session, range.getStart(), range.getLength()),
+                range.getLength());
+    }
+
+    private static StreamingOutput countServedBytes(final StreamingOutput content, final long length) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                content.write(output);
+                Metrics.BYTES_SERVED.add(length);
+            }
+        };
+    }
+
+    private void checkDownloadable(Session session) throws InvalidOperationException, NotFoundException {
         if (!session.isConcluded())
             throw new InvalidOperationException("Upload is not yet finished");
 
         if (session.hasFailed())
             throw new NotFoundException("File not found");
-
-        return fileStorage.getContentStream(session);
     }
 }
@@ -29,6 +29,7 @@ public class ApiOriginFilter implements javax.servlet.Filter {
     res.addHeader("Access-Control-Allow-Origin", "*");
     res.addHeader("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT");
     res.addHeader("Access-Control-Allow-Headers", "Content-Type, api_key, Authorization");
+    res.addHeader("Access-Control-Expose-Headers", "X-Next-Cursor");
     chain.doFilter(request, response);
   }
 
@@ -0,0 +1,32 @@
+package br.com.demo.chunkedupload.util;
+
+/**
+ * Server settings, read from system properties prefixed with
+ * <code>chunkedupload.</code> (e.g.
+ * <code>-Dchunkedupload.storage.mode=preallocated</code>).
+ */
+public final class Configuration {
+    private static final String PREFIX = "chunkedupload.";
+
+    private Configuration() {
+    }
+
+    public static String getString(String key, String defaultValue) {
+        return System.getProperty(PREFIX + key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
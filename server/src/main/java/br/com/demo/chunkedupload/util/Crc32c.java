@@ -0,0 +1,114 @@
+package br.com.demo.chunkedupload.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) checksums.
+ * <p>
+ * On Java 9 and later, this is {@code java.util.zip.CRC32C}, which the JIT
+ * compiles to the CPU's CRC32 instructions. The server is built for Java 8, so
+ * the class is looked up reflectively, and a table-driven implementation is
+ * used on older runtimes.
+ */
+public final class Crc32c {
+    private static final MethodHandle INTRINSIC = findIntrinsic();
+
+    private Crc32c() {
+    }
+
+    public static Checksum newChecksum() {
+        if (INTRINSIC != null) {
+            try {
+                return (Checksum) INTRINSIC.invoke();
+            } catch (Throwable e) {
+                // fall back to the portable implementation
+            }
+        }
+
+        return new PureJava();
+    }
+
+    /**
+     * @return whether checksums are computed by {@code java.util.zip.CRC32C}
+     */
+    public static boolean isIntrinsic() {
+        return INTRINSIC != null;
+    }
+
+    /**
+     * @param hex
+     *            a checksum as up to 8 hexadecimal digits
+     * @throws NumberFormatException
+     *             if it is not one
+     */
+    public static long parse(String hex) {
+        String digits = hex.trim();
+
+        if (digits.isEmpty() || digits.length() > 8)
+            throw new NumberFormatException("Not a CRC32C: " + hex);
+
+        return Long.parseLong(digits, 16);
+    }
+
+    public static String toHex(long checksum) {
+        return String.format("%08x", checksum);
+    }
+
+    private static MethodHandle findIntrinsic() {
+        try {
+            Class<?> crc32c = Class.forName("java.util.zip.CRC32C");
+            return MethodHandles.publicLookup().findConstructor(crc32c, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Byte-at-a-time CRC32C, for runtimes without {@code java.util.zip.CRC32C}
+     */
+    static final class PureJava implements Checksum {
+        private static final int POLYNOMIAL = 0x82f63b78;
+
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+                }
+                TABLE[n] = crc;
+            }
+        }
+
+        private int crc = 0xffffffff;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xff];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int value = crc;
+            for (int i = off; i < off + len; i++) {
+                value = (value >>> 8) ^ TABLE[(value ^ b[i]) & 0xff];
+            }
+            crc = value;
+        }
+
+        @Override
+        public long getValue() {
+            return ~crc & 0xffffffffL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xffffffff;
+        }
+    }
+}
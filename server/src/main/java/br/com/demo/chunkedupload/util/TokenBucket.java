@@ -0,0 +1,84 @@
+package br.com.demo.chunkedupload.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter.
+ * <p>
+ * Tokens accrue at <code>rate</code> per second, up to <code>capacity</code>.
+ * Callers take tokens with {@link #reserve(long)}, which never blocks: it may
+ * leave the bucket in debt, and returns how long the caller should wait for
+ * the debt to be paid back. So concurrent callers are served in the order
+ * they reserve, and none of them holds the lock while waiting.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long rate;
+    private long capacity;
+
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param rate
+     *            tokens per second, or 0 for no limit
+     * @param capacity
+     *            most tokens saved up, which is the largest burst
+     */
+    public TokenBucket(long rate, long capacity) {
+        this.refilledAt = System.nanoTime();
+        setRate(rate, capacity);
+        this.tokens = this.capacity;
+    }
+
+    /**
+     * Changes the rate from now on. Tokens saved up above the new capacity are
+     * dropped, and debt is kept.
+     */
+    public synchronized void setRate(long rate, long capacity) {
+        if (rate < 0 || capacity < 0)
+            throw new IllegalArgumentException("Invalid rate: " + rate + "/s, burst of " + capacity);
+
+        refill(System.nanoTime());
+
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = Math.min(tokens, capacity);
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Takes <code>count</code> tokens
+     *
+     * @return nanoseconds to wait until they are paid for, 0 if they already
+     *         were
+     */
+    public synchronized long reserve(long count) {
+        if (rate == 0)
+            return 0;
+
+        refill(System.nanoTime());
+        tokens -= count;
+
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * @return whether the bucket is full, i.e. nobody used it for a while
+     */
+    public synchronized boolean isFull() {
+        refill(System.nanoTime());
+        return rate == 0 || tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        if (rate > 0)
+            tokens = Math.min(capacity, tokens + (double) (now - refilledAt) * rate / NANOS_PER_SECOND);
+
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,92 @@
+package br.com.demo.chunkedupload.data;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChunkTrackerTest {
+
+    @Test
+    public void mark_withNewChunk_shouldCountIt() {
+	ChunkTracker tracker = new ChunkTracker(3);
+
+	assertThat(tracker.mark(2), equalTo(true));
+	assertThat(tracker.isMarked(2), equalTo(true));
+	assertThat(tracker.isMarked(1), equalTo(false));
+	assertThat(tracker.getCount(), equalTo(1));
+    }
+
+    @Test
+    public void mark_withRepeatedChunk_shouldNotCountItTwice() {
+	ChunkTracker tracker = new ChunkTracker(3);
+
+	tracker.mark(1);
+
+	assertThat(tracker.mark(1), equalTo(false));
+	assertThat(tracker.getCount(), equalTo(1));
+    }
+
+    @Test
+    public void isComplete_withAllChunksMarked_shouldReturnTrue() {
+	ChunkTracker tracker = new ChunkTracker(65);
+
+	for (int i = 65; i >= 1; i--) {
+	    assertThat(tracker.isComplete(), equalTo(false));
+	    tracker.mark(i);
+	}
+
+	assertThat(tracker.isComplete(), equalTo(true));
+    }
+
+    @Test
+    public void toArray_shouldReturnMarkedChunksInOrder() {
+	ChunkTracker tracker = new ChunkTracker(200);
+
+	tracker.mark(130);
+	tracker.mark(1);
+	tracker.mark(64);
+	tracker.mark(65);
+
+	int[] expected = { 1, 64, 65, 130 };
+	assertThat(tracker.toArray().length, equalTo(expected.length));
+	for (int i = 0; i < expected.length; i++) {
+	    assertThat(tracker.toArray()[i], equalTo(expected[i]));
+	}
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void mark_withChunkOutOfRange_shouldThrowException() {
+	new ChunkTracker(3).mark(4);
+    }
+
+    @Test
+    public void mark_fromSeveralThreads_shouldCountEveryChunkOnce() throws InterruptedException {
+	final int chunks = 10000;
+	final ChunkTracker tracker = new ChunkTracker(chunks);
+	List<Thread> threads = new ArrayList<Thread>();
+
+	for (int t = 0; t < 4; t++) {
+	    Thread thread = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    for (int i = 1; i <= chunks; i++) {
+			tracker.mark(i);
+		    }
+		}
+	    });
+	    threads.add(thread);
+	    thread.start();
+	}
+
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+
+	assertThat(tracker.getCount(), equalTo(chunks));
+	assertThat(tracker.isComplete(), equalTo(true));
+    }
+}
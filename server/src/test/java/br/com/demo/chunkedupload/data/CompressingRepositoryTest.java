@@ -0,0 +1,151 @@
+package br.com.demo.chunkedupload.data;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.StorageMode;
+
+public class CompressingRepositoryTest {
+    private static final String SESSION_ID = "session";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalFileSystemRepository storage;
+    private CompressingRepository repository;
+
+    @Before
+    public void setUp() {
+	storage = new LocalFileSystemRepository(folder.getRoot().getAbsolutePath(), StorageMode.CHUNK_FILES);
+	repository = new CompressingRepository(storage, 10);
+    }
+
+    @Test
+    public void persist_withCompressibleChunk_shouldStoreItDeflated() throws IOException {
+	byte[] content = csv(100000);
+
+	long length = repository.persist(SESSION_ID, 1, new ByteArrayInputStream(content));
+
+	byte[] stored = storage.read(SESSION_ID, 1);
+	assertThat(length, equalTo((long) content.length));
+	assertThat(stored[0], equalTo(CompressingRepository.DEFLATED));
+	assertTrue(stored.length < content.length / 4);
+	assertArrayEquals(content, repository.read(SESSION_ID, 1));
+    }
+
+    @Test
+    public void persist_withRandomChunk_shouldStoreItRaw() throws IOException {
+	byte[] content = randomBytes(100000);
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream(content));
+
+	byte[] stored = storage.read(SESSION_ID, 1);
+	assertThat(stored[0], equalTo(CompressingRepository.RAW));
+	assertThat(stored.length, equalTo(content.length + 1));
+	assertArrayEquals(content, repository.read(SESSION_ID, 1));
+    }
+
+    @Test
+    public void persist_withZeroChunk_shouldOnlyStoreItsLength() throws IOException {
+	byte[] content = new byte[3 * CompressingRepository.SAMPLE_SIZE + 5];
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream(content));
+
+	byte[] stored = storage.read(SESSION_ID, 1);
+	assertThat(stored[0], equalTo(CompressingRepository.ZEROS));
+	assertThat(stored.length, equalTo(9));
+	assertArrayEquals(content, repository.read(SESSION_ID, 1));
+    }
+
+    @Test
+    public void persist_withZeroSampleAndDataAfterIt_shouldKeepTheData() throws IOException {
+	byte[] content = new byte[2 * CompressingRepository.SAMPLE_SIZE];
+	content[content.length - 1] = 7;
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream(content));
+
+	assertThat(storage.read(SESSION_ID, 1)[0], equalTo(CompressingRepository.DEFLATED));
+	assertArrayEquals(content, repository.read(SESSION_ID, 1));
+    }
+
+    @Test
+    public void getContentStream_shouldDecodeEveryKindOfChunk() throws Exception {
+	int chunkSize = 50000;
+	byte[] content = new byte[3 * chunkSize];
+	System.arraycopy(csv(chunkSize), 0, content, 0, chunkSize);
+	System.arraycopy(randomBytes(chunkSize), 0, content, 2 * chunkSize, chunkSize);
+	Session session = new Session(1L, new FileInformation((long) content.length, "file", chunkSize));
+	for (int chunk = 1; chunk <= 3; chunk++) {
+	    repository.persist(session.getId(), chunk,
+		    new ByteArrayInputStream(content, (chunk - 1) * chunkSize, chunkSize));
+	}
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	repository.getContentStream(session, 1000, content.length - 2000).write(out);
+
+	byte[] expected = new byte[content.length - 2000];
+	System.arraycopy(content, 1000, expected, 0, expected.length);
+	assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void getContentStream_withRangeOfDeflatedChunk_shouldStreamItFromStorage() throws Exception {
+	storage = new LocalFileSystemRepository(folder.getRoot().getAbsolutePath(), StorageMode.CHUNK_FILES) {
+	    @Override
+	    public byte[] read(String id, int chunkNumber) {
+		throw new AssertionError("Chunk " + chunkNumber + " read whole");
+	    }
+	};
+	repository = new CompressingRepository(storage, 10);
+	byte[] content = csv(100000);
+	Session session = new Session(1L, new FileInformation((long) content.length, "file", content.length));
+	repository.persist(session.getId(), 1, new ByteArrayInputStream(content));
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	repository.getContentStream(session, 50000, 1000).write(out);
+
+	byte[] expected = new byte[1000];
+	System.arraycopy(content, 50000, expected, 0, expected.length);
+	assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void assemble_shouldKeepTheChunksAsStored() throws Exception {
+	byte[] content = csv(100000);
+	Session session = new Session(1L, new FileInformation((long) content.length, "file", content.length));
+	repository.persist(session.getId(), 1, new ByteArrayInputStream(content));
+
+	repository.assemble(session, null, content.length);
+
+	assertFalse(storage.isAssembled(session.getId()));
+	assertArrayEquals(content, repository.read(session.getId(), 1));
+    }
+
+    private static byte[] csv(int length) {
+	StringBuilder rows = new StringBuilder();
+	for (int i = 0; rows.length() < length; i++) {
+	    rows.append(i).append(",user").append(i % 100).append(",2024-01-01T00:00:00Z,OK\n");
+	}
+	return rows.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] randomBytes(int length) {
+	byte[] bytes = new byte[length];
+	new Random(5).nextBytes(bytes);
+	return bytes;
+    }
+}
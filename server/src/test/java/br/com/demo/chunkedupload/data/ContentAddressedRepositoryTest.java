@@ -0,0 +1,150 @@
+package br.com.demo.chunkedupload.data;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentAddressedRepositoryTest {
+    private static final int CHUNK_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ContentAddressedRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+	repository = new ContentAddressedRepository(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void persist_withSameChunkInTwoSessions_shouldStoreItOnce() throws IOException {
+	byte[] content = randomBytes(CHUNK_SIZE, 1);
+
+	repository.persist("first", 1, new ByteArrayInputStream(content));
+	long length = repository.persist("second", 3, new ByteArrayInputStream(content));
+
+	assertThat(length, equalTo((long) CHUNK_SIZE));
+	assertThat(repository.getBlockCount(), equalTo(1));
+	assertThat(storedBlocks(), equalTo(1L));
+	assertThat(repository.getDeduplicatedBytes(), equalTo((long) CHUNK_SIZE));
+	assertArrayEquals(content, repository.read("first", 1));
+	assertArrayEquals(content, repository.read("second", 3));
+    }
+
+    @Test
+    public void delete_shouldKeepBlocksOtherSessionsReference() throws IOException {
+	byte[] shared = randomBytes(CHUNK_SIZE, 1);
+	repository.persist("first", 1, new ByteArrayInputStream(shared));
+	repository.persist("first", 2, new ByteArrayInputStream(randomBytes(CHUNK_SIZE, 2)));
+	repository.persist("second", 1, new ByteArrayInputStream(shared));
+
+	repository.delete("first");
+
+	assertThat(repository.getBlockCount(), equalTo(1));
+	assertThat(storedBlocks(), equalTo(1L));
+	assertArrayEquals(shared, repository.read("second", 1));
+
+	repository.delete("second");
+
+	assertThat(repository.getBlockCount(), equalTo(0));
+	assertThat(storedBlocks(), equalTo(0L));
+    }
+
+    @Test
+    public void persist_whenChunkIsSentAgainWithOtherContent_shouldReleaseTheOldBlock() throws IOException {
+	byte[] replacement = randomBytes(CHUNK_SIZE, 2);
+	repository.persist("session", 1, new ByteArrayInputStream(randomBytes(CHUNK_SIZE, 1)));
+
+	repository.persist("session", 1, new ByteArrayInputStream(replacement));
+
+	assertThat(repository.getBlockCount(), equalTo(1));
+	assertThat(storedBlocks(), equalTo(1L));
+	assertArrayEquals(replacement, repository.read("session", 1));
+    }
+
+    @Test
+    public void persist_whenChunkIsSentConcurrently_shouldKeepOnlyTheLastBlock() throws Exception {
+	ExecutorService executor = Executors.newFixedThreadPool(8);
+	try {
+	    List<Future<Long>> persists = new ArrayList<Future<Long>>();
+	    for (int i = 0; i < 200; i++) {
+		byte[] content = randomBytes(CHUNK_SIZE, i);
+		persists.add(executor.submit(() -> repository.persist("session", 1, new ByteArrayInputStream(content))));
+	    }
+	    for (Future<Long> persist : persists) {
+		persist.get();
+	    }
+	} finally {
+	    executor.shutdown();
+	}
+
+	assertThat(repository.getBlockCount(), equalTo(1));
+	assertThat(storedBlocks(), equalTo(1L));
+    }
+
+    @Test
+    public void constructor_shouldRecoverReferencesAndDropUnreferencedBlocks() throws IOException {
+	byte[] shared = randomBytes(CHUNK_SIZE, 1);
+	repository.persist("first", 1, new ByteArrayInputStream(shared));
+	repository.persist("second", 1, new ByteArrayInputStream(shared));
+	repository.persist("orphan", 1, new ByteArrayInputStream(randomBytes(CHUNK_SIZE, 2)));
+	Files.delete(folder.getRoot().toPath().resolve("orphan").resolve("1" + ContentAddressedRepository.MANIFEST_SUFFIX));
+
+	ContentAddressedRepository recovered = new ContentAddressedRepository(folder.getRoot().getAbsolutePath());
+	recovered.delete("first");
+
+	assertThat(recovered.getBlockCount(), equalTo(1));
+	assertThat(storedBlocks(), equalTo(1L));
+	assertArrayEquals(shared, recovered.read("second", 1));
+    }
+
+    @Test
+    public void getContentStream_shouldSendTheRequestedRange() throws Exception {
+	byte[] content = randomBytes(CHUNK_SIZE * 2 + 10, 3);
+	Session session = new Session(1L, new FileInformation((long) content.length, "file", CHUNK_SIZE));
+	for (int chunk = 1; chunk <= 3; chunk++) {
+	    int from = (chunk - 1) * CHUNK_SIZE;
+	    repository.persist(session.getId(), chunk,
+		    new ByteArrayInputStream(content, from, Math.min(CHUNK_SIZE, content.length - from)));
+	}
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	repository.getContentStream(session, 1000, 1050).write(out);
+
+	byte[] expected = new byte[1050];
+	System.arraycopy(content, 1000, expected, 0, expected.length);
+	assertArrayEquals(expected, out.toByteArray());
+    }
+
+    private long storedBlocks() throws IOException {
+	Path blocks = folder.getRoot().toPath().resolve(ContentAddressedRepository.BLOCKS_DIR);
+	try (Stream<Path> paths = Files.walk(blocks)) {
+	    return paths.filter(Files::isRegularFile).count();
+	}
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+	byte[] bytes = new byte[length];
+	new Random(seed).nextBytes(bytes);
+	return bytes;
+    }
+}
@@ -0,0 +1,110 @@
+package br.com.demo.chunkedupload.data;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileDigestTest {
+    private static final int CHUNK_SIZE = 4;
+
+    private byte[] content;
+    private Session session;
+    private MemoryRepository storage;
+
+    @Before
+    public void setUp() throws IOException {
+	content = new byte[10];
+	new Random(3).nextBytes(content);
+	session = new Session(1L, new FileInformation((long) content.length, "file", CHUNK_SIZE));
+	storage = new MemoryRepository();
+	storage.allocate(session.getId(), session.getFileInfo());
+    }
+
+    @Test
+    public void advance_withChunksInOrder_shouldHashTheWholeFile() throws Exception {
+	for (int chunk = 1; chunk <= 3; chunk++) {
+	    MessageDigest forked = session.getDigest().fork(chunk);
+	    forked.update(chunk(chunk));
+	    persist(chunk, forked);
+	}
+
+	assertThat(session.getDigest().getHex(), equalTo(sha256(content)));
+    }
+
+    @Test
+    public void advance_withChunksOutOfOrder_shouldReadTheEarlyOnesBack() throws Exception {
+	assertThat(session.getDigest().fork(3), nullValue());
+	persist(3, null);
+	assertThat(session.getDigest().fork(2), nullValue());
+	persist(2, null);
+	assertThat(session.getDigest().getHex(), nullValue());
+
+	MessageDigest forked = session.getDigest().fork(1);
+	forked.update(chunk(1));
+	persist(1, forked);
+
+	assertThat(session.getDigest().getHex(), equalTo(sha256(content)));
+    }
+
+    @Test
+    public void advance_whenTheGapIsFilled_shouldLeaveTheEarlyChunksToTheCatchUp() throws Exception {
+	store(3);
+	assertThat(session.getDigest().advance(session, 3, null), equalTo(false));
+
+	MessageDigest forked = session.getDigest().fork(1);
+	forked.update(chunk(1));
+	store(1);
+	store(2);
+	assertThat(session.getDigest().advance(session, 1, forked), equalTo(true));
+	// already requested
+	assertThat(session.getDigest().advance(session, 2, null), equalTo(false));
+	assertThat(session.getDigest().getHex(), nullValue());
+
+	session.getDigest().catchUp(session, storage);
+
+	assertThat(session.getDigest().getHex(), equalTo(sha256(content)));
+    }
+
+    @Test
+    public void advance_withoutForkedDigest_shouldReadTheChunkBack() throws Exception {
+	persist(1, null);
+	persist(2, null);
+	persist(3, null);
+
+	assertThat(session.getDigest().getHex(), equalTo(sha256(content)));
+    }
+
+    private byte[] chunk(int chunkNumber) {
+	int from = (chunkNumber - 1) * CHUNK_SIZE;
+	return Arrays.copyOfRange(content, from, Math.min(from + CHUNK_SIZE, content.length));
+    }
+
+    private void persist(int chunkNumber, MessageDigest forked) throws IOException {
+	store(chunkNumber);
+
+	if (session.getDigest().advance(session, chunkNumber, forked))
+	    session.getDigest().catchUp(session, storage);
+    }
+
+    private void store(int chunkNumber) throws IOException {
+	storage.persist(session.getId(), chunkNumber, new ByteArrayInputStream(chunk(chunkNumber)));
+	session.getFileInfo().markChunkAsPersisted(chunkNumber);
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+	StringBuilder hex = new StringBuilder();
+	for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+	    hex.append(String.format("%02x", b));
+	}
+	return hex.toString();
+    }
+}
@@ -0,0 +1,273 @@
+package br.com.demo.chunkedupload.data;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.Durability;
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.StorageMode;
+import br.com.demo.chunkedupload.metrics.Metrics;
+
+public class LocalFileSystemRepositoryTest {
+    private static final String SESSION_ID = "session";
+    private static final int CHUNK_SIZE = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String root;
+
+    private ExecutorService copiers;
+
+    @Before
+    public void setUp() {
+	root = folder.getRoot().getAbsolutePath();
+	copiers = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+	copiers.shutdownNow();
+    }
+
+    @Test
+    public void persist_inChunkFilesMode_shouldWriteOneFilePerChunk() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+
+	long written = repository.persist(SESSION_ID, 1, new ByteArrayInputStream("abcd".getBytes()));
+
+	assertThat(written, equalTo(4L));
+	assertArrayEquals("abcd".getBytes(), Files.readAllBytes(Paths.get(root, SESSION_ID, "1")));
+    }
+
+    @Test
+    public void persist_inPreallocatedMode_shouldWriteChunksInPlace() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.PREALLOCATED);
+	repository.allocate(SESSION_ID, new FileInformation(10L, "file", CHUNK_SIZE));
+
+	repository.persist(SESSION_ID, 3, new ByteArrayInputStream("ij".getBytes()));
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream("abcd".getBytes()));
+	repository.persist(SESSION_ID, 2, new ByteArrayInputStream("efgh".getBytes()));
+
+	Path content = Paths.get(root, SESSION_ID, LocalFileSystemRepository.CONTENT_FILE_NAME);
+	assertArrayEquals("abcdefghij".getBytes(), Files.readAllBytes(content));
+	assertArrayEquals("efgh".getBytes(), repository.read(SESSION_ID, 2));
+	assertArrayEquals("ij".getBytes(), repository.read(SESSION_ID, 3));
+    }
+
+    @Test
+    public void allocate_inPreallocatedMode_shouldCreateFileWithDeclaredSize() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.PREALLOCATED);
+
+	repository.allocate(SESSION_ID, new FileInformation(10L, "file", CHUNK_SIZE));
+
+	assertThat(Files.size(Paths.get(root, SESSION_ID, LocalFileSystemRepository.CONTENT_FILE_NAME)), equalTo(10L));
+    }
+
+    @Test(expected = IOException.class)
+    public void persist_inPreallocatedModeWithOversizedChunk_shouldThrowIOException() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.PREALLOCATED);
+	repository.allocate(SESSION_ID, new FileInformation(10L, "file", CHUNK_SIZE));
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream("abcde".getBytes()));
+    }
+
+    @Test
+    public void delete_shouldRemoveSessionDirectory() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream("abcd".getBytes()));
+
+	repository.delete(SESSION_ID);
+
+	assertThat(Files.exists(Paths.get(root, SESSION_ID)), equalTo(false));
+    }
+
+    @Test
+    public void getContentStream_inChunkFilesMode_shouldConcatenateChunks() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+
+	assertArrayEquals("abcdefghij".getBytes(), uploadAndDownload(repository));
+    }
+
+    @Test
+    public void getContentStream_inPreallocatedMode_shouldStreamWholeFile() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.PREALLOCATED);
+
+	assertArrayEquals("abcdefghij".getBytes(), uploadAndDownload(repository));
+    }
+
+    @Test
+    public void getContentStream_withRangeAcrossChunks_shouldReturnOnlyThatRange() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+
+	assertArrayEquals("cdefghi".getBytes(), uploadAndDownload(repository, 2, 7));
+    }
+
+    @Test
+    public void getContentStream_inPreallocatedModeWithRange_shouldReturnOnlyThatRange() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.PREALLOCATED);
+
+	assertArrayEquals("cdefghi".getBytes(), uploadAndDownload(repository, 2, 7));
+    }
+
+    @Test
+    public void assemble_shouldMergeChunksIntoOneFileAndDropThem() throws Exception {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+	Session session = upload(repository);
+
+	repository.assemble(session, copiers, CHUNK_SIZE);
+
+	Path content = Paths.get(root, session.getId(), LocalFileSystemRepository.CONTENT_FILE_NAME);
+	assertArrayEquals("abcdefghij".getBytes(), Files.readAllBytes(content));
+	assertThat(Files.exists(Paths.get(root, session.getId(), "1")), equalTo(false));
+	assertThat(repository.isAssembled(session.getId()), equalTo(true));
+	assertArrayEquals("ij".getBytes(), repository.read(session.getId(), 3));
+	assertArrayEquals("cdefghi".getBytes(), download(repository, session, 2, 7));
+    }
+
+    @Test
+    public void assemble_withSingleSegment_shouldNotNeedCopiers() throws Exception {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+	Session session = upload(repository);
+	copiers.shutdown();
+
+	repository.assemble(session, copiers, Long.MAX_VALUE);
+
+	assertArrayEquals("abcdefghij".getBytes(), download(repository, session, 0, 10));
+    }
+
+    @Test
+    public void persist_afterAssembly_shouldWriteIntoTheAssembledFile() throws Exception {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+	Session session = upload(repository);
+	repository.assemble(session, copiers, CHUNK_SIZE);
+
+	repository.persist(session.getId(), 2, new ByteArrayInputStream("EFGH".getBytes()));
+
+	assertArrayEquals("abcdEFGHij".getBytes(), download(repository, session, 0, 10));
+    }
+
+    @Test
+    public void allocate_ofAssembledSessionAfterRestart_shouldReadTheAssembledFile() throws Exception {
+	Session session = upload(new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES));
+	new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES).assemble(session, copiers, CHUNK_SIZE);
+	LocalFileSystemRepository restarted = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES);
+
+	restarted.allocate(session.getId(), session.getFileInfo());
+
+	assertThat(restarted.isAssembled(session.getId()), equalTo(true));
+	assertArrayEquals("efgh".getBytes(), restarted.read(session.getId(), 2));
+    }
+
+    @Test
+    public void persist_withFsync_shouldWriteAndAssembleChunks() throws Exception {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES,
+		Durability.FSYNC);
+	Session session = upload(repository);
+
+	repository.assemble(session, copiers, CHUNK_SIZE);
+
+	assertArrayEquals("abcdefghij".getBytes(), download(repository, session, 0, 10));
+    }
+
+    @Test
+    public void persist_withFsyncInPreallocatedMode_shouldWriteChunksInPlace() throws Exception {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.PREALLOCATED,
+		Durability.FSYNC);
+
+	assertArrayEquals("abcdefghij".getBytes(), uploadAndDownload(repository));
+    }
+
+    @Test
+    public void persist_withGroupCommitFromConcurrentWriters_shouldPersistEveryChunk() throws Exception {
+	final LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES,
+		Durability.GROUP_COMMIT);
+	ExecutorService writers = Executors.newFixedThreadPool(8);
+	long rounds = Metrics.SYNC_ROUNDS.get();
+
+	try {
+	    List<Future<Long>> writes = new ArrayList<Future<Long>>();
+	    for (int i = 1; i <= 40; i++) {
+		final int chunkNumber = i;
+		writes.add(writers.submit(() -> repository.persist(SESSION_ID, chunkNumber,
+			new ByteArrayInputStream(String.format("%04d", chunkNumber).getBytes()))));
+	    }
+
+	    for (Future<Long> write : writes) {
+		assertThat(write.get(), equalTo(4L));
+	    }
+	} finally {
+	    writers.shutdownNow();
+	    repository.shutdown();
+	}
+
+	for (int i = 1; i <= 40; i++) {
+	    assertArrayEquals(String.format("%04d", i).getBytes(), repository.read(SESSION_ID, i));
+	}
+	assertThat(Metrics.SYNC_ROUNDS.get() > rounds, equalTo(true));
+	assertThat(Metrics.SYNC_ROUNDS.get() - rounds <= 40, equalTo(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void persist_withGroupCommitAfterShutdown_shouldThrowIOException() throws IOException {
+	LocalFileSystemRepository repository = new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES,
+		Durability.GROUP_COMMIT);
+	repository.shutdown();
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream("abcd".getBytes()));
+    }
+
+    @Test
+    public void durabilityFromString_shouldParseModeNames() {
+	assertThat(Durability.fromString("none"), equalTo(Durability.NONE));
+	assertThat(Durability.fromString("FSYNC"), equalTo(Durability.FSYNC));
+	assertThat(Durability.fromString("group-commit"), equalTo(Durability.GROUP_COMMIT));
+	assertThat(Durability.fromString(null), equalTo(Durability.NONE));
+    }
+
+    private byte[] uploadAndDownload(LocalFileSystemRepository repository) throws IOException {
+	return uploadAndDownload(repository, 0, 10);
+    }
+
+    private byte[] uploadAndDownload(LocalFileSystemRepository repository, long offset, long length)
+	    throws IOException {
+	return download(repository, upload(repository), offset, length);
+    }
+
+    private Session upload(LocalFileSystemRepository repository) throws IOException {
+	Session session = new Session(1L, new FileInformation(10L, "file", CHUNK_SIZE));
+	repository.allocate(session.getId(), session.getFileInfo());
+
+	repository.persist(session.getId(), 2, new ByteArrayInputStream("efgh".getBytes()));
+	repository.persist(session.getId(), 1, new ByteArrayInputStream("abcd".getBytes()));
+	repository.persist(session.getId(), 3, new ByteArrayInputStream("ij".getBytes()));
+
+	return session;
+    }
+
+    private byte[] download(LocalFileSystemRepository repository, Session session, long offset, long length)
+	    throws IOException {
+	ByteArrayOutputStream output = new ByteArrayOutputStream();
+	repository.getContentStream(session, offset, length).write(output);
+
+	return output.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package br.com.demo.chunkedupload.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.com.demo.chunkedupload.data.LocalFileSystemRepository.StorageMode;
+
+public class MemoryRepositoryTest {
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final String SESSION_ID = "session";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void persist_withChunkSpanningPages_shouldReadItBack() throws IOException {
+	MemoryRepository repository = new MemoryRepository(4 * PAGE_SIZE, null);
+	byte[] content = randomBytes(PAGE_SIZE * 2 + 10);
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream(content));
+
+	assertArrayEquals(content, repository.read(SESSION_ID, 1));
+    }
+
+    @Test
+    public void persist_whenBudgetIsExhausted_shouldSpillToDelegate() throws IOException {
+	String root = folder.getRoot().getAbsolutePath();
+	MemoryRepository repository = new MemoryRepository(PAGE_SIZE,
+		new LocalFileSystemRepository(root, StorageMode.CHUNK_FILES));
+	byte[] first = randomBytes(PAGE_SIZE);
+	byte[] second = randomBytes(PAGE_SIZE + 1);
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream(first));
+	repository.persist(SESSION_ID, 2, new ByteArrayInputStream(second));
+
+	assertArrayEquals(first, repository.read(SESSION_ID, 1));
+	assertArrayEquals(second, repository.read(SESSION_ID, 2));
+	assertArrayEquals(second, Files.readAllBytes(Paths.get(root, SESSION_ID, "2")));
+    }
+
+    @Test(expected = IOException.class)
+    public void persist_whenBudgetIsExhaustedWithoutSpill_shouldThrowIOException() throws IOException {
+	MemoryRepository repository = new MemoryRepository(PAGE_SIZE, null);
+
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream(randomBytes(PAGE_SIZE + 1)));
+    }
+
+    @Test
+    public void persist_overwritingChunk_shouldRecyclePages() throws IOException {
+	MemoryRepository repository = new MemoryRepository(2 * PAGE_SIZE, null);
+	byte[] content = randomBytes(PAGE_SIZE);
+
+	for (int i = 0; i < 5; i++) {
+	    repository.persist(SESSION_ID, 1, new ByteArrayInputStream(content));
+	}
+
+	assertArrayEquals(content, repository.read(SESSION_ID, 1));
+    }
+
+    @Test
+    public void persist_whenBodyFails_shouldGiveItsPagesBack() throws IOException {
+	MemoryRepository repository = new MemoryRepository(2 * PAGE_SIZE, null);
+	final byte[] received = randomBytes(PAGE_SIZE + 10);
+	InputStream aborted = new SequenceInputStream(new ByteArrayInputStream(received), new InputStream() {
+	    @Override
+	    public int read() throws IOException {
+		throw new IOException("Connection reset");
+	    }
+	});
+
+	try {
+	    repository.persist(SESSION_ID, 1, aborted);
+	    fail("Chunk was persisted");
+	} catch (IOException e) {
+	    // expected
+	}
+
+	// the whole budget is available again
+	byte[] content = randomBytes(2 * PAGE_SIZE);
+	repository.persist(SESSION_ID, 1, new ByteArrayInputStream(content));
+	assertArrayEquals(content, repository.read(SESSION_ID, 1));
+    }
+
+    @Test
+    public void getContentStream_withRange_shouldCopyFromPages() throws IOException {
+	MemoryRepository repository = new MemoryRepository(4 * PAGE_SIZE, null);
+	Session session = new Session(1L, new FileInformation(8L, "file", 4));
+
+	repository.persist(session.getId(), 1, new ByteArrayInputStream("abcd".getBytes()));
+	repository.persist(session.getId(), 2, new ByteArrayInputStream("efgh".getBytes()));
+
+	ByteArrayOutputStream output = new ByteArrayOutputStream();
+	repository.getContentStream(session, 3, 3).write(output);
+
+	assertArrayEquals("def".getBytes(), output.toByteArray());
+    }
+
+    private static byte[] randomBytes(int size) {
+	byte[] content = new byte[size];
+	new Random(size).nextBytes(content);
+	return content;
+    }
+}
@@ -0,0 +1,166 @@
+package br.com.demo.chunkedupload.data;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String directory;
+
+    @Before
+    public void setUp() {
+	directory = folder.getRoot().getAbsolutePath();
+    }
+
+    @Test
+    public void recover_shouldReplayCreatedSessionsAndPersistedChunks() throws IOException {
+	Session session = new Session(7L, new FileInformation(10L, "file", 4));
+
+	SessionJournal journal = new SessionJournal(directory);
+	journal.recover();
+	journal.sessionCreated(session);
+	journal.chunkPersisted(session, 1);
+	journal.chunkPersisted(session, 3);
+	journal.close();
+
+	List<Session> recovered = new SessionJournal(directory).recover();
+
+	assertThat(recovered.size(), equalTo(1));
+	Session restored = recovered.get(0);
+	assertThat(restored.getId(), equalTo(session.getId()));
+	assertThat(restored.getUser(), equalTo(7L));
+	assertThat(restored.getCreatedDate(), equalTo(session.getCreatedDate()));
+	assertThat(restored.getFileInfo().getFileName(), equalTo("file"));
+	assertThat(restored.getFileInfo().getFileSize(), equalTo(10L));
+	assertArrayEquals(new Integer[] { 1, 3 }, restored.getFileInfo().getAlreadyPersistedChunks());
+    }
+
+    @Test
+    public void recover_shouldCombineSnapshotAndJournalTail() throws IOException {
+	Session session = new Session(7L, new FileInformation(10L, "file", 4));
+	session.getFileInfo().markChunkAsPersisted(2);
+
+	SessionJournal journal = new SessionJournal(directory);
+	journal.recover();
+	journal.compact(() -> Arrays.asList(session));
+	journal.chunkPersisted(session, 1);
+	journal.sessionFailed(session);
+	journal.close();
+
+	List<Session> recovered = new SessionJournal(directory).recover();
+
+	assertThat(recovered.size(), equalTo(1));
+	assertThat(recovered.get(0).hasFailed(), equalTo(true));
+	assertArrayEquals(new Integer[] { 1, 2 }, recovered.get(0).getFileInfo().getAlreadyPersistedChunks());
+    }
+
+    @Test
+    public void recover_shouldDropRemovedSessions() throws IOException {
+	Session kept = new Session(1L, new FileInformation(10L, "kept", 4));
+	Session removed = new Session(2L, new FileInformation(10L, "removed", 4));
+
+	SessionJournal journal = new SessionJournal(directory);
+	journal.recover();
+	journal.sessionCreated(kept);
+	journal.sessionCreated(removed);
+	journal.sessionRemoved(removed);
+	journal.close();
+
+	List<Session> recovered = new SessionJournal(directory).recover();
+
+	assertThat(recovered.size(), equalTo(1));
+	assertThat(recovered.get(0).getId(), equalTo(kept.getId()));
+    }
+
+    @Test
+    public void recover_shouldIgnoreTornRecordAtTheEnd() throws IOException {
+	Session session = new Session(7L, new FileInformation(10L, "file", 4));
+
+	SessionJournal journal = new SessionJournal(directory);
+	journal.recover();
+	journal.sessionCreated(session);
+	journal.chunkPersisted(session, 1);
+	journal.close();
+
+	try (FileOutputStream out = new FileOutputStream(getOnlySegment().toFile(), true)) {
+	    out.write(new byte[] { 2, 0, 36 });
+	}
+
+	List<Session> recovered = new SessionJournal(directory).recover();
+
+	assertThat(recovered.size(), equalTo(1));
+	assertArrayEquals(new Integer[] { 1 }, recovered.get(0).getFileInfo().getAlreadyPersistedChunks());
+    }
+
+    @Test
+    public void compact_shouldLetAppendsThroughWhileTheSnapshotIsWritten() throws Exception {
+	final Session session = new Session(7L, new FileInformation(10L, "file", 4));
+	session.getFileInfo().markChunkAsPersisted(1);
+
+	final SessionJournal journal = new SessionJournal(directory);
+	journal.recover();
+	journal.sessionCreated(session);
+
+	final AtomicBoolean appended = new AtomicBoolean();
+	journal.compact(() -> {
+	    // a chunk persisted by another request while the snapshot is taken
+	    Thread upload = new Thread(() -> {
+		try {
+		    journal.chunkPersisted(session, 3);
+		    appended.set(true);
+		} catch (IOException e) {
+		    throw new RuntimeException(e);
+		}
+	    });
+	    upload.start();
+	    try {
+		upload.join(TimeUnit.SECONDS.toMillis(5));
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    return Arrays.asList(session);
+	});
+	journal.close();
+
+	assertTrue("Append waited for the compaction", appended.get());
+
+	List<Session> recovered = new SessionJournal(directory).recover();
+
+	assertThat(recovered.size(), equalTo(1));
+	assertArrayEquals(new Integer[] { 1, 3 }, recovered.get(0).getFileInfo().getAlreadyPersistedChunks());
+    }
+
+    private Path getOnlySegment() throws IOException {
+	List<Path> segments = new ArrayList<Path>();
+
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(directory), "*.journal")) {
+	    for (Path file : files) {
+		segments.add(file);
+	    }
+	}
+
+	assertThat(segments.size(), equalTo(1));
+	return segments.get(0);
+    }
+}
@@ -39,7 +39,7 @@ public class SessionTest {
     public void conclusion_withTotalNumberOfChunksDownloaded_shouldReturnConcluded() {
 	Long user = 1L;
 	Long timeout = 10000L;
-	when(fileInfo.getAlreadyPersistedChunks()).thenReturn(new Integer[1]);
+	when(fileInfo.getPersistedChunkCount()).thenReturn(1);
 	when(fileInfo.getTotalNumberOfChunks()).thenReturn(1);
 
 	Session session = new Session(user, fileInfo, timeout);
@@ -51,7 +51,7 @@ public class SessionTest {
     public void conclusion_withPartialNumberOfChunksDownloaded_shouldReturnConcluded() {
 	Long user = 1L;
 	Long timeout = 10000L;
-	when(fileInfo.getAlreadyPersistedChunks()).thenReturn(new Integer[0]);
+	when(fileInfo.getPersistedChunkCount()).thenReturn(0);
 	when(fileInfo.getTotalNumberOfChunks()).thenReturn(1);
 
 	Session session = new Session(user, fileInfo, timeout);
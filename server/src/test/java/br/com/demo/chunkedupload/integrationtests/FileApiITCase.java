@@ -75,7 +75,7 @@ public class FileApiITCase {
         int start = chunkIndex * CHUNK_SIZE;
         int end = (chunkIndex == NUMBER_OF_CHUNKS - 1) ? start + (FILE_SIZE % CHUNK_SIZE)  : start + CHUNK_SIZE;
         byte[] chunkContent = Arrays.copyOfRange(originalData, start, end);
-        Response response = api.uploadFileChunk(USER_ID, sessionId, (chunkIndex + 1), createStream(chunkContent));
+        Response response = api.uploadFileChunk(USER_ID, sessionId, (chunkIndex + 1), null, createStream(chunkContent));
 
         assertThat(response.getStatus(), equalTo(STATUS_OK));
     }
@@ -0,0 +1,45 @@
+package br.com.demo.chunkedupload.metrics;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void indexOf_shouldMapEveryValueToTheBucketThatHoldsIt() {
+	long[] values = { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE };
+
+	for (long value : values) {
+	    int index = Histogram.indexOf(value);
+
+	    assertTrue("upper bound of " + value, Histogram.upperBoundOf(index) >= value);
+	    assertTrue("lower bound of " + value, index == 0 || Histogram.upperBoundOf(index - 1) < value);
+	}
+    }
+
+    @Test
+    public void getValueAtQuantile_shouldBeWithinBucketPrecision() {
+	Histogram histogram = new Histogram("latency_seconds", "latency");
+
+	for (long value = 1; value <= 10000; value++) {
+	    histogram.record(value * 1000);
+	}
+
+	assertThat(histogram.getCount(), equalTo(10000L));
+	assertThat(histogram.getMax(), equalTo(10000000L));
+	assertWithin(5000000, histogram.getValueAtQuantile(0.5));
+	assertWithin(9900000, histogram.getValueAtQuantile(0.99));
+	assertThat(histogram.getValueAtQuantile(1.0), equalTo(10000000L));
+    }
+
+    @Test
+    public void getValueAtQuantile_whenEmpty_shouldBeZero() {
+	assertThat(new Histogram("latency_seconds", "latency").getValueAtQuantile(0.5), equalTo(0L));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+	assertTrue(actual + " should be close to " + expected, Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,33 @@
+package br.com.demo.chunkedupload.metrics;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+    @Test
+    public void toPrometheusText_shouldRenderEveryMetricType() {
+	MetricsRegistry registry = new MetricsRegistry();
+	registry.counter("bytes_total", "Bytes").add(42);
+	registry.counter("failures_total", "Failures", "exception").increment("Bad\"Request");
+	registry.gauge("sessions", "Sessions", () -> 3);
+	registry.histogram("latency_seconds", "Latency").record(2000000000L);
+
+	String text = registry.toPrometheusText();
+
+	assertThat(text, containsString("# TYPE bytes_total counter\nbytes_total 42\n"));
+	assertThat(text, containsString("failures_total{exception=\"Bad\\\"Request\"} 1\n"));
+	assertThat(text, containsString("# TYPE sessions gauge\nsessions 3\n"));
+	assertThat(text, containsString("# TYPE latency_seconds summary\n"));
+	assertThat(text, containsString("latency_seconds{quantile=\"0.5\"} 2.0\n"));
+	assertThat(text, containsString("latency_seconds_sum 2.0\nlatency_seconds_count 1\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void counter_withDuplicateName_shouldFail() {
+	MetricsRegistry registry = new MetricsRegistry();
+	registry.counter("bytes_total", "Bytes");
+	registry.counter("bytes_total", "Bytes");
+    }
+}
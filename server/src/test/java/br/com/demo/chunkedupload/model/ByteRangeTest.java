@@ -0,0 +1,66 @@
+package br.com.demo.chunkedupload.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+    private static final long FILE_SIZE = 100;
+
+    @Test
+    public void parse_withoutHeader_shouldReturnNull() {
+	assertThat(ByteRange.parse(null, FILE_SIZE), nullValue());
+    }
+
+    @Test
+    public void parse_withOtherUnit_shouldReturnNull() {
+	assertThat(ByteRange.parse("items=0-10", FILE_SIZE), nullValue());
+    }
+
+    @Test
+    public void parse_withClosedRange_shouldReturnRange() {
+	assertThat(ByteRange.parse("bytes=10-19", FILE_SIZE), equalTo(Arrays.asList(new ByteRange(10, 19))));
+    }
+
+    @Test
+    public void parse_withOpenRange_shouldEndAtLastByte() {
+	assertThat(ByteRange.parse("bytes=90-", FILE_SIZE), equalTo(Arrays.asList(new ByteRange(90, 99))));
+    }
+
+    @Test
+    public void parse_withSuffixRange_shouldReturnLastBytes() {
+	assertThat(ByteRange.parse("bytes=-5", FILE_SIZE), equalTo(Arrays.asList(new ByteRange(95, 99))));
+    }
+
+    @Test
+    public void parse_withEndBeyondFileSize_shouldClampToLastByte() {
+	assertThat(ByteRange.parse("bytes=50-500", FILE_SIZE), equalTo(Arrays.asList(new ByteRange(50, 99))));
+    }
+
+    @Test
+    public void parse_withMultipleRanges_shouldReturnAllOfThem() {
+	assertThat(ByteRange.parse("bytes=0-0, 10-19", FILE_SIZE),
+		equalTo(Arrays.asList(new ByteRange(0, 0), new ByteRange(10, 19))));
+    }
+
+    @Test
+    public void parse_withStartBeyondFileSize_shouldReturnEmptyList() {
+	assertThat(ByteRange.parse("bytes=100-", FILE_SIZE), equalTo(Collections.<ByteRange>emptyList()));
+    }
+
+    @Test
+    public void parse_withMalformedRange_shouldReturnNull() {
+	assertThat(ByteRange.parse("bytes=20-10", FILE_SIZE), nullValue());
+	assertThat(ByteRange.parse("bytes=a-b", FILE_SIZE), nullValue());
+    }
+
+    @Test
+    public void toContentRange_shouldFormatRangeAndSize() {
+	assertThat(new ByteRange(10, 19).toContentRange(FILE_SIZE), equalTo("bytes 10-19/100"));
+    }
+}
@@ -0,0 +1,473 @@
+package br.com.demo.chunkedupload.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.matchers.JUnitMatchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import br.com.demo.chunkedupload.data.FileInformation;
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.exception.BadRequestException;
+import br.com.demo.chunkedupload.exception.ConflictException;
+import br.com.demo.chunkedupload.exception.OverloadedException;
+import br.com.demo.chunkedupload.service.AdmissionController;
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+import br.com.demo.chunkedupload.service.UploadService;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class AsyncUploadServletTest {
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_SERVER_BUSY = 202;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_REQUEST_TIMEOUT = 408;
+    private static final int STATUS_CONFLICT = 409;
+
+    private static final String SESSION_ID = "session";
+
+    @Mock
+    private UploadService uploadService;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    @Mock
+    private AsyncContext async;
+
+    private ByteArrayOutputStream responseBody;
+
+    private AsyncUploadServlet servlet;
+
+    @Before
+    public void setUp() throws IOException, OverloadedException {
+	Executor direct = new Executor() {
+	    @Override
+	    public void execute(Runnable command) {
+		command.run();
+	    }
+	};
+	servlet = new AsyncUploadServlet(uploadService, direct, 1000);
+
+	responseBody = new ByteArrayOutputStream();
+	when(response.getOutputStream()).thenReturn(new BufferedServletOutputStream(responseBody));
+	when(request.startAsync()).thenReturn(async);
+	when(async.getResponse()).thenReturn(response);
+
+	given(uploadService.getSession(SESSION_ID))
+		.willReturn(new Session(1L, new FileInformation(10L, "file", 4)));
+	given(uploadService.admit(anyString(), any(), anyInt())).willReturn(AdmissionController.Permit.UNLIMITED);
+    }
+
+    @Test
+    public void doPut_whenServerIsSaturated_shouldRespondBusyWithRetryAfterWithoutPersisting() throws Exception {
+	whenPutting("/upload/user/1/session/session", "2", "efgh");
+	when(uploadService.admit(SESSION_ID, 1L, 2))
+		.thenThrow(new OverloadedException(OverloadedException.SERVER_BUSY, "Server busy. Try again.", 3));
+
+	servlet.doPut(request, response);
+
+	verify(response).setStatus(STATUS_SERVER_BUSY);
+	verify(response).addHeader("Retry-After", "3");
+	verify(async).complete();
+	verify(uploadService, never()).persistBlock(anyString(), anyLong(), anyInt(), any(InputStream.class), any());
+    }
+
+    @Test
+    public void doPut_shouldHoldThePermitOnlyWhileTheChunkIsWritten() throws Exception {
+	AdmissionController.Permit permit = mock(AdmissionController.Permit.class);
+	when(uploadService.admit(SESSION_ID, 1L, 2)).thenReturn(permit);
+	whenPutting("/upload/user/1/session/session", "2", "efgh");
+
+	servlet.doPut(request, response);
+
+	InOrder order = inOrder(request, uploadService, permit);
+	order.verify(request).getInputStream();
+	order.verify(uploadService).admit(SESSION_ID, 1L, 2);
+	order.verify(uploadService).persistBlock(eq(SESSION_ID), eq(1L), eq(2), any(InputStream.class), isNull());
+	order.verify(permit).close();
+    }
+
+    @Test
+    public void doPut_shouldPersistTheWholeBodyAndComplete() throws Exception {
+	whenPutting("/upload/user/1/session/session", "2", "efgh");
+
+	servlet.doPut(request, response);
+
+	verify(uploadService).persistBlock(eq(SESSION_ID), eq(1L), eq(2), any(InputStream.class), isNull());
+	verify(response).setStatus(STATUS_OK);
+	verify(async).complete();
+    }
+
+    @Test
+    public void doPut_withChecksumHeader_shouldPassTheChecksumOn() throws Exception {
+	whenPutting("/upload/user/1/session/session", "2", "efgh");
+	when(request.getHeader("X-Chunk-CRC32C")).thenReturn("0000BEEF");
+
+	servlet.doPut(request, response);
+
+	verify(uploadService).persistBlock(eq(SESSION_ID), eq(1L), eq(2), any(InputStream.class), eq(0xbeefL));
+	verify(response).setStatus(STATUS_OK);
+    }
+
+    @Test
+    public void doPut_withPersistedChunkAndItsChecksum_shouldRespondWithoutReadingTheBody() throws Exception {
+	whenPutting("/upload/user/1/session/session", "2", "efgh");
+	when(request.getHeader("X-Chunk-CRC32C")).thenReturn("0000beef");
+	when(uploadService.isDuplicateChunk(any(Session.class), eq(2), eq(0xbeefL))).thenReturn(true);
+
+	servlet.doPut(request, response);
+
+	verify(response).setStatus(STATUS_OK);
+	verify(request, never()).startAsync();
+	verify(uploadService, never()).persistBlock(anyString(), anyLong(), anyInt(), any(InputStream.class), any());
+    }
+
+    @Test
+    public void doPut_withPersistedChunkAndOtherChecksum_shouldRespondConflict() throws Exception {
+	whenPutting("/upload/user/1/session/session", "2", "efgh");
+	when(request.getHeader("X-Chunk-CRC32C")).thenReturn("0000beef");
+	when(uploadService.isDuplicateChunk(any(Session.class), eq(2), eq(0xbeefL)))
+		.thenThrow(new ConflictException("Chunk 2 was already persisted"));
+
+	servlet.doPut(request, response);
+
+	verify(response).setStatus(STATUS_CONFLICT);
+	verify(request, never()).startAsync();
+    }
+
+    @Test
+    public void doPut_withMalformedChecksumHeader_shouldRespondBadRequest() throws Exception {
+	whenPutting("/upload/user/1/session/session", "2", "efgh");
+	when(request.getHeader("X-Chunk-CRC32C")).thenReturn("not-a-crc");
+
+	servlet.doPut(request, response);
+
+	verify(uploadService, never()).persistBlock(anyString(), anyLong(), anyInt(), any(InputStream.class), any());
+	verify(response).setStatus(STATUS_BAD_REQUEST);
+	assertThat(responseBody.toString(), containsString("Invalid chunk checksum"));
+    }
+
+    @Test
+    public void doPut_withBodyLargerThanChunk_shouldRespondBadRequest() throws Exception {
+	whenPutting("/upload/user/1/session/session", "3", "ijkl");
+
+	servlet.doPut(request, response);
+
+	verify(uploadService, never()).persistBlock(anyString(), anyLong(), anyInt(), any(InputStream.class), any());
+	verify(response).setStatus(STATUS_BAD_REQUEST);
+	assertThat(responseBody.toString(), containsString("Chunk is larger than expected"));
+	verify(async).complete();
+    }
+
+    @Test
+    public void doPut_withBodyShorterThanChunk_shouldRespondBadRequestWithoutPersisting() throws Exception {
+	whenPutting("/upload/user/1/session/session", "2", "ef");
+
+	servlet.doPut(request, response);
+
+	verify(uploadService, never()).persistBlock(anyString(), anyLong(), anyInt(), any(InputStream.class), any());
+	verify(response).setStatus(STATUS_BAD_REQUEST);
+	assertThat(responseBody.toString(), containsString("Chunk 2 has 2 bytes, expected 4"));
+	verify(async).complete();
+    }
+
+    @Test
+    public void doPut_withBodyLargerThanBuffer_shouldSpillItAndPersistItOnceComplete() throws Exception {
+	ExecutorService pool = Executors.newSingleThreadExecutor();
+	servlet = new AsyncUploadServlet(uploadService, pool, 1000, 2);
+
+	when(request.getPathInfo()).thenReturn("/upload/user/1/session/session");
+	when(request.getParameter("chunkNumber")).thenReturn("1");
+	when(request.getInputStream()).thenReturn(new TricklingServletInputStream("abcd".getBytes()));
+
+	final ByteArrayOutputStream persisted = new ByteArrayOutputStream();
+	doAnswer(invocation -> {
+	    InputStream content = invocation.getArgument(3);
+	    for (int b = content.read(); b != -1; b = content.read()) {
+		persisted.write(b);
+	    }
+	    return null;
+	}).when(uploadService).persistBlock(anyString(), anyLong(), anyInt(), any(InputStream.class), any());
+
+	try {
+	    servlet.doPut(request, response);
+
+	    verify(async, timeout(5000)).complete();
+	    verify(response).setStatus(STATUS_OK);
+	    assertEquals("abcd", persisted.toString());
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    @Test
+    public void doPut_whileTheBodyIsIncomplete_shouldNotHandItToAWorker() throws Exception {
+	Executor pool = mock(Executor.class);
+	servlet = new AsyncUploadServlet(uploadService, pool, 1000);
+
+	when(request.getPathInfo()).thenReturn("/upload/user/1/session/session");
+	when(request.getParameter("chunkNumber")).thenReturn("2");
+	when(request.getInputStream()).thenReturn(new ImmediateServletInputStream("ef".getBytes()) {
+	    @Override
+	    public void setReadListener(ReadListener readListener) {
+		try {
+		    // the rest of the body is still on its way
+		    readListener.onDataAvailable();
+		} catch (IOException e) {
+		    readListener.onError(e);
+		}
+	    }
+	});
+
+	servlet.doPut(request, response);
+
+	verify(pool, never()).execute(any(Runnable.class));
+	verify(async, never()).complete();
+    }
+
+    @Test
+    public void doPut_withBandwidthLimit_shouldReadTheBodyNoFasterThanTheLimit() throws Exception {
+	int length = 96 * 1024;
+	given(uploadService.getSession("large"))
+		.willReturn(new Session(1L, new FileInformation((long) length, "file", length)));
+	given(uploadService.getBandwidthLimiter()).willReturn(new BandwidthLimiter(0, 64 * 1024));
+
+	when(request.getPathInfo()).thenReturn("/upload/user/1/session/large");
+	when(request.getParameter("chunkNumber")).thenReturn("1");
+	when(request.getInputStream()).thenReturn(new TricklingServletInputStream(new byte[length], 16 * 1024));
+
+	long started = System.nanoTime();
+	servlet.doPut(request, response);
+
+	// one second of burst, then half a second of throttling
+	verify(async, timeout(5000)).complete();
+	long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+	verify(response).setStatus(STATUS_OK);
+	assertTrue("Read in " + millis + "ms", millis >= 400);
+    }
+
+    @Test
+    public void doPut_whenRequestTimesOut_shouldRespondAndComplete() throws Exception {
+	when(request.getPathInfo()).thenReturn("/upload/user/1/session/session");
+	when(request.getParameter("chunkNumber")).thenReturn("1");
+	when(request.getInputStream()).thenReturn(new TricklingServletInputStream(new byte[0]) {
+	    @Override
+	    public void setReadListener(ReadListener readListener) {
+		// the client never sends its body
+	    }
+	});
+
+	servlet.doPut(request, response);
+
+	ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+	verify(async).addListener(listener.capture());
+	listener.getValue().onTimeout(null);
+
+	verify(response).setStatus(STATUS_REQUEST_TIMEOUT);
+	verify(async).complete();
+	verify(uploadService, never()).persistBlock(anyString(), anyLong(), anyInt(), any(InputStream.class), any());
+    }
+
+    @Test
+    public void doPut_whenPersistFails_shouldRespondWithMappedError() throws Exception {
+	whenPutting("/upload/user/1/session/session", "1", "abcd");
+	doThrow(new BadRequestException("Invalid chunk number")).when(uploadService).persistBlock(anyString(),
+		anyLong(), anyInt(), any(InputStream.class), any());
+
+	servlet.doPut(request, response);
+
+	verify(response).setStatus(STATUS_BAD_REQUEST);
+	verify(async).complete();
+    }
+
+    @Test
+    public void doPut_withUnknownSession_shouldRespondNotFoundWithoutGoingAsync() throws Exception {
+	whenPutting("/upload/user/1/session/unknown", "1", "abcd");
+
+	servlet.doPut(request, response);
+
+	verify(response).setStatus(STATUS_NOT_FOUND);
+	verify(request, never()).startAsync();
+    }
+
+    @Test
+    public void doPut_withInvalidChunkNumber_shouldRespondBadRequest() throws Exception {
+	whenPutting("/upload/user/1/session/session", "x", "abcd");
+
+	servlet.doPut(request, response);
+
+	verify(response).setStatus(STATUS_BAD_REQUEST);
+	verify(request, never()).startAsync();
+    }
+
+    private void whenPutting(String path, String chunkNumber, String body) throws IOException {
+	when(request.getPathInfo()).thenReturn(path);
+	when(request.getParameter("chunkNumber")).thenReturn(chunkNumber);
+	when(request.getInputStream()).thenReturn(new ImmediateServletInputStream(body.getBytes()));
+    }
+
+    /**
+     * Has the whole body available at once, and notifies its listener as soon as
+     * it is registered
+     */
+    private static class ImmediateServletInputStream extends ServletInputStream {
+	private final ByteArrayInputStream body;
+
+	ImmediateServletInputStream(byte[] body) {
+	    this.body = new ByteArrayInputStream(body);
+	}
+
+	@Override
+	public int read() throws IOException {
+	    return body.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+	    return body.read(b, off, len);
+	}
+
+	@Override
+	public boolean isFinished() {
+	    return body.available() == 0;
+	}
+
+	@Override
+	public boolean isReady() {
+	    return true;
+	}
+
+	@Override
+	public void setReadListener(ReadListener readListener) {
+	    try {
+		readListener.onDataAvailable();
+		readListener.onAllDataRead();
+	    } catch (IOException e) {
+		readListener.onError(e);
+	    }
+	}
+    }
+
+    /**
+     * Hands out its body a few bytes per read, and notifies its listener of the end
+     * of the body once a read finds it, like a container does
+     */
+    private static class TricklingServletInputStream extends ServletInputStream {
+	private final ByteArrayInputStream body;
+	private final int step;
+
+	private ReadListener listener;
+
+	TricklingServletInputStream(byte[] body) {
+	    this(body, 1);
+	}
+
+	TricklingServletInputStream(byte[] body, int step) {
+	    this.body = new ByteArrayInputStream(body);
+	    this.step = step;
+	}
+
+	@Override
+	public int read() throws IOException {
+	    int b = body.read();
+	    if (b == -1)
+		listener.onAllDataRead();
+	    return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+	    int read = body.read(b, off, Math.min(len, step));
+	    if (read == -1)
+		listener.onAllDataRead();
+	    return read;
+	}
+
+	@Override
+	public boolean isFinished() {
+	    return body.available() == 0;
+	}
+
+	@Override
+	public boolean isReady() {
+	    return true;
+	}
+
+	@Override
+	public void setReadListener(ReadListener readListener) {
+	    listener = readListener;
+	    try {
+		readListener.onDataAvailable();
+	    } catch (IOException e) {
+		readListener.onError(e);
+	    }
+	}
+    }
+
+    private static class BufferedServletOutputStream extends ServletOutputStream {
+	private final ByteArrayOutputStream target;
+
+	BufferedServletOutputStream(ByteArrayOutputStream target) {
+	    this.target = target;
+	}
+
+	@Override
+	public void write(int b) {
+	    target.write(b);
+	}
+
+	@Override
+	public boolean isReady() {
+	    return true;
+	}
+
+	@Override
+	public void setWriteListener(WriteListener writeListener) {
+	}
+    }
+}
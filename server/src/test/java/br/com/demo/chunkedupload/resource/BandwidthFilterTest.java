@@ -0,0 +1,152 @@
+package br.com.demo.chunkedupload.resource;
+
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+import br.com.demo.chunkedupload.service.ChunkSizeAdvisor;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class BandwidthFilterTest {
+    private static final int KB = 1024;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    @Mock
+    private FilterChain chain;
+
+    @Mock
+    private ChunkSizeAdvisor advisor;
+
+    private BandwidthFilter filter;
+
+    @Before
+    public void setUp() throws IOException {
+	filter = new BandwidthFilter(new BandwidthLimiter(0, 256 * KB), advisor);
+
+	when(request.getMethod()).thenReturn("PUT");
+	when(request.getInputStream()).thenReturn(new ArrayServletInputStream(new byte[384 * KB]));
+    }
+
+    @Test
+    public void doFilter_onChunkUpload_shouldReadTheBodyWithinTheLimits() throws Exception {
+	when(request.getPathInfo()).thenReturn("/file/upload/user/1/session/abc/");
+
+	ServletRequest filtered = filter(request);
+
+	// one second of burst, then half a second of throttling
+	long millis = timeToRead(filtered.getInputStream());
+	assertTrue("Read in " + millis + "ms", millis >= 400);
+    }
+
+    @Test
+    public void doFilter_onChunkUpload_shouldSampleTheLinkWithoutTheThrottling() throws Exception {
+	when(request.getPathInfo()).thenReturn("/file/upload/user/1/session/abc/");
+	doAnswer(invocation -> timeToRead(((ServletRequest) invocation.getArgument(0)).getInputStream()))
+		.when(chain).doFilter(any(), any());
+
+	filter.doFilter(request, response, chain);
+
+	verify(advisor).recordTransfer(eq(1L), eq(384L * KB),
+		longThat(nanos -> nanos < TimeUnit.MILLISECONDS.toNanos(400)));
+    }
+
+    @Test
+    public void doFilter_onBatchUpload_shouldThrottleTheBody() throws Exception {
+	when(request.getPathInfo()).thenReturn("/file/upload/user/1/session/abc/batch");
+
+	ServletRequest filtered = filter(request);
+
+	assertThat(filtered, not(sameInstance((ServletRequest) request)));
+    }
+
+    @Test
+    public void doFilter_onOtherRequests_shouldPassThemAsTheyAre() throws Exception {
+	when(request.getPathInfo()).thenReturn("/file/create/1");
+	when(request.getMethod()).thenReturn("POST");
+
+	ServletRequest filtered = filter(request);
+
+	assertThat(filtered, sameInstance((ServletRequest) request));
+    }
+
+    private ServletRequest filter(HttpServletRequest request) throws Exception {
+	filter.doFilter(request, response, chain);
+
+	ArgumentCaptor<ServletRequest> filtered = ArgumentCaptor.forClass(ServletRequest.class);
+	verify(chain).doFilter(filtered.capture(), any());
+	return filtered.getValue();
+    }
+
+    private static long timeToRead(ServletInputStream body) throws IOException {
+	long started = System.nanoTime();
+	byte[] buffer = new byte[16 * KB];
+
+	while (body.read(buffer) != -1) {
+	}
+
+	return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    private static class ArrayServletInputStream extends ServletInputStream {
+	private final ByteArrayInputStream body;
+
+	ArrayServletInputStream(byte[] body) {
+	    this.body = new ByteArrayInputStream(body);
+	}
+
+	@Override
+	public int read() {
+	    return body.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+	    return body.read(b, off, len);
+	}
+
+	@Override
+	public boolean isFinished() {
+	    return body.available() == 0;
+	}
+
+	@Override
+	public boolean isReady() {
+	    return true;
+	}
+
+	@Override
+	public void setReadListener(ReadListener readListener) {
+	}
+    }
+}
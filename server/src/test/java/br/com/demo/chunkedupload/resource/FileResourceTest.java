@@ -3,19 +3,30 @@ package br.com.demo.chunkedupload.resource;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.ws.rs.WebApplicationException;
@@ -28,19 +39,30 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import br.com.demo.chunkedupload.data.FileDigest;
 import br.com.demo.chunkedupload.data.FileInformation;
 import br.com.demo.chunkedupload.data.Session;
 import br.com.demo.chunkedupload.exception.ApiException;
 import br.com.demo.chunkedupload.exception.BadRequestException;
+import br.com.demo.chunkedupload.exception.ChecksumMismatchException;
+import br.com.demo.chunkedupload.exception.ConflictException;
+import br.com.demo.chunkedupload.exception.InsufficientStorageException;
 import br.com.demo.chunkedupload.exception.InvalidOperationException;
 import br.com.demo.chunkedupload.exception.NotFoundException;
+import br.com.demo.chunkedupload.exception.OverloadedException;
+import br.com.demo.chunkedupload.model.BatchUploadResponse;
+import br.com.demo.chunkedupload.model.ByteRange;
 import br.com.demo.chunkedupload.model.UploadStatusResponse;
+import br.com.demo.chunkedupload.model.UploadsSummaryResponse;
+import br.com.demo.chunkedupload.service.SessionPage;
 import br.com.demo.chunkedupload.service.UploadService;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FileResourceTest {
 
     private static final int STATUS_OK = 200;
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
     private static final int STATUS_BAD_REQUEST = 400;
     private static final int STATUS_FORBIDDEN = 403;
     private static final int STATUS_NOT_FOUND = 404;
@@ -85,6 +107,16 @@ public class FileResourceTest {
 	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
     }
 
+    @Test
+    public void startSession_withoutStorageSpace_shouldReturnInsufficientStorage() throws ApiException {
+	when(uploadService.createSession(any(), any(), anyInt(), any()))
+		.thenThrow(new InsufficientStorageException("Not enough storage space"));
+
+	Response response = fileResource.startSession(1L, 1, 1L, UUID.randomUUID().toString());
+
+	assertThat(response.getStatus(), equalTo(507));
+    }
+
     @Test
     public void startSession_WithGenericApiException_shouldReturnForbiddenStatus() throws ApiException {
 	given(uploadService.createSession(any(), any(), anyInt(), any())).willAnswer(invocation -> {
@@ -111,7 +143,7 @@ public class FileResourceTest {
     public void uploadFileChunk_withValidData_shouldReturnSuccess() {
 	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
 
-	Response response = fileResource.uploadFileChunk(1L, UUID.randomUUID().toString(), 1, inputStream);
+	Response response = fileResource.uploadFileChunk(1L, UUID.randomUUID().toString(), 1, null, inputStream);
 
 	assertThat(response.getStatus(), equalTo(STATUS_OK));
     }
@@ -120,7 +152,7 @@ public class FileResourceTest {
     public void uploadFileChunk_withMissingUserId_shouldReturnBadRequest() {
 	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
 
-	Response response = fileResource.uploadFileChunk(null, UUID.randomUUID().toString(), 1, inputStream);
+	Response response = fileResource.uploadFileChunk(null, UUID.randomUUID().toString(), 1, null, inputStream);
 
 	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
     }
@@ -129,7 +161,7 @@ public class FileResourceTest {
     public void uploadFileChunk_withMissingSessionId_shouldReturnBadRequest() {
 	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
 
-	Response response = fileResource.uploadFileChunk(1L, null, 1, inputStream);
+	Response response = fileResource.uploadFileChunk(1L, null, 1, null, inputStream);
 
 	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
     }
@@ -138,49 +170,214 @@ public class FileResourceTest {
     public void uploadFileChunk_withInvalidChunkNumber_shouldReturnBadRequest() {
 	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
 
-	Response response = fileResource.uploadFileChunk(1L, UUID.randomUUID().toString(), 0, inputStream);
+	Response response = fileResource.uploadFileChunk(1L, UUID.randomUUID().toString(), 0, null, inputStream);
 
 	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
     }
 
+    @Test
+    public void uploadFileChunk_withMalformedChecksum_shouldReturnBadRequest() throws ApiException, IOException {
+	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
+
+	Response response = fileResource.uploadFileChunk(1L, UUID.randomUUID().toString(), 1, "123456789", inputStream);
+
+	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
+	verify(uploadService, never()).persistBlock(any(), any(), anyInt(), any(InputStream.class), any());
+    }
+
+    @Test
+    public void uploadFileChunk_whenChecksumDoesNotMatch_shouldReturnBadRequest() throws ApiException, IOException {
+	doThrow(new ChecksumMismatchException("")).when(uploadService).persistBlock(any(), any(), anyInt(),
+		any(InputStream.class), eq(0xe3069283L));
+	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
+
+	Response response = fileResource.uploadFileChunk(1L, "some random value", 1, "e3069283", inputStream);
+
+	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
+    }
+
+    @Test
+    public void uploadFileChunk_whenUserExceedsFairShare_shouldReturnTooManyRequestsWithRetryAfter()
+	    throws ApiException, IOException {
+	when(uploadService.admit("some random value", 1L, 1)).thenThrow(
+		new OverloadedException(OverloadedException.TOO_MANY_REQUESTS, "Too many chunks in flight", 7));
+	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
+
+	Response response = fileResource.uploadFileChunk(1L, "some random value", 1, null, inputStream);
+
+	assertThat(response.getStatus(), equalTo(429));
+	assertThat(response.getMetadata().getFirst("Retry-After"), equalTo((Object) 7L));
+	verify(uploadService, never()).persistBlock(any(), any(), anyInt(), any(InputStream.class), any());
+    }
+
+    @Test
+    public void uploadFileChunk_whenChunkWasPersistedWithOtherContent_shouldReturnConflict()
+	    throws ApiException, IOException {
+	doThrow(new ConflictException("")).when(uploadService).persistBlock(any(), any(), anyInt(),
+		any(InputStream.class), any());
+	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
+
+	Response response = fileResource.uploadFileChunk(1L, "some random value", 1, null, inputStream);
+
+	assertThat(response.getStatus(), equalTo(409));
+    }
+
     @Test
     public void uploadFileChunk_whenSessionNotFound_shouldReturnObjectNotFoundStatus()
 	    throws ApiException, IOException {
-	doThrow(new NotFoundException("")).when(uploadService).persistBlock(any(), any(), anyInt(), any());
+	doThrow(new NotFoundException("")).when(uploadService).persistBlock(any(), any(), anyInt(), any(InputStream.class),
+		any());
 	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
 	String sessionId = "some random value";
 
-	Response response = fileResource.uploadFileChunk(1L, sessionId, 1, inputStream);
+	Response response = fileResource.uploadFileChunk(1L, sessionId, 1, null, inputStream);
 
 	assertThat(response.getStatus(), equalTo(STATUS_NOT_FOUND));
     }
 
     @Test
     public void uploadFileChunk_whenIOException_shouldReturnServerError() throws ApiException, IOException {
-	doThrow(new IOException("")).when(uploadService).persistBlock(any(), any(), anyInt(), any());
+	doThrow(new IOException("")).when(uploadService).persistBlock(any(), any(), anyInt(), any(InputStream.class),
+		any());
 	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
 	String sessionId = "some random value";
 
-	Response response = fileResource.uploadFileChunk(1L, sessionId, 1, inputStream);
+	Response response = fileResource.uploadFileChunk(1L, sessionId, 1, null, inputStream);
 
 	assertThat(response.getStatus(), equalTo(STATUS_SERVER_ERROR));
     }
 
     @Test
     public void uploadFileChunk_whenGenericApiException_shouldReturnForbiddenStatus() throws ApiException, IOException {
-	doThrow(new ApiException(0, "")).when(uploadService).persistBlock(any(), any(), anyInt(), any());
+	doThrow(new ApiException(0, "")).when(uploadService).persistBlock(any(), any(), anyInt(), any(InputStream.class),
+		any());
 	InputStream inputStream = new ByteArrayInputStream("test".getBytes());
 	String sessionId = "some random value";
 
-	Response response = fileResource.uploadFileChunk(1L, sessionId, 1, inputStream);
+	Response response = fileResource.uploadFileChunk(1L, sessionId, 1, null, inputStream);
 
 	assertThat(response.getStatus(), equalTo(STATUS_FORBIDDEN));
     }
 
+    @Test
+    public void uploadFileChunks_withSeveralChunks_shouldPersistEachOneInOrder() throws Exception {
+	String sessionId = "valid_session_id";
+	when(uploadService.getSession(sessionId)).thenReturn(session);
+	when(file.getChunkSize()).thenReturn(4);
+	when(file.getTotalNumberOfChunks()).thenReturn(10);
+	final List<String> persisted = new ArrayList<String>();
+	doAnswer(invocation -> {
+	    persisted.add(invocation.getArgument(2) + ":" + readAll(invocation.getArgument(3)));
+	    return null;
+	}).when(uploadService).persistBlock(eq(sessionId), eq(1L), anyInt(), any(InputStream.class));
+
+	Response response = fileResource.uploadFileChunks(1L, sessionId, batch(1, "abcd", 2, "ef"));
+
+	assertThat(response.getStatus(), equalTo(STATUS_OK));
+	assertThat(persisted, equalTo(Arrays.asList("1:abcd", "2:ef")));
+	assertThat(((BatchUploadResponse) response.getEntity()).getPersistedChunks(), equalTo(2));
+    }
+
+    @Test
+    public void uploadFileChunks_withOversizedChunk_shouldReportItAndPersistTheOthers() throws Exception {
+	String sessionId = "valid_session_id";
+	when(uploadService.getSession(sessionId)).thenReturn(session);
+	when(file.getChunkSize()).thenReturn(4);
+	when(file.getTotalNumberOfChunks()).thenReturn(10);
+
+	Response response = fileResource.uploadFileChunks(1L, sessionId, batch(1, "abcdef", 2, "gh"));
+
+	BatchUploadResponse results = (BatchUploadResponse) response.getEntity();
+	assertThat(response.getStatus(), equalTo(STATUS_OK));
+	assertThat(results.getChunks().get(0).getStatus(), equalTo(STATUS_BAD_REQUEST));
+	assertThat(results.getChunks().get(1).getStatus(), equalTo(STATUS_OK));
+	verify(uploadService, never()).persistBlock(any(), any(), eq(1), any(InputStream.class));
+	verify(uploadService).persistBlock(eq(sessionId), eq(1L), eq(2), any(InputStream.class));
+    }
+
+    @Test
+    public void uploadFileChunks_whenChunkFails_shouldReportItsStatus() throws Exception {
+	String sessionId = "valid_session_id";
+	when(uploadService.getSession(sessionId)).thenReturn(session);
+	when(file.getChunkSize()).thenReturn(4);
+	when(file.getTotalNumberOfChunks()).thenReturn(10);
+	doThrow(new BadRequestException("Invalid chunk number")).when(uploadService).persistBlock(any(), any(), eq(9),
+		any(InputStream.class));
+
+	Response response = fileResource.uploadFileChunks(1L, sessionId, batch(9, "abcd", 1, "efgh"));
+
+	BatchUploadResponse results = (BatchUploadResponse) response.getEntity();
+	assertThat(results.getFailedChunks(), equalTo(1));
+	assertThat(results.getChunks().get(0).getStatus(), equalTo(STATUS_BAD_REQUEST));
+	assertThat(results.getChunks().get(0).getMessage(), equalTo("Invalid chunk number"));
+	assertThat(results.getChunks().get(1).getStatus(), equalTo(STATUS_OK));
+    }
+
+    @Test
+    public void uploadFileChunks_withChunkNumberBeyondTheFile_shouldReportItWithoutPersisting() throws Exception {
+	String sessionId = "valid_session_id";
+	when(uploadService.getSession(sessionId)).thenReturn(session);
+	when(file.getChunkSize()).thenReturn(4);
+	when(file.getTotalNumberOfChunks()).thenReturn(2);
+
+	Response response = fileResource.uploadFileChunks(1L, sessionId, batch(3, "abcd", 2, "efgh"));
+
+	BatchUploadResponse results = (BatchUploadResponse) response.getEntity();
+	assertThat(results.getChunks().get(0).getStatus(), equalTo(STATUS_BAD_REQUEST));
+	assertThat(results.getChunks().get(1).getStatus(), equalTo(STATUS_OK));
+	verify(uploadService, never()).persistBlock(any(), any(), eq(3), any(InputStream.class));
+    }
+
+    @Test
+    public void uploadFileChunks_whenChunkIsTurnedDown_shouldReturnRetryAfter() throws Exception {
+	String sessionId = "valid_session_id";
+	when(uploadService.getSession(sessionId)).thenReturn(session);
+	when(file.getChunkSize()).thenReturn(4);
+	when(file.getTotalNumberOfChunks()).thenReturn(10);
+	when(uploadService.admit(sessionId, 1L, 2)).thenThrow(
+		new OverloadedException(OverloadedException.SERVER_BUSY, "Server busy", 3));
+	when(uploadService.admit(sessionId, 1L, 3)).thenThrow(
+		new OverloadedException(OverloadedException.TOO_MANY_REQUESTS, "Too many chunks in flight", 7));
+
+	Response response = fileResource.uploadFileChunks(1L, sessionId, batch(1, "abcd", 2, "efgh", 3, "ijkl"));
+
+	BatchUploadResponse results = (BatchUploadResponse) response.getEntity();
+	assertThat(response.getStatus(), equalTo(STATUS_OK));
+	assertThat(response.getMetadata().getFirst("Retry-After"), equalTo((Object) 7L));
+	assertThat(results.getChunks().get(0).getRetryAfterSeconds(), nullValue());
+	assertThat(results.getChunks().get(1).getStatus(), equalTo(OverloadedException.SERVER_BUSY));
+	assertThat(results.getChunks().get(1).getRetryAfterSeconds(), equalTo(3L));
+	assertThat(results.getChunks().get(2).getRetryAfterSeconds(), equalTo(7L));
+    }
+
+    @Test
+    public void uploadFileChunks_withTruncatedBody_shouldReturnBadRequest() throws Exception {
+	String sessionId = "valid_session_id";
+	when(uploadService.getSession(sessionId)).thenReturn(session);
+	when(file.getChunkSize()).thenReturn(4);
+	when(file.getTotalNumberOfChunks()).thenReturn(10);
+	byte[] body = readAll(batch(1, "abcd")).getBytes();
+
+	Response response = fileResource.uploadFileChunks(1L, sessionId,
+		new ByteArrayInputStream(Arrays.copyOf(body, body.length - 1)));
+
+	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
+    }
+
+    @Test
+    public void uploadFileChunks_withNonExistingSession_shouldReturnNotFound() throws Exception {
+	when(uploadService.getSession("unknown")).thenReturn(null);
+
+	Response response = fileResource.uploadFileChunks(1L, "unknown", batch(1, "abcd"));
+
+	assertThat(response.getStatus(), equalTo(STATUS_NOT_FOUND));
+    }
+
     @Test
     public void getUploadStatus_withExistingSession_shouldReturnOKStatus() throws ApiException, IOException {
 	String validSessionId = "valid_session_id";
 	when(uploadService.getSession(validSessionId)).thenReturn(session);
+	when(session.getDigest()).thenReturn(new FileDigest());
 
 	Response response = fileResource.getUploadStatus(validSessionId);
 
@@ -188,6 +385,17 @@ public class FileResourceTest {
 	assertThat(response.getEntity(), instanceOf(UploadStatusResponse.class));
     }
 
+    @Test
+    public void getUploadStatus_withoutDigest_shouldOmitTheChecksum() throws ApiException, IOException {
+	String validSessionId = "valid_session_id";
+	when(uploadService.getSession(validSessionId)).thenReturn(session);
+
+	Response response = fileResource.getUploadStatus(validSessionId);
+
+	assertThat(response.getStatus(), equalTo(STATUS_OK));
+	assertThat(((UploadStatusResponse) response.getEntity()).getSha256(), nullValue());
+    }
+
     @Test
     public void getUploadStatus_withNonExistingSession_shouldReturnNotFoundStatus() throws ApiException, IOException {
 	String validSessionId = "valid_session_id";
@@ -198,15 +406,76 @@ public class FileResourceTest {
 	assertThat(response.getStatus(), equalTo(STATUS_NOT_FOUND));
     }
 
-    @SuppressWarnings("unchecked")
     @Test
-    public void getListOfUploadStatus_withExistingSession_shouldReturnOKStatus() throws ApiException, IOException {
-	when(uploadService.getAllSessions()).thenReturn(Arrays.asList(session));
+    public void getListOfUploadStatus_withExistingSession_shouldStreamJsonArray() throws ApiException, IOException {
+	when(session.getId()).thenReturn("valid_session_id");
+	when(session.getDigest()).thenReturn(new FileDigest());
+	when(uploadService.findSessions(null, 100, null, null, null))
+		.thenReturn(new SessionPage(Arrays.asList(session), null));
+
+	Response response = fileResource.listUploadsStatus(null, 100, null, null, null);
+
+	assertThat(response.getStatus(), equalTo(STATUS_OK));
+	assertThat(response.getEntity(), instanceOf(StreamingOutput.class));
+	String body = write((StreamingOutput) response.getEntity());
+	assertThat(body.startsWith("[{"), equalTo(true));
+	assertThat(body.contains("\"id\":\"valid_session_id\""), equalTo(true));
+	assertThat(response.getMetadata().containsKey(FileResource.NEXT_CURSOR_HEADER), equalTo(false));
+    }
+
+    @Test
+    public void getListOfUploadStatus_withMorePages_shouldReturnNextCursor() throws ApiException {
+	when(uploadService.findSessions("cursor", 1, 1L, "done", null))
+		.thenReturn(new SessionPage(Arrays.asList(session), "next"));
+
+	Response response = fileResource.listUploadsStatus("cursor", 1, 1L, "done", null);
+
+	assertThat(response.getMetadata().getFirst(FileResource.NEXT_CURSOR_HEADER), equalTo((Object) "next"));
+    }
+
+    @Test
+    public void getListOfUploadStatus_withInvalidDate_shouldReturnBadRequest() {
+	Response response = fileResource.listUploadsStatus(null, 100, null, null, "yesterday");
+
+	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
+    }
+
+    @Test
+    public void getListOfUploadStatus_withInvalidLimit_shouldReturnBadRequest() throws ApiException {
+	when(uploadService.findSessions(null, 0, null, null, null))
+		.thenThrow(new BadRequestException("Limit must be between 1 and 1000"));
+
+	Response response = fileResource.listUploadsStatus(null, 0, null, null, null);
+
+	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
+    }
+
+    @Test
+    public void listUserUploadsStatus_shouldListSessionsOfThatUser() throws ApiException {
+	when(uploadService.findSessions(null, 100, 7L, "ongoing", null))
+		.thenReturn(new SessionPage(Arrays.asList(session), null));
+
+	Response response = fileResource.listUserUploadsStatus(7L, null, 100, "ongoing", null);
+
+	assertThat(response.getStatus(), equalTo(STATUS_OK));
+	assertThat(response.getEntity(), instanceOf(StreamingOutput.class));
+    }
+
+    @Test
+    public void getUserUploadsSummary_shouldCountSessionsByStatus() {
+	Map<String, Long> counts = new LinkedHashMap<String, Long>();
+	counts.put("ongoing", 2L);
+	counts.put("done", 3L);
+	counts.put("failed", 1L);
+	when(uploadService.countSessionsByStatus(7L)).thenReturn(counts);
 
-	Response response = fileResource.listUploadsStatus();
+	Response response = fileResource.getUserUploadsSummary(7L);
 
+	UploadsSummaryResponse summary = (UploadsSummaryResponse) response.getEntity();
 	assertThat(response.getStatus(), equalTo(STATUS_OK));
-	assertThat(response.getEntity(), instanceOf((Class<List<UploadStatusResponse>>) (Object) List.class));
+	assertThat(summary.getUser(), equalTo(7L));
+	assertThat(summary.getDone(), equalTo(3L));
+	assertThat(summary.getTotal(), equalTo(6L));
     }
 
     @Test
@@ -227,6 +496,36 @@ public class FileResourceTest {
 	assertThat(response.getEntity(), notNullValue());
     }
 
+    @Test
+    public void downloadFile_withSingleRange_shouldReturnPartialContent()
+	    throws InvalidOperationException, NotFoundException, IOException {
+	String validSessionId = "valid_session_id";
+	when(file.getFileSize()).thenReturn(100L);
+	when(uploadService.getSession(validSessionId)).thenReturn(session);
+	when(uploadService.getContentStream(session, new ByteRange(10, 19))).thenReturn(new StreamingOutput() {
+	    @Override
+	    public void write(OutputStream output) throws IOException, WebApplicationException {
+		output.write("0123456789".getBytes());
+	    }
+	});
+
+	Response response = fileResource.downloadFile(validSessionId, "bytes=10-19");
+
+	assertThat(response.getStatus(), equalTo(STATUS_PARTIAL_CONTENT));
+	assertThat(response.getMetadata().getFirst("Content-Range"), equalTo((Object) "bytes 10-19/100"));
+    }
+
+    @Test
+    public void downloadFile_withUnsatisfiableRange_shouldReturnRangeNotSatisfiable() {
+	String validSessionId = "valid_session_id";
+	when(file.getFileSize()).thenReturn(100L);
+	when(uploadService.getSession(validSessionId)).thenReturn(session);
+
+	Response response = fileResource.downloadFile(validSessionId, "bytes=200-");
+
+	assertThat(response.getStatus(), equalTo(STATUS_RANGE_NOT_SATISFIABLE));
+    }
+
     @Test
     public void downloadFile_withNonExistingSession_shouldReturnNotFound() {
 	String validSessionId = "valid_session_id";
@@ -236,4 +535,36 @@ public class FileResourceTest {
 
 	assertThat(response.getStatus(), equalTo(STATUS_NOT_FOUND));
     }
+
+    /**
+     * Frames alternating chunk numbers and contents as a batch upload body
+     */
+    private static InputStream batch(Object... chunks) throws IOException {
+	ByteArrayOutputStream body = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(body);
+
+	for (int i = 0; i < chunks.length; i += 2) {
+	    byte[] content = ((String) chunks[i + 1]).getBytes(StandardCharsets.ISO_8859_1);
+	    out.writeInt((Integer) chunks[i]);
+	    out.writeInt(content.length);
+	    out.write(content);
+	}
+
+	return new ByteArrayInputStream(body.toByteArray());
+    }
+
+    private static String write(StreamingOutput output) throws IOException {
+	ByteArrayOutputStream content = new ByteArrayOutputStream();
+	output.write(content);
+	return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String readAll(InputStream input) throws IOException {
+	ByteArrayOutputStream content = new ByteArrayOutputStream();
+	int b;
+	while ((b = input.read()) != -1) {
+	    content.write(b);
+	}
+	return new String(content.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
 }
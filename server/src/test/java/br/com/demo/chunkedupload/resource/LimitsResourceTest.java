@@ -0,0 +1,62 @@
+package br.com.demo.chunkedupload.resource;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.demo.chunkedupload.model.BandwidthLimitsResponse;
+import br.com.demo.chunkedupload.service.BandwidthLimiter;
+
+public class LimitsResourceTest {
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+
+    private BandwidthLimiter limiter;
+
+    private LimitsResource resource;
+
+    @Before
+    public void setUp() {
+	limiter = new BandwidthLimiter(0, 0);
+	resource = new LimitsResource(limiter);
+    }
+
+    @Test
+    public void setGlobalLimit_shouldChangeTheRunningLimiter() {
+	Response response = resource.setGlobalLimit(1000L);
+
+	assertThat(response.getStatus(), equalTo(STATUS_OK));
+	assertThat(((BandwidthLimitsResponse) response.getEntity()).getGlobalBytesPerSecond(), equalTo(1000L));
+	assertThat(limiter.getGlobalRate(), equalTo(1000L));
+    }
+
+    @Test
+    public void setUserLimit_shouldListTheUser() {
+	Response response = resource.setUserLimit(7L, 500L);
+
+	assertThat(((BandwidthLimitsResponse) response.getEntity()).getUsers().get(7L), equalTo(500L));
+	assertThat(limiter.getUserRate(7L), equalTo(500L));
+    }
+
+    @Test
+    public void resetUserLimit_shouldPutTheUserBackOnTheDefault() {
+	resource.setDefaultUserLimit(2000L);
+	resource.setUserLimit(7L, 500L);
+
+	resource.resetUserLimit(7L);
+
+	assertThat(limiter.getUserRate(7L), equalTo(2000L));
+    }
+
+    @Test
+    public void setGlobalLimit_negative_shouldReturnBadRequest() {
+	Response response = resource.setGlobalLimit(-1L);
+
+	assertThat(response.getStatus(), equalTo(STATUS_BAD_REQUEST));
+	assertThat(limiter.getGlobalRate(), equalTo(0L));
+    }
+}
@@ -0,0 +1,117 @@
+package br.com.demo.chunkedupload.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.demo.chunkedupload.exception.OverloadedException;
+
+public class AdmissionControllerTest {
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+
+    private static final long MAX_RETRY_AFTER_SECONDS = 30;
+
+    private AdmissionController admission;
+
+    @Before
+    public void setUp() {
+	admission = new AdmissionController(4, 1000, MAX_RETRY_AFTER_SECONDS);
+    }
+
+    @Test
+    public void admit_withinLimits_shouldCountTheChunkUntilClosed() throws OverloadedException {
+	AdmissionController.Permit permit = admission.admit(ALICE, 100);
+
+	assertThat(admission.getWritesInFlight(), equalTo(1));
+	assertThat(admission.getBytesInFlight(), equalTo(100L));
+
+	permit.close();
+
+	assertThat(admission.getWritesInFlight(), equalTo(0));
+	assertThat(admission.getBytesInFlight(), equalTo(0L));
+    }
+
+    @Test
+    public void close_again_shouldNotReleaseTwice() throws OverloadedException {
+	AdmissionController.Permit permit = admission.admit(ALICE, 100);
+	admission.admit(ALICE, 100);
+
+	permit.close();
+	permit.close();
+
+	assertThat(admission.getWritesInFlight(), equalTo(1));
+    }
+
+    @Test
+    public void admit_aloneOnTheServer_shouldUseEveryWrite() throws OverloadedException {
+	for (int i = 0; i < 4; i++) {
+	    admission.admit(ALICE, 10);
+	}
+
+	assertThat(admission.getWritesInFlight(), equalTo(4));
+    }
+
+    @Test
+    public void admit_whenWritesAreExhausted_shouldRespondServerBusy() throws OverloadedException {
+	for (int i = 0; i < 4; i++) {
+	    admission.admit(ALICE, 10);
+	}
+
+	OverloadedException rejection = rejectionOf(BOB, 10);
+
+	assertThat(rejection.getStatus(), equalTo(OverloadedException.SERVER_BUSY));
+	assertTrue(rejection.getRetryAfterSeconds() >= 1);
+	assertTrue(rejection.getRetryAfterSeconds() <= MAX_RETRY_AFTER_SECONDS);
+    }
+
+    @Test
+    public void admit_whenBytesWouldOverflow_shouldRespondServerBusy() throws OverloadedException {
+	admission.admit(ALICE, 600);
+
+	assertThat(rejectionOf(BOB, 600).getStatus(), equalTo(OverloadedException.SERVER_BUSY));
+    }
+
+    @Test
+    public void admit_chunkLargerThanTheByteLimit_shouldPassWhenNothingElseIsInFlight() throws OverloadedException {
+	admission.admit(ALICE, 5000).close();
+
+	assertThat(admission.getBytesInFlight(), equalTo(0L));
+    }
+
+    @Test
+    public void admit_whenOthersAreWaiting_shouldHoldUserToTheirFairShare() throws OverloadedException {
+	AdmissionController.Permit[] permits = new AdmissionController.Permit[4];
+	for (int i = 0; i < permits.length; i++) {
+	    permits[i] = admission.admit(ALICE, 10);
+	}
+	rejectionOf(BOB, 10);
+
+	permits[0].close();
+	permits[1].close();
+
+	assertThat(rejectionOf(ALICE, 10).getStatus(), equalTo(OverloadedException.TOO_MANY_REQUESTS));
+	admission.admit(BOB, 10);
+	admission.admit(BOB, 10);
+	assertThat(admission.getWritesInFlight(), equalTo(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_withoutWrites_shouldBeRejected() {
+	new AdmissionController(0, 1000, MAX_RETRY_AFTER_SECONDS);
+    }
+
+    private OverloadedException rejectionOf(long user, long length) {
+	try {
+	    admission.admit(user, length);
+	    fail("Chunk of user " + user + " was admitted");
+	    return null;
+	} catch (OverloadedException e) {
+	    return e;
+	}
+    }
+}
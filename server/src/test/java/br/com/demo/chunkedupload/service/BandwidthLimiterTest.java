@@ -0,0 +1,107 @@
+package br.com.demo.chunkedupload.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BandwidthLimiterTest {
+    private static final int KB = 1024;
+
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+
+    @Test
+    public void throttle_withoutLimits_shouldReadAtFullSpeed() throws IOException {
+	BandwidthLimiter limiter = new BandwidthLimiter(0, 0);
+
+	long millis = timeToRead(limiter.throttle(ALICE, body(4 * 1024 * KB)));
+
+	assertTrue(millis < 1000);
+    }
+
+    @Test
+    public void throttle_withUserLimit_shouldSpreadReadsBeyondTheBurst() throws IOException {
+	BandwidthLimiter limiter = new BandwidthLimiter(0, 256 * KB);
+
+	// one second of burst, then half a second of throttling
+	long millis = timeToRead(limiter.throttle(ALICE, body(384 * KB)));
+
+	assertTrue("Read in " + millis + "ms", millis >= 400);
+    }
+
+    @Test
+    public void throttle_withGlobalLimit_shouldShareItBetweenUsers() throws IOException {
+	BandwidthLimiter limiter = new BandwidthLimiter(256 * KB, 0);
+
+	timeToRead(limiter.throttle(ALICE, body(256 * KB)));
+	long millis = timeToRead(limiter.throttle(BOB, body(128 * KB)));
+
+	assertTrue("Read in " + millis + "ms", millis >= 400);
+    }
+
+    @Test
+    public void reserve_beyondTheBurst_shouldTellHowLongToWait() {
+	BandwidthLimiter limiter = new BandwidthLimiter(0, 256 * KB);
+
+	assertThat(limiter.reserve(ALICE, 256 * KB), equalTo(0L));
+	long wait = limiter.reserve(ALICE, 128 * KB);
+
+	assertTrue("Waits " + wait + "ns", wait >= TimeUnit.MILLISECONDS.toNanos(400));
+	assertThat(limiter.reserve(BOB, 128 * KB), equalTo(0L));
+    }
+
+    @Test
+    public void setUserRate_shouldOverrideTheDefaultOfThatUserOnly() {
+	BandwidthLimiter limiter = new BandwidthLimiter(0, 256 * KB);
+
+	limiter.setUserRate(ALICE, 0);
+
+	assertThat(limiter.getUserRate(ALICE), equalTo(0L));
+	assertThat(limiter.getUserRate(BOB), equalTo(256L * KB));
+	assertThat(limiter.getUserRates(), equalTo(Collections.singletonMap(ALICE, 0L)));
+    }
+
+    @Test
+    public void setUserRate_shouldApplyToBodiesBeingRead() throws IOException {
+	BandwidthLimiter limiter = new BandwidthLimiter(0, 64 * KB);
+	InputStream body = limiter.throttle(ALICE, body(4 * 1024 * KB));
+	body.read(new byte[64 * KB]);
+
+	limiter.setUserRate(ALICE, 0);
+
+	assertTrue(timeToRead(body) < 1000);
+    }
+
+    @Test
+    public void resetUserRate_shouldPutTheUserBackOnTheDefault() {
+	BandwidthLimiter limiter = new BandwidthLimiter(0, 256 * KB);
+	limiter.setUserRate(ALICE, 0);
+
+	limiter.resetUserRate(ALICE);
+
+	assertThat(limiter.getUserRate(ALICE), equalTo(256L * KB));
+	assertTrue(limiter.getUserRates().isEmpty());
+    }
+
+    private static InputStream body(int length) {
+	return new ByteArrayInputStream(new byte[length]);
+    }
+
+    private static long timeToRead(InputStream body) throws IOException {
+	long started = System.nanoTime();
+	byte[] buffer = new byte[16 * KB];
+
+	while (body.read(buffer) != -1) {
+	}
+
+	return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+}
@@ -0,0 +1,127 @@
+package br.com.demo.chunkedupload.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.demo.chunkedupload.data.FileInformation;
+import br.com.demo.chunkedupload.data.MemoryRepository;
+import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.exception.InsufficientStorageException;
+import br.com.demo.chunkedupload.exception.QuotaExceededException;
+
+public class CapacityManagerTest {
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+
+    private long usableSpace;
+
+    private MemoryRepository storage;
+
+    @Before
+    public void setUp() {
+	usableSpace = 1000;
+	storage = new MemoryRepository() {
+	    @Override
+	    public long getUsableSpace() {
+		return usableSpace;
+	    }
+	};
+    }
+
+    @Test
+    public void reserve_withinLimits_shouldCountTheDeclaredSize() throws Exception {
+	CapacityManager capacity = new CapacityManager(storage, 500, 0);
+
+	capacity.reserve(session(ALICE, 300));
+
+	assertThat(capacity.getReservedBytes(ALICE), equalTo(300L));
+	assertThat(capacity.getPendingBytes(), equalTo(300L));
+    }
+
+    @Test(expected = QuotaExceededException.class)
+    public void reserve_beyondUserQuota_shouldBeRejected() throws Exception {
+	CapacityManager capacity = new CapacityManager(storage, 500, 0);
+	capacity.reserve(session(ALICE, 300));
+
+	capacity.reserve(session(ALICE, 300));
+    }
+
+    @Test
+    public void reserve_ofAnotherUser_shouldNotCountAgainstTheQuota() throws Exception {
+	CapacityManager capacity = new CapacityManager(storage, 500, 0);
+	capacity.reserve(session(ALICE, 300));
+
+	capacity.reserve(session(BOB, 300));
+
+	assertThat(capacity.getReservedBytes(BOB), equalTo(300L));
+    }
+
+    @Test(expected = InsufficientStorageException.class)
+    public void reserve_beyondFreeSpace_shouldBeRejected() throws Exception {
+	CapacityManager capacity = new CapacityManager(storage, 0, 0);
+	capacity.reserve(session(ALICE, 600));
+
+	capacity.reserve(session(BOB, 600));
+    }
+
+    @Test(expected = InsufficientStorageException.class)
+    public void reserve_intoTheMinimumFreeSpace_shouldBeRejected() throws Exception {
+	new CapacityManager(storage, 0, 200).reserve(session(ALICE, 900));
+    }
+
+    @Test
+    public void reserve_withUnknownFreeSpace_shouldOnlyCheckTheQuota() throws Exception {
+	usableSpace = -1;
+	CapacityManager capacity = new CapacityManager(storage, 0, 0);
+
+	capacity.reserve(session(ALICE, 1000000));
+
+	assertThat(capacity.getPendingBytes(), equalTo(1000000L));
+    }
+
+    @Test
+    public void chunkPersisted_shouldMoveBytesFromReservedToUsedSpace() throws Exception {
+	CapacityManager capacity = new CapacityManager(storage, 0, 0);
+	Session first = session(ALICE, 800);
+	capacity.reserve(first);
+
+	capacity.chunkPersisted(first, 400);
+	usableSpace -= 400;
+
+	assertThat(capacity.getPendingBytes(), equalTo(400L));
+	capacity.reserve(session(BOB, 200));
+    }
+
+    @Test
+    public void release_shouldLetTheSpaceBeReservedAgain() throws Exception {
+	CapacityManager capacity = new CapacityManager(storage, 500, 0);
+	Session first = session(ALICE, 500);
+	capacity.reserve(first);
+
+	capacity.release(first);
+	capacity.release(first);
+
+	assertThat(capacity.getReservedBytes(ALICE), equalTo(0L));
+	assertThat(capacity.getPendingBytes(), equalTo(0L));
+	capacity.reserve(session(ALICE, 500));
+    }
+
+    @Test
+    public void restore_shouldReserveOnlyWhatIsLeftToUpload() {
+	CapacityManager capacity = new CapacityManager(storage, 0, 0);
+	Session recovered = session(ALICE, 300);
+	recovered.getFileInfo().markChunkAsPersisted(1);
+
+	capacity.restore(recovered);
+
+	assertThat(capacity.getReservedBytes(ALICE), equalTo(300L));
+	assertThat(capacity.getPendingBytes(), equalTo(200L));
+    }
+
+    private static Session session(long user, long fileSize) {
+	return new Session(user, new FileInformation(fileSize, "file", 100));
+    }
+}
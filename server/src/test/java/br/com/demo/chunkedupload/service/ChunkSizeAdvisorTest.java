@@ -0,0 +1,88 @@
+package br.com.demo.chunkedupload.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkSizeAdvisorTest {
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+    private static final long GB = 1024L * MB;
+
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private ChunkSizeAdvisor advisor;
+
+    @Before
+    public void setUp() {
+	advisor = new ChunkSizeAdvisor(64 * KB, 64 * MB, MB, 2);
+    }
+
+    @Test
+    public void recommend_withoutHistory_shouldReturnDefaultSize() {
+	assertThat(advisor.recommend(1L, GB), equalTo(MB));
+    }
+
+    @Test
+    public void recommend_forSmallFile_shouldReturnFileSize() {
+	assertThat(advisor.recommend(1L, 1000), equalTo(1000));
+    }
+
+    @Test
+    public void recommend_forFastUser_shouldCoverTargetSeconds() {
+	advisor.recordTransfer(1L, 8 * MB, ONE_SECOND);
+
+	assertThat(advisor.recommend(1L, GB), equalTo(16 * MB));
+    }
+
+    @Test
+    public void recommend_forVeryFastUser_shouldNotExceedMaximum() {
+	advisor.recordTransfer(1L, 1024 * MB, ONE_SECOND);
+
+	assertThat(advisor.recommend(1L, 10 * GB), equalTo(64 * MB));
+    }
+
+    @Test
+    public void recommend_forSlowUser_shouldNotGoBelowMinimum() {
+	advisor.recordTransfer(1L, 10 * KB, ONE_SECOND);
+
+	assertThat(advisor.recommend(1L, 100 * MB), equalTo(64 * KB));
+    }
+
+    @Test
+    public void recommend_shouldReturnMultipleOfMinimum() {
+	advisor.recordTransfer(1L, 300 * KB, ONE_SECOND);
+
+	assertThat(advisor.recommend(1L, GB) % (64 * KB), equalTo(0));
+    }
+
+    @Test
+    public void recommend_forHugeFile_shouldBoundNumberOfChunks() {
+	long fileSize = 100 * GB;
+
+	int chunkSize = advisor.recommend(1L, fileSize);
+
+	assertTrue(fileSize / chunkSize <= ChunkSizeAdvisor.MAX_CHUNKS_PER_FILE);
+    }
+
+    @Test
+    public void recordTransfer_tooShortToTime_shouldBeIgnored() {
+	advisor.recordTransfer(1L, MB, 1000);
+
+	assertThat(advisor.recommend(1L, GB), equalTo(MB));
+    }
+
+    @Test
+    public void recordTransfer_shouldAverageSamples() {
+	advisor.recordTransfer(1L, 8 * MB, ONE_SECOND);
+	advisor.recordTransfer(1L, 18 * MB, ONE_SECOND);
+
+	// 8 + 0.3 * (18 - 8) = 11 MB/s, over 2 seconds
+	assertThat(advisor.recommend(1L, GB), equalTo(22 * MB));
+    }
+}
@@ -0,0 +1,79 @@
+package br.com.demo.chunkedupload.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.demo.chunkedupload.data.FileInformation;
+import br.com.demo.chunkedupload.data.Session;
+
+public class SessionExpiryReaperTest {
+    private List<Session> expired;
+
+    private SessionExpiryReaper reaper;
+
+    @Before
+    public void setUp() {
+	expired = new ArrayList<Session>();
+	reaper = new SessionExpiryReaper(1000, 8, new Consumer<Session>() {
+	    @Override
+	    public void accept(Session session) {
+		expired.add(session);
+	    }
+	});
+    }
+
+    @Test
+    public void advance_withExpiredSession_shouldExpireIt() {
+	Session session = new Session(1L, new FileInformation(1L, "file", 1), 0L);
+
+	reaper.schedule(session);
+	reaper.advance();
+
+	assertThat(expired.size(), equalTo(1));
+	assertThat(expired.get(0), equalTo(session));
+    }
+
+    @Test
+    public void advance_withSessionStillAlive_shouldNotExpireIt() {
+	Session session = new Session(1L, new FileInformation(1L, "file", 1), 3600L);
+
+	reaper.schedule(session);
+	for (int i = 0; i < 100; i++) {
+	    reaper.advance();
+	}
+
+	assertThat(expired.size(), equalTo(0));
+    }
+
+    @Test
+    public void advance_withSessionDueLater_shouldWaitForItsDeadline() {
+	reaper = new SessionExpiryReaper(1000, 8, expired::add, session -> 3600 * 1000L);
+	Session session = new Session(1L, new FileInformation(1L, "file", 1), 0L);
+
+	reaper.schedule(session);
+	for (int i = 0; i < 100; i++) {
+	    reaper.advance();
+	}
+
+	assertThat(expired.size(), equalTo(0));
+    }
+
+    @Test
+    public void advance_shouldExpireEachSessionOnce() {
+	Session session = new Session(1L, new FileInformation(1L, "file", 1), 0L);
+
+	reaper.schedule(session);
+	for (int i = 0; i < 20; i++) {
+	    reaper.advance();
+	}
+
+	assertThat(expired.size(), equalTo(1));
+    }
+}
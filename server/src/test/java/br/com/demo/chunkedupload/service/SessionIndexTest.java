@@ -0,0 +1,144 @@
+package br.com.demo.chunkedupload.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import br.com.demo.chunkedupload.data.FileInformation;
+import br.com.demo.chunkedupload.data.Session;
+
+public class SessionIndexTest {
+    private SessionIndex index;
+
+    @Before
+    public void setUp() {
+	index = new SessionIndex();
+    }
+
+    @Test
+    public void add_shouldIndexByUserAndStatus() {
+	Session session = newSession(1L, 2);
+
+	index.add(session);
+
+	assertThat(index.all().size(), equalTo(1));
+	assertThat(index.ofUser(1L).containsValue(session), equalTo(true));
+	assertThat(index.ofUser(2L).isEmpty(), equalTo(true));
+	assertThat(index.withStatus("ongoing").containsValue(session), equalTo(true));
+	assertThat(index.count("ongoing"), equalTo(1L));
+    }
+
+    @Test
+    public void statusChanged_whenConcluded_shouldMoveToDone() {
+	Session session = newSession(1L, 1);
+	index.add(session);
+
+	session.getFileInfo().markChunkAsPersisted(1);
+	index.statusChanged(session);
+
+	assertThat(index.withStatus("ongoing").isEmpty(), equalTo(true));
+	assertThat(index.withStatus("done").containsValue(session), equalTo(true));
+	assertThat(index.count("ongoing"), equalTo(0L));
+	assertThat(index.count("done"), equalTo(1L));
+    }
+
+    @Test
+    public void statusChanged_whenFailed_shouldMoveToFailed() {
+	Session session = newSession(1L, 1);
+	index.add(session);
+
+	session.maskAsFailed();
+	index.statusChanged(session);
+
+	assertThat(index.withStatus("failed").containsValue(session), equalTo(true));
+	assertThat(index.count("ongoing"), equalTo(0L));
+	assertThat(index.count("failed"), equalTo(1L));
+    }
+
+    @Test
+    public void remove_shouldDropSessionFromEveryIndex() {
+	Session session = newSession(1L, 2);
+	index.add(session);
+
+	index.remove(session);
+
+	assertThat(index.all().isEmpty(), equalTo(true));
+	assertThat(index.ofUser(1L).isEmpty(), equalTo(true));
+	assertThat(index.withStatus("ongoing").isEmpty(), equalTo(true));
+	assertThat(index.count("ongoing"), equalTo(0L));
+    }
+
+    @Test
+    public void statusChanged_afterRemove_shouldNotIndexSessionAgain() {
+	Session session = newSession(1L, 1);
+	index.add(session);
+	index.remove(session);
+
+	session.maskAsFailed();
+	index.statusChanged(session);
+
+	assertThat(index.withStatus("failed").isEmpty(), equalTo(true));
+	assertThat(index.count("failed"), equalTo(0L));
+    }
+
+    @Test
+    public void statusChanged_fromConcurrentThreads_shouldLeaveLatestStatus() throws InterruptedException {
+	final int chunks = 64;
+	final List<Session> sessions = new ArrayList<Session>();
+	for (int i = 0; i < 100; i++) {
+	    Session session = newSession((long) (i % 7), chunks);
+	    sessions.add(session);
+	    index.add(session);
+	}
+
+	final CountDownLatch start = new CountDownLatch(1);
+	List<Thread> threads = new ArrayList<Thread>();
+	for (int t = 0; t < 4; t++) {
+	    final int offset = t;
+	    Thread thread = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			start.await();
+		    } catch (InterruptedException e) {
+			return;
+		    }
+
+		    for (Session session : sessions) {
+			for (int chunk = offset + 1; chunk <= chunks; chunk += 4) {
+			    if (session.getFileInfo().markChunkAsPersisted(chunk) && session.isConcluded())
+				index.statusChanged(session);
+			}
+			if (offset == 0 && session.getUser() == 3L) {
+			    session.maskAsFailed();
+			    index.statusChanged(session);
+			}
+		    }
+		}
+	    });
+	    threads.add(thread);
+	    thread.start();
+	}
+
+	start.countDown();
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+
+	for (Session session : sessions) {
+	    assertThat(index.withStatus(session.getStatus()).containsValue(session), equalTo(true));
+	}
+	assertThat(index.count("ongoing") + index.count("done") + index.count("failed"), equalTo(100L));
+	assertThat(index.count("failed"), equalTo((long) index.ofUser(3L).size()));
+    }
+
+    private static Session newSession(Long user, int chunks) {
+	return new Session(user, new FileInformation((long) chunks, "file", 1));
+    }
+}
@@ -1,12 +1,30 @@
 package br.com.demo.chunkedupload.service;
 
+import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,15 +33,19 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import br.com.demo.chunkedupload.data.FileRepository;
+import br.com.demo.chunkedupload.data.MemoryRepository;
 import br.com.demo.chunkedupload.data.Session;
+import br.com.demo.chunkedupload.data.SessionJournal;
 import br.com.demo.chunkedupload.exception.ApiException;
 import br.com.demo.chunkedupload.exception.BadRequestException;
+import br.com.demo.chunkedupload.exception.ChecksumMismatchException;
+import br.com.demo.chunkedupload.exception.ConflictException;
+import br.com.demo.chunkedupload.exception.InsufficientStorageException;
+import br.com.demo.chunkedupload.exception.QuotaExceededException;
 import br.com.demo.chunkedupload.exception.NotFoundException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UploadServiceTest {
-    private static final int CHUNK_LIMIT = 1024 * 1024;
-
     private UploadService service;
 
     @Mock
@@ -35,37 +57,72 @@ public class UploadServiceTest {
     }
 
     @Test
-    public void createSession_withValidData_shouldCreateSessionSuccessfully() throws BadRequestException {
+    public void createSession_withValidData_shouldCreateSessionSuccessfully() throws ApiException {
 	Session session = service.createSession(1L, UUID.randomUUID().toString(), 1, 1L);
 
 	assertThat(session, notNullValue());
     }
 
+    @Test
+    public void createSession_withJournal_shouldRegisterTheSessionBeforeJournalingIt() throws Exception {
+	SessionJournal journal = mock(SessionJournal.class);
+	UploadService journaled = new UploadService(repository, journal);
+	List<Session> registered = new ArrayList<Session>();
+	willAnswer(invocation -> {
+	    Session created = invocation.getArgument(0);
+	    registered.add(journaled.getSession(created.getId()));
+	    return null;
+	}).given(journal).sessionCreated(any(Session.class));
+
+	Session session = journaled.createSession(1L, UUID.randomUUID().toString(), 1, 1L);
+
+	// a compaction between both would otherwise drop the session
+	assertThat(registered, equalTo(Arrays.asList(session)));
+    }
+
+    @Test
+    public void createSession_whenJournalFails_shouldDiscardTheSessionAndItsStorage() throws Exception {
+	SessionJournal journal = mock(SessionJournal.class);
+	UploadService journaled = new UploadService(repository, journal);
+	willThrow(new IOException("No space left on device")).given(journal).sessionCreated(any(Session.class));
+
+	try {
+	    journaled.createSession(1L, UUID.randomUUID().toString(), 1, 1L);
+	    fail("Session was created");
+	} catch (InsufficientStorageException e) {
+	    // expected
+	}
+
+	assertThat(journaled.getAllSessions().size(), equalTo(0));
+	verify(repository).delete(any());
+    }
+
     @Test(expected = BadRequestException.class)
-    public void createSession_withMissingFilename_shouldThrowBadRequestException() throws BadRequestException {
+    public void createSession_withMissingFilename_shouldThrowBadRequestException() throws ApiException {
 	Session session = service.createSession(1L, "", 1, 1L);
 
 	assertThat(session, notNullValue());
     }
 
     @Test(expected = BadRequestException.class)
-    public void createSession_withMissingUser_shouldThrowBadRequestException() throws BadRequestException {
+    public void createSession_withMissingUser_shouldThrowBadRequestException() throws ApiException {
 	service.createSession(null, UUID.randomUUID().toString(), 1, 1L);
     }
 
     @Test(expected = BadRequestException.class)
     public void createSession_withChunkSizeGreaterThanThreshold_shouldThrowBadRequestException()
-	    throws BadRequestException {
-	service.createSession(1L, UUID.randomUUID().toString(), CHUNK_LIMIT + 1, 1L);
+	    throws ApiException {
+	service.createSession(1L, UUID.randomUUID().toString(),
+		service.getChunkSizeAdvisor().getMaxChunkSize() + 1, 1L);
     }
 
     @Test(expected = BadRequestException.class)
-    public void createSession_withChunkSizeLessThanOne_shouldThrowBadRequestException() throws BadRequestException {
+    public void createSession_withChunkSizeLessThanOne_shouldThrowBadRequestException() throws ApiException {
 	service.createSession(1L, UUID.randomUUID().toString(), 0, 1L);
     }
 
     @Test(expected = BadRequestException.class)
-    public void createSession_withFileSizeLessThanOne_shouldThrowBadRequestException() throws BadRequestException {
+    public void createSession_withFileSizeLessThanOne_shouldThrowBadRequestException() throws ApiException {
 	service.createSession(1L, UUID.randomUUID().toString(), 1, 0L);
     }
 
@@ -80,6 +137,207 @@ public class UploadServiceTest {
 	verify(repository).persist(session.getId(), chunkNumber, buffer);
     }
 
+    @Test
+    public void persistBlock_withInputStream_shouldStreamToRepository() throws ApiException, IOException {
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 1, 1L);
+
+	final List<Integer> streamed = new ArrayList<Integer>();
+	given(repository.persist(eq(session.getId()), eq(1), any(InputStream.class))).willAnswer(invocation -> {
+	    InputStream content = invocation.getArgument(2);
+	    for (int b = content.read(); b != -1; b = content.read()) {
+		streamed.add(b);
+	    }
+	    return (long) streamed.size();
+	});
+
+	InputStream inputStream = new ByteArrayInputStream(new byte[] { 42 });
+	int chunkNumber = 1;
+	service.persistBlock(session.getId(), session.getUser(), chunkNumber, inputStream);
+
+	// the service wraps the request stream, so only what it yields is checked
+	assertThat(streamed, equalTo(Arrays.asList(42)));
+    }
+
+    @Test
+    public void persistBlock_withChunkNumberOutOfRange_shouldRejectItAndKeepTheSession() throws ApiException {
+	UploadService service = new UploadService(new MemoryRepository());
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 4, 8L);
+
+	for (int chunkNumber : new int[] { 0, 3 }) {
+	    try {
+		service.persistBlock(session.getId(), 1L, chunkNumber, new ByteArrayInputStream("abcd".getBytes()));
+		fail("Expected BadRequestException");
+	    } catch (BadRequestException expected) {
+	    } catch (IOException e) {
+		throw new AssertionError(e);
+	    }
+	}
+
+	assertThat(session.hasFailed(), equalTo(false));
+    }
+
+    @Test
+    public void persistBlock_withShortOrLongBody_shouldRejectItAndKeepTheSession() throws Exception {
+	UploadService service = new UploadService(new MemoryRepository());
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 4, 8L);
+
+	for (String body : new String[] { "abc", "abcde" }) {
+	    try {
+		service.persistBlock(session.getId(), 1L, 1, new ByteArrayInputStream(body.getBytes()));
+		fail("Expected BadRequestException");
+	    } catch (BadRequestException expected) {
+	    }
+	}
+
+	try {
+	    service.persistBlock(session.getId(), 1L, 2, "efg".getBytes());
+	    fail("Expected BadRequestException");
+	} catch (BadRequestException expected) {
+	}
+
+	assertThat(session.hasFailed(), equalTo(false));
+	assertThat(session.getFileInfo().isChunkPersisted(1), equalTo(false));
+
+	service.persistBlock(session.getId(), 1L, 1, new ByteArrayInputStream("abcd".getBytes()));
+	assertThat(session.getFileInfo().isChunkPersisted(1), equalTo(true));
+    }
+
+    @Test
+    public void persistBlock_whenBodyCannotBeRead_shouldRejectItAndKeepTheSession() throws Exception {
+	UploadService service = new UploadService(new MemoryRepository());
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 4, 8L);
+	InputStream cut = new InputStream() {
+	    @Override
+	    public int read() throws IOException {
+		throw new IOException("Connection reset");
+	    }
+	};
+
+	try {
+	    service.persistBlock(session.getId(), 1L, 1, cut);
+	    fail("Expected BadRequestException");
+	} catch (BadRequestException expected) {
+	}
+
+	assertThat(session.hasFailed(), equalTo(false));
+    }
+
+    @Test
+    public void persistBlock_withMatchingChecksum_shouldPersistAndHashTheFile() throws ApiException, IOException {
+	UploadService service = new UploadService(new MemoryRepository());
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 9, 9L);
+	byte[] content = "123456789".getBytes();
+
+	service.persistBlock(session.getId(), session.getUser(), 1, new ByteArrayInputStream(content), 0xe3069283L);
+
+	assertThat(session.isConcluded(), equalTo(true));
+	assertThat(session.getDigest().getHex(),
+		equalTo("15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225"));
+    }
+
+    @Test(expected = QuotaExceededException.class)
+    public void createSession_beyondUserQuota_shouldBeRejectedUpFront() throws ApiException {
+	UploadService service = new UploadService(new MemoryRepository());
+	service.setCapacityManager(new CapacityManager(service.fileStorage, 10, 0));
+	service.createSession(1L, "first", 5, 6L);
+
+	service.createSession(1L, "second", 5, 6L);
+    }
+
+    @Test
+    public void createSession_afterAnotherUploadConcluded_shouldReuseItsQuota() throws ApiException, IOException {
+	UploadService service = new UploadService(new MemoryRepository());
+	service.setCapacityManager(new CapacityManager(service.fileStorage, 10, 0));
+	Session first = service.createSession(1L, "first", 6, 6L);
+
+	service.persistBlock(first.getId(), 1L, 1, "123456".getBytes());
+
+	assertThat(service.getCapacityManager().getReservedBytes(1L), equalTo(0L));
+	service.createSession(1L, "second", 6, 6L);
+    }
+
+    @Test
+    public void expire_withOngoingSession_shouldReleaseItsReservation() throws ApiException {
+	UploadService service = new UploadService(new MemoryRepository());
+	service.setCapacityManager(new CapacityManager(service.fileStorage, 10, 0));
+	Session session = service.createSession(1L, "file", 5, 6L);
+
+	service.expire(session);
+
+	assertThat(service.getCapacityManager().getReservedBytes(1L), equalTo(0L));
+    }
+
+    @Test
+    public void persistBlock_whenChunkIsSentAgainWithItsChecksum_shouldNotTouchStorage()
+	    throws ApiException, IOException {
+	CountingRepository storage = new CountingRepository();
+	UploadService service = new UploadService(storage);
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 9, 9L);
+	service.persistBlock(session.getId(), session.getUser(), 1, new ByteArrayInputStream("123456789".getBytes()));
+
+	service.persistBlock(session.getId(), session.getUser(), 1, new ByteArrayInputStream(new byte[0]), 0xe3069283L);
+
+	assertThat(storage.persists, equalTo(1));
+	assertThat(session.getStatus(), equalTo("done"));
+    }
+
+    @Test
+    public void persistBlock_whenChunkIsSentAgainWithoutChecksum_shouldCompareItsBody()
+	    throws ApiException, IOException {
+	CountingRepository storage = new CountingRepository();
+	UploadService service = new UploadService(storage);
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 9, 9L);
+	service.persistBlock(session.getId(), session.getUser(), 1, "123456789".getBytes());
+
+	service.persistBlock(session.getId(), session.getUser(), 1, new ByteArrayInputStream("123456789".getBytes()));
+
+	assertThat(storage.persists, equalTo(1));
+    }
+
+    @Test(expected = ConflictException.class)
+    public void persistBlock_whenChunkIsSentAgainWithOtherChecksum_shouldReportConflict()
+	    throws ApiException, IOException {
+	UploadService service = new UploadService(new MemoryRepository());
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 9, 9L);
+	service.persistBlock(session.getId(), session.getUser(), 1, new ByteArrayInputStream("123456789".getBytes()));
+
+	service.persistBlock(session.getId(), session.getUser(), 1, new ByteArrayInputStream(new byte[0]), 0xbeefL);
+    }
+
+    @Test
+    public void persistBlock_whenChunkIsSentAgainWithOtherContent_shouldKeepThePersistedOne()
+	    throws ApiException, IOException {
+	MemoryRepository storage = new MemoryRepository();
+	UploadService service = new UploadService(storage);
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 9, 9L);
+	service.persistBlock(session.getId(), session.getUser(), 1, new ByteArrayInputStream("123456789".getBytes()));
+
+	try {
+	    service.persistBlock(session.getId(), session.getUser(), 1,
+		    new ByteArrayInputStream("987654321".getBytes()));
+	    fail("Conflicting chunk was accepted");
+	} catch (ConflictException e) {
+	    assertThat(new String(storage.read(session.getId(), 1)), equalTo("123456789"));
+	    assertThat(session.hasFailed(), equalTo(false));
+	}
+    }
+
+    @Test
+    public void persistBlock_withMismatchingChecksum_shouldRejectTheChunkButKeepTheSession()
+	    throws ApiException, IOException {
+	UploadService service = new UploadService(new MemoryRepository());
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 9, 9L);
+
+	try {
+	    service.persistBlock(session.getId(), session.getUser(), 1,
+		    new ByteArrayInputStream("123456780".getBytes()), 0xe3069283L);
+	    fail("Corrupted chunk was accepted");
+	} catch (ChecksumMismatchException e) {
+	    assertThat(session.getFileInfo().isChunkPersisted(1), equalTo(false));
+	    assertThat(session.getStatus(), equalTo("ongoing"));
+	}
+    }
+
     @Test(expected = NotFoundException.class)
     public void persistBlock_whenSessionNotFound_shouldTriggerNotFoundException() throws ApiException, IOException {
 	byte[] buffer = new byte[1];
@@ -90,4 +348,148 @@ public class UploadServiceTest {
 
 	verify(repository, times(0)).persist(sessionId, chunkNumber, buffer);
     }
+
+    @Test
+    public void expire_withOngoingSession_shouldRemoveIt() throws ApiException {
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 1, 2L);
+
+	service.expire(session);
+
+	assertThat(service.getSession(session.getId()), nullValue());
+    }
+
+    @Test
+    public void expire_withConcludedSession_shouldKeepIt() throws ApiException, IOException {
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 1, 1L);
+	service.persistBlock(session.getId(), session.getUser(), 1, new byte[1]);
+
+	service.expire(session);
+
+	assertThat(service.getSession(session.getId()), notNullValue());
+    }
+
+    @Test
+    public void expire_withConcludedSessionPastItsRetention_shouldRemoveIt() throws ApiException, IOException {
+	service.startExpiryReaper(TimeUnit.HOURS.toMillis(1), 20, 0);
+	Session session = service.createSession(1L, UUID.randomUUID().toString(), 1, 1L);
+	service.persistBlock(session.getId(), session.getUser(), 1, new byte[1]);
+
+	service.expire(session);
+
+	assertThat(service.getSession(session.getId()), nullValue());
+    }
+
+    @Test
+    public void getMillisUntilExpiration_withConcludedSession_shouldAddTheRetention() throws ApiException, IOException {
+	service.startExpiryReaper(TimeUnit.HOURS.toMillis(1), 20, 3600);
+	Session ongoing = service.createSession(1L, UUID.randomUUID().toString(), 1, 2L);
+	Session concluded = service.createSession(1L, UUID.randomUUID().toString(), 1, 1L);
+	service.persistBlock(concluded.getId(), concluded.getUser(), 1, new byte[1]);
+
+	assertTrue(service.getMillisUntilExpiration(ongoing) <= ongoing.getTimeout() * 1000);
+	assertTrue(service.getMillisUntilExpiration(concluded) > TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test
+    public void findSessions_shouldPageThroughEverySessionOnce() throws ApiException {
+	List<String> created = new ArrayList<String>();
+	for (int i = 0; i < 5; i++) {
+	    created.add(service.createSession(1L, "file" + i, 1, 2L).getId());
+	}
+
+	List<String> listed = new ArrayList<String>();
+	String cursor = null;
+	do {
+	    SessionPage page = service.findSessions(cursor, 2, null, null, null);
+	    for (Session session : page.getSessions()) {
+		listed.add(session.getId());
+	    }
+	    cursor = page.getNextCursor();
+	} while (cursor != null);
+
+	assertThat(listed.size(), equalTo(created.size()));
+	assertThat(new HashSet<String>(listed), equalTo(new HashSet<String>(created)));
+    }
+
+    @Test
+    public void findSessions_withFilters_shouldReturnMatchingSessionsOnly() throws ApiException, IOException {
+	service.createSession(1L, "ongoing", 1, 2L);
+	Session done = service.createSession(2L, "done", 1, 1L);
+	service.persistBlock(done.getId(), done.getUser(), 1, new byte[1]);
+	service.createSession(2L, "other", 1, 2L);
+
+	SessionPage page = service.findSessions(null, 10, 2L, "done", null);
+
+	assertThat(page.getSessions().size(), equalTo(1));
+	assertThat(page.getSessions().get(0).getId(), equalTo(done.getId()));
+	assertThat(page.getNextCursor(), nullValue());
+    }
+
+    @Test
+    public void findSessions_withCreatedAfter_shouldSkipOlderSessions() throws Exception {
+	Session older = service.createSession(1L, "older", 1, 2L);
+	Thread.sleep(2);
+	Session newer = service.createSession(1L, "newer", 1, 2L);
+
+	SessionPage page = service.findSessions(null, 10, null, null, older.getCreatedDateTime());
+
+	assertThat(page.getSessions().size(), equalTo(1));
+	assertThat(page.getSessions().get(0).getId(), equalTo(newer.getId()));
+    }
+
+    @Test
+    public void findSessions_shouldNotListExpiredSessions() throws ApiException {
+	Session session = service.createSession(1L, "file", 1, 2L);
+
+	service.expire(session);
+
+	assertThat(service.findSessions(null, 10, null, null, null).getSessions().isEmpty(), equalTo(true));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void findSessions_withInvalidCursor_shouldThrowBadRequestException() throws ApiException {
+	service.findSessions("not a cursor", 10, null, null, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void findSessions_withLimitAboveMaximum_shouldThrowBadRequestException() throws ApiException {
+	service.findSessions(null, UploadService.MAX_PAGE_SIZE + 1, null, null, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void findSessions_withUnknownStatus_shouldThrowBadRequestException() throws ApiException {
+	service.findSessions(null, 10, null, "paused", null);
+    }
+
+    @Test
+    public void countSessionsByStatus_shouldFollowSessionsAsTheyConcludeAndExpire() throws ApiException, IOException {
+	Session done = service.createSession(1L, "done", 1, 1L);
+	Session expired = service.createSession(1L, "expired", 1, 2L);
+	service.createSession(2L, "other", 1, 2L);
+
+	service.persistBlock(done.getId(), done.getUser(), 1, new byte[1]);
+	service.expire(expired);
+
+	Map<String, Long> ofUser = service.countSessionsByStatus(1L);
+	assertThat(ofUser.get("ongoing"), equalTo(0L));
+	assertThat(ofUser.get("done"), equalTo(1L));
+
+	Map<String, Long> all = service.countSessionsByStatus(null);
+	assertThat(all.get("ongoing"), equalTo(1L));
+	assertThat(all.get("done"), equalTo(1L));
+	assertThat(all.get("failed"), equalTo(0L));
+    }
+
+    /**
+     * Keeps chunks in memory and counts the writes
+     */
+    private static class CountingRepository extends MemoryRepository {
+	int persists;
+
+	@Override
+	public long persist(String id, int chunkNumber, InputStream input) throws IOException {
+	    persists++;
+	    return super.persist(id, chunkNumber, input);
+	}
+    }
 }
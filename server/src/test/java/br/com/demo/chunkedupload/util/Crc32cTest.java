@@ -0,0 +1,55 @@
+package br.com.demo.chunkedupload.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import org.junit.Test;
+
+public class Crc32cTest {
+    /** Check value of CRC-32C from RFC 3720, appendix B.4 */
+    private static final long CHECK = 0xe3069283L;
+
+    @Test
+    public void newChecksum_shouldComputeTheStandardCheckValue() {
+	Checksum crc = Crc32c.newChecksum();
+	byte[] digits = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+	crc.update(digits, 0, digits.length);
+
+	assertThat(crc.getValue(), equalTo(CHECK));
+    }
+
+    @Test
+    public void pureJava_shouldMatchTheRuntimeImplementation() {
+	byte[] content = new byte[100000];
+	new Random(17).nextBytes(content);
+	Checksum pure = new Crc32c.PureJava();
+	Checksum runtime = Crc32c.newChecksum();
+
+	pure.update(content, 0, 1);
+	pure.update(content, 1, content.length - 1);
+	runtime.update(content, 0, content.length);
+
+	assertThat(pure.getValue(), equalTo(runtime.getValue()));
+    }
+
+    @Test
+    public void parse_shouldReadWhatToHexWrites() {
+	assertThat(Crc32c.parse(Crc32c.toHex(CHECK)), equalTo(CHECK));
+	assertThat(Crc32c.parse("BEEF"), equalTo(0xbeefL));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parse_withMoreThanEightDigits_shouldFail() {
+	Crc32c.parse("1e3069283");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parse_withNonHexDigits_shouldFail() {
+	Crc32c.parse("xyz");
+    }
+}
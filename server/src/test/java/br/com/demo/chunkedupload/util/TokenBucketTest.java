@@ -0,0 +1,67 @@
+package br.com.demo.chunkedupload.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void reserve_withinCapacity_shouldNotWait() {
+	TokenBucket bucket = new TokenBucket(1000, 1000);
+
+	assertThat(bucket.reserve(1000), equalTo(0L));
+    }
+
+    @Test
+    public void reserve_beyondCapacity_shouldWaitForTheDebtToBePaid() {
+	TokenBucket bucket = new TokenBucket(1000, 1000);
+	bucket.reserve(1000);
+
+	long wait = bucket.reserve(500);
+
+	assertTrue(wait > ONE_SECOND / 4);
+	assertTrue(wait <= ONE_SECOND / 2);
+    }
+
+    @Test
+    public void reserve_concurrently_shouldQueueCallersBehindEachOther() {
+	TokenBucket bucket = new TokenBucket(1000, 1000);
+	bucket.reserve(1000);
+
+	long first = bucket.reserve(500);
+	long second = bucket.reserve(500);
+
+	assertTrue(second > first);
+	assertTrue(second <= ONE_SECOND);
+    }
+
+    @Test
+    public void reserve_withoutRate_shouldNeverWait() {
+	TokenBucket bucket = new TokenBucket(0, 0);
+
+	assertThat(bucket.reserve(Long.MAX_VALUE / 2), equalTo(0L));
+	assertTrue(bucket.isFull());
+    }
+
+    @Test
+    public void setRate_shouldApplyToTheNextReservation() {
+	TokenBucket bucket = new TokenBucket(1000, 1000);
+	bucket.reserve(1000);
+
+	bucket.setRate(0, 0);
+
+	assertThat(bucket.reserve(1000), equalTo(0L));
+	assertThat(bucket.getRate(), equalTo(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setRate_negative_shouldBeRejected() {
+	new TokenBucket(1000, 1000).setRate(-1, 1000);
+    }
+}